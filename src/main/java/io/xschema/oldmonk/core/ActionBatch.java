@@ -0,0 +1,429 @@
+package io.xschema.oldmonk.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue of element actions of a page, run in as few round trips as possible.
+ * Consecutive steps which do not need real input events, i.e. clear, setValue
+ * and selecting options, are run together by a single script. Steps which do,
+ * i.e. type and click, are run by WebDriver like the matching
+ * {@link BasePage} methods. The steps run in the order they were queued and
+ * {@link #execute()} stops at the first step failing:
+ * 
+ * <pre>
+ * BatchResult result = batch().type("username", user).type("password", password)
+ *         .selectOptionByText("language", "English").click("login_button").execute();
+ * </pre>
+ * 
+ * A batch can be executed any number of times.
+ */
+public class ActionBatch
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActionBatch.class.getName());
+
+    private final BasePage      page;
+    private final List<Step>    steps  = new ArrayList<Step>();
+
+    ActionBatch(BasePage page)
+    {
+        this.page = page;
+    }
+
+    /**
+     * Queue typing text into an element with real key events.
+     */
+    public ActionBatch type(String locator, String textToType)
+    {
+        return type(locator, null, textToType);
+    }
+
+    public ActionBatch type(String locator, String replacement, String textToType)
+    {
+        return add(locator, replacement, Action.TYPE, textToType);
+    }
+
+    /**
+     * Queue setting the value of an input field, firing 'input' and 'change'
+     * events but no key events. Runs in the batch script, so prefer it over
+     * {@link #type(String, String)} for fields which do not react to keys.
+     */
+    public ActionBatch setValue(String locator, String value)
+    {
+        return setValue(locator, null, value);
+    }
+
+    public ActionBatch setValue(String locator, String replacement, String value)
+    {
+        return add(locator, replacement, Action.SET_VALUE, value);
+    }
+
+    public ActionBatch clear(String locator)
+    {
+        return clear(locator, null);
+    }
+
+    public ActionBatch clear(String locator, String replacement)
+    {
+        return add(locator, replacement, Action.CLEAR, null);
+    }
+
+    public ActionBatch selectOptionByText(String locator, String optionText)
+    {
+        return selectOptionByText(locator, null, optionText);
+    }
+
+    public ActionBatch selectOptionByText(String locator, String replacement, String optionText)
+    {
+        return add(locator, replacement, Action.SELECT_BY_TEXT, optionText);
+    }
+
+    public ActionBatch selectOptionByIndex(String locator, int optionIndex)
+    {
+        return selectOptionByIndex(locator, null, optionIndex);
+    }
+
+    public ActionBatch selectOptionByIndex(String locator, String replacement, int optionIndex)
+    {
+        return add(locator, replacement, Action.SELECT_BY_INDEX, String.valueOf(optionIndex));
+    }
+
+    /**
+     * Queue setting a form field of any kind: the visible option text of a
+     * dropdown, "true" or "false" for a checkbox or radio button, else the
+     * value of the field. Runs in the batch script.
+     */
+    public ActionBatch fill(String locator, String value)
+    {
+        return fill(locator, null, value);
+    }
+
+    public ActionBatch fill(String locator, String replacement, String value)
+    {
+        return add(locator, replacement, Action.FILL, value);
+    }
+
+    /**
+     * Queue a click on an element with real mouse events.
+     */
+    public ActionBatch click(String locator)
+    {
+        return click(locator, null);
+    }
+
+    public ActionBatch click(String locator, String replacement)
+    {
+        return add(locator, replacement, Action.CLICK, null);
+    }
+
+    private ActionBatch add(String locator, String replacement, Action action, String argument)
+    {
+        if (argument == null && action.hasArgument())
+        {
+            throw new IllegalArgumentException(action.getDescription() + " '" + locator + "' needs a value!");
+        }
+
+        steps.add(new Step(locator, replacement, action, argument));
+        return this;
+    }
+
+    public int size()
+    {
+        return steps.size();
+    }
+
+    /**
+     * Run all queued steps, stopping at the first step failing.
+     *
+     * @return - result telling which step failed, if any
+     */
+    public BatchResult execute()
+    {
+        return execute(true);
+    }
+
+    /**
+     * Run all queued steps, including the ones after a failed step.
+     *
+     * @return - result telling which steps failed, if any
+     */
+    public BatchResult executeAll()
+    {
+        return execute(false);
+    }
+
+    private BatchResult execute(boolean stopOnError)
+    {
+        SessionState.of(page.driver).prepare(page.driver);
+
+        Execution execution = new Execution(page.driver instanceof JavascriptExecutor, stopOnError);
+
+        for (int i = 0; i < steps.size() && !execution.stopped(); i++)
+        {
+            Step step = steps.get(i);
+            Locator locator = null;
+
+            if (execution.scriptable && step.action.isScriptable())
+            {
+                try
+                {
+                    locator = ElementFinder.resolve(step.locator, step.replacement);
+                } catch (Exception e)
+                {
+                    execution.flush();
+                    execution.failed(i, e);
+                    continue;
+                }
+            }
+
+            if (locator != null && locator.getStrategy().isScriptable())
+            {
+                execution.queue(i, locator);
+                continue;
+            }
+
+            execution.flush();
+
+            if (!execution.stopped())
+            {
+                execution.runNative(i);
+            }
+        }
+
+        execution.flush();
+
+        BatchResult result = new BatchResult(steps.size(), execution.failures, execution.roundTrips);
+
+        if (result.isSuccessful())
+        {
+            LOGGER.info("Successfully executed batch of " + steps.size() + " steps in " + execution.roundTrips
+                    + " round trips");
+        }
+
+        return result;
+    }
+
+    /**
+     * State of a single execution of the batch: the scriptable steps waiting
+     * to be run together, the failed steps and the number of round trips.
+     */
+    private final class Execution
+    {
+        private final boolean                       scriptable;
+        private final boolean                       stopOnError;
+        private final List<Integer>                 pending   = new ArrayList<Integer>();
+        private final List<List<String>>            arguments = new ArrayList<List<String>>();
+        private final List<BatchResult.StepFailure> failures  = new ArrayList<BatchResult.StepFailure>();
+        private int                                 roundTrips;
+
+        Execution(boolean scriptable, boolean stopOnError)
+        {
+            this.scriptable = scriptable;
+            this.stopOnError = stopOnError;
+        }
+
+        boolean stopped()
+        {
+            return stopOnError && !failures.isEmpty();
+        }
+
+        void queue(int index, Locator locator)
+        {
+            Step step = steps.get(index);
+
+            pending.add(index);
+            arguments.add(Arrays.asList(locator.getStrategy().name(), locator.getValue(), step.action.name(),
+                    step.argument));
+        }
+
+        /**
+         * Run the pending steps in a single script.
+         */
+        void flush()
+        {
+            if (pending.isEmpty() || stopped())
+            {
+                return;
+            }
+
+            List<Integer> indexes = new ArrayList<Integer>(pending);
+            List<List<String>> script = new ArrayList<List<String>>(arguments);
+            pending.clear();
+            arguments.clear();
+
+            roundTrips++;
+            Object result;
+            boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+            try
+            {
+                result = ((JavascriptExecutor) page.driver).executeScript(Scripts.RUN_ACTIONS, script, stopOnError);
+            } catch (WebDriverException e)
+            {
+                for (int index : indexes)
+                {
+                    failed(index, e);
+                }
+                return;
+            } finally
+            {
+                page.invalidatePageReads();
+
+                if (timed)
+                {
+                    TimeBudget.end();
+                }
+            }
+
+            for (Object entry : (List<?>) result)
+            {
+                List<?> failure = (List<?>) entry;
+                int index = indexes.get(((Number) failure.get(0)).intValue());
+
+                failed(index, new WebDriverException(String.valueOf(failure.get(1))));
+            }
+        }
+
+        void runNative(int index)
+        {
+            try
+            {
+                roundTrips++;
+                ActionBatch.this.runNative(steps.get(index));
+            } catch (Exception e)
+            {
+                failed(index, e);
+            }
+        }
+
+        void failed(int index, Exception cause)
+        {
+            Step step = steps.get(index);
+            String description = step.action.getDescription() + " '" + step.locator + "'";
+
+            LOGGER.error("Batch step " + (index + 1) + " of " + steps.size() + " (" + description + ") failed: "
+                    + cause.getMessage());
+
+            failures.add(new BatchResult.StepFailure(index, step.locator, description, cause));
+        }
+    }
+
+    private void runNative(Step step) throws Exception
+    {
+        switch (step.action)
+        {
+            case TYPE:
+                page.type(step.locator, step.replacement, step.argument);
+                break;
+            case CLICK:
+                page.click(step.locator, step.replacement);
+                break;
+            case CLEAR:
+                page.clear(step.locator, step.replacement);
+                break;
+            case SET_VALUE:
+                page.clear(step.locator, step.replacement);
+                page.type(step.locator, step.replacement, step.argument);
+                break;
+            case SELECT_BY_TEXT:
+                page.selectOptionByText(step.locator, step.replacement, step.argument);
+                break;
+            case SELECT_BY_INDEX:
+                page.selectOptionByIndex(step.locator, step.replacement, Integer.parseInt(step.argument));
+                break;
+            case FILL:
+                fillNative(step);
+                break;
+            default:
+                throw new IllegalStateException("Unknown action " + step.action);
+        }
+    }
+
+    private void fillNative(Step step) throws Exception
+    {
+        WebElement element = ElementFinder.findElement(page.driver, step.locator, step.replacement);
+        String type = element.getAttribute("type");
+
+        if ("select".equalsIgnoreCase(element.getTagName()))
+        {
+            page.selectOptionByText(step.locator, step.replacement, step.argument);
+        } else if ("checkbox".equalsIgnoreCase(type) || "radio".equalsIgnoreCase(type))
+        {
+            if (element.isSelected() != Boolean.parseBoolean(step.argument))
+            {
+                page.click(step.locator, step.replacement);
+            }
+        } else
+        {
+            page.clear(step.locator, step.replacement);
+            page.type(step.locator, step.replacement, step.argument);
+        }
+    }
+
+    /**
+     * Actions which can be queued. Scriptable actions do not depend on real
+     * input events and run in the batch script.
+     */
+    private enum Action
+    {
+        TYPE("type into", true, false),
+        CLICK("click", false, false),
+        CLEAR("clear", false, true),
+        SET_VALUE("set value of", true, true),
+        SELECT_BY_TEXT("select option by text of", true, true),
+        SELECT_BY_INDEX("select option by index of", true, true),
+        FILL("fill", true, true);
+
+        private final String  description;
+        private final boolean argument;
+        private final boolean scriptable;
+
+        private Action(String description, boolean argument, boolean scriptable)
+        {
+            this.description = description;
+            this.argument = argument;
+            this.scriptable = scriptable;
+        }
+
+        String getDescription()
+        {
+            return description;
+        }
+
+        boolean hasArgument()
+        {
+            return argument;
+        }
+
+        boolean isScriptable()
+        {
+            return scriptable;
+        }
+    }
+
+    /**
+     * A queued action.
+     */
+    private static final class Step
+    {
+        private final String locator;
+        private final String replacement;
+        private final Action action;
+        private final String argument;
+
+        Step(String locator, String replacement, Action action, String argument)
+        {
+            this.locator = locator;
+            this.replacement = replacement;
+            this.action = action;
+            this.argument = argument;
+        }
+    }
+}
@@ -1,21 +1,27 @@
 package io.xschema.oldmonk.core;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.openqa.selenium.By;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
-import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.Select;
-import org.openqa.selenium.support.ui.WebDriverWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
 
 import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
 import io.xschema.oldmonk.exception.PropertyNotFoundException;
@@ -30,9 +36,6 @@ public class BasePage
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(BasePage.class.getName());
 
-    private WebElement          element;
-    private List<WebElement>    elements;
-
     /*
      * WebDriver instance is available to all page classes which extend
      * BasePage. Useful in some situations, where you need to directly use
@@ -41,14 +44,378 @@ public class BasePage
     protected WebDriver         driver;
     protected Properties        props;
 
+    private final SessionState  session;
+    private volatile WaitEngine waitEngine;
+
+    /**
+     * Create a page object using the driver registered for the current thread
+     * in the {@link DriverRegistry}.
+     *
+     * @throws IllegalStateException
+     *             - if no driver is registered for the current thread
+     */
+    public BasePage() throws IOException
+    {
+        this(DriverRegistry.require());
+    }
+
     public BasePage(WebDriver driver) throws IOException
     {
         this.driver = driver;
+        this.session = SessionState.of(driver);
 
         // Initialize the object repository.
         props = ObjectRepository.initialize();
     }
 
+    /**
+     * Return the locator value as present in object repository, for logging.
+     */
+    private String locatorValue(String locator)
+    {
+        try
+        {
+            return ObjectRepository.getLocator(locator);
+        } catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Enable or disable caching of elements for the driver session of this
+     * page. When enabled, an element found once is reused by subsequent
+     * actions instead of being found again, until the page is navigated or a
+     * frame or window is switched through this or any other page object of the
+     * same driver. An element which has gone stale is found again once,
+     * transparently. Caching is disabled by default.
+     * 
+     * @param enabled
+     *            - true to cache elements
+     */
+    public void setElementCacheEnabled(boolean enabled)
+    {
+        session.setElementCacheEnabled(enabled);
+    }
+
+    /**
+     * Enable or disable memoizing the page source, title, url and window
+     * handles for the driver session of this page. When enabled, these are
+     * read from the browser once per navigation epoch. A new epoch starts
+     * whenever a page object of the same driver navigates, clicks, types,
+     * selects, hovers, runs a script, sleeps, waits for an element, or
+     * switches a frame or window.
+     * Changes made by the page on its own, e.g. by a timer, are only seen
+     * after {@link #invalidatePageReads()}. Memoizing is disabled by default.
+     * 
+     * @param enabled
+     *            - true to memoize page reads
+     */
+    public void setPageReadCacheEnabled(boolean enabled)
+    {
+        session.setPageReadCacheEnabled(enabled);
+    }
+
+    /**
+     * Start a new navigation epoch, so that the next page reads go to the
+     * browser again.
+     */
+    public void invalidatePageReads()
+    {
+        session.pageChanged();
+    }
+
+    /**
+     * Enable or disable the DOM snapshot mode for the driver session of this
+     * page. When enabled, {@link #getText(String)},
+     * {@link #getAttribute(String, String)} and {@link #getXpathCount(String)}
+     * are answered from the page source, read and parsed once per navigation
+     * epoch, instead of asking the browser for every element. Any action
+     * which may change the page starts a new epoch, see
+     * {@link #setPageReadCacheEnabled(boolean)}. Locators the snapshot can not
+     * answer, e.g. CSS pseudo classes other than ':first-child',
+     * ':last-child' and ':nth-child(n)', are sent to the browser.
+     * <p>
+     * The snapshot only knows the markup: text is the text content regardless
+     * of styling, and attributes are the ones written in the markup, not the
+     * current properties of the element. Use it for read-only verification of
+     * static content, e.g. large reports and tables. The mode is disabled by
+     * default.
+     * 
+     * @param enabled
+     *            - true to answer reads from a DOM snapshot
+     */
+    public void setDomSnapshotEnabled(boolean enabled)
+    {
+        session.setDomSnapshotEnabled(enabled);
+    }
+
+    /**
+     * Make thread confinement of driver sessions strict. A driver session
+     * belongs to the thread which created its first page object. Page objects
+     * keep no state between calls and may be shared by threads, but each
+     * thread must use its own driver. When strict, using a driver from another
+     * thread throws an IllegalStateException, else a warning is logged once
+     * per thread. Not strict by default.
+     * 
+     * @param strict
+     *            - true to fail on use from the wrong thread
+     */
+    public static void setStrictThreadConfinement(boolean strict)
+    {
+        SessionState.setStrictThreadConfinement(strict);
+    }
+
+    /**
+     * Forget the state kept for a driver session by page objects: cached
+     * elements, memoized page reads, the tracked browsing context and the
+     * owner thread. Call it when a driver is reused by another test, or once
+     * it has quit.
+     * 
+     * @param driver
+     *            - driver whose session state is discarded
+     */
+    public static void resetSessionState(WebDriver driver)
+    {
+        SessionState.discard(driver);
+    }
+
+    /**
+     * Hand the driver session of this page over to the current thread, e.g.
+     * when a driver created by a configuration method is used by a test
+     * running on another thread.
+     */
+    public void bindToCurrentThread()
+    {
+        session.bindToCurrentThread();
+    }
+
+    /**
+     * Enable or disable tracking of the browsing context for the driver
+     * session of this page. When enabled, the current window and frame path
+     * are tracked and switches which would not change them are skipped.
+     * Switching to the parent window is deferred until the next command, so
+     * that switching to the parent window and back into the same frame costs
+     * no round trip. Only switches done through page objects are tracked, so
+     * do not switch through the driver directly while tracking is enabled.
+     * Tracking is disabled by default.
+     * 
+     * @param enabled
+     *            - true to track the browsing context
+     */
+    public void setContextTrackingEnabled(boolean enabled)
+    {
+        session.setContextTrackingEnabled(enabled);
+    }
+
+    /**
+     * Use a wait engine of its own for this page, instead of the default
+     * engine shared by all pages.
+     * 
+     * @param waitEngine
+     *            - wait engine, or null to use {@link WaitEngine#getDefault()}
+     */
+    public void setWaitEngine(WaitEngine waitEngine)
+    {
+        this.waitEngine = waitEngine;
+    }
+
+    /**
+     * @return - wait engine used by this page
+     */
+    public WaitEngine getWaitEngine()
+    {
+        WaitEngine engine = waitEngine;
+        return engine != null ? engine : WaitEngine.getDefault();
+    }
+
+    /**
+     * Find the elements of several locators in a single round trip and cache
+     * them, so that the following actions on these elements do not need to
+     * find them again. Has no effect unless element caching is enabled.
+     * 
+     * @param locators
+     *            - element locators
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public void prefetchElements(String... locators) throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        session.prepare(driver);
+
+        if (!session.isElementCacheEnabled())
+        {
+            return;
+        }
+
+        Map<String, WebElement> found = ElementFinder.findElementBatch(driver, Arrays.asList(locators));
+
+        for (Map.Entry<String, WebElement> entry : found.entrySet())
+        {
+            if (entry.getValue() != null)
+            {
+                session.cache(ElementFinder.find(entry.getKey()), entry.getValue());
+            }
+        }
+
+        LOGGER.info("Prefetched " + found.size() + " elements " + found.keySet());
+    }
+
+    /**
+     * Start a batch of actions on elements of this page, which is run in as
+     * few round trips as possible.
+     * 
+     * @return - empty batch
+     */
+    public ActionBatch batch()
+    {
+        return new ActionBatch(this);
+    }
+
+    /**
+     * Fill form fields in a single script execution. Each field is set
+     * according to its kind: dropdowns by visible option text, checkboxes and
+     * radio buttons by "true" or "false", other fields by value, firing
+     * 'input' and 'change' events. Fields which need real keystrokes can be
+     * typed instead, with WebDriver. Fields are filled in map order, and a
+     * failing field does not stop the others from being filled.
+     * 
+     * @param fields
+     *            - locator names mapped to the value to fill in
+     * @param typedFields
+     *            - locator names of the fields to type into with real key
+     *            events
+     * @return - locator names of the fields which could not be filled, mapped
+     *         to the reason. Empty if all fields were filled.
+     */
+    public Map<String, String> fillForm(Map<String, String> fields, String... typedFields)
+    {
+        Set<String> typed = new HashSet<String>(Arrays.asList(typedFields));
+        ActionBatch batch = batch();
+
+        for (Map.Entry<String, String> field : fields.entrySet())
+        {
+            if (typed.contains(field.getKey()))
+            {
+                batch.clear(field.getKey()).type(field.getKey(), field.getValue());
+            } else
+            {
+                batch.fill(field.getKey(), field.getValue());
+            }
+        }
+
+        BatchResult result = batch.executeAll();
+        Map<String, String> failed = result.getFailedLocators();
+
+        if (failed.isEmpty())
+        {
+            LOGGER.info("Successfully filled " + fields.size() + " form fields in " + result.getRoundTrips()
+                    + " round trips");
+        } else
+        {
+            LOGGER.error("Unable to fill " + failed.size() + " of " + fields.size() + " form fields: " + failed);
+        }
+
+        return failed;
+    }
+
+    /**
+     * Find the elements of a locator in the DOM snapshot of the page.
+     * 
+     * @return - matching elements, or null if the snapshot mode is disabled or
+     *         the snapshot can not answer the locator
+     */
+    private List<Element> snapshotElements(String locator, String replacement)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        session.prepare(driver);
+
+        if (!session.isDomSnapshotEnabled())
+        {
+            return null;
+        }
+
+        Locator resolved = ElementFinder.resolve(locator, replacement);
+
+        try
+        {
+            return session.snapshot(driver).select(resolved);
+        } catch (DomSnapshot.UnsupportedQueryException e)
+        {
+            LOGGER.debug("Locator '" + locator + "' is not answered by the DOM snapshot: " + e.getMessage());
+        } catch (SAXException | IOException e)
+        {
+            LOGGER.warn("Unable to parse the page source, DOM snapshot disabled for this read: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the first element found in the DOM snapshot.
+     */
+    private static Element firstSnapshotElement(List<Element> elements, String locator)
+    {
+        if (elements.isEmpty())
+        {
+            throw new NoSuchElementException("Unable to locate element '" + locator + "' in the DOM snapshot");
+        }
+
+        return elements.get(0);
+    }
+
+    /**
+     * Action performed on an element found through the object repository.
+     */
+    private interface ElementAction<T>
+    {
+        T perform(WebElement element);
+    }
+
+    /**
+     * Find an element and perform an action on it. With element caching
+     * enabled, an element found before in the same browsing context is reused,
+     * and found again once if it has gone stale.
+     */
+    private <T> T perform(String locator, String replacement, ElementAction<T> action)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        session.prepare(driver);
+
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            By by = ElementFinder.find(locator, replacement);
+
+            WebElement cached = session.cachedElement(by);
+            if (cached != null)
+            {
+                try
+                {
+                    return action.perform(cached);
+                } catch (StaleElementReferenceException e)
+                {
+                    session.evict(by);
+                    LOGGER.debug("Cached element '" + locator + "' has gone stale, finding it again");
+                }
+            }
+
+            return action.perform(session.findElement(driver, locator, by));
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+    }
+
     public void click(String locator) throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
         click(locator, null, false);
@@ -87,40 +454,65 @@ public class BasePage
      *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
      *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
      */
-    public void click(String locator, String replacement, boolean ignoreNoSuchElementException)
+    public void click(final String locator, String replacement, boolean ignoreNoSuchElementException)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
-        {
-            if (locator.contains("$value"))
-            {
-                locator = locator.replace("$value", replacement);
-            }
-        }
+        session.prepare(driver);
 
         if (ignoreNoSuchElementException)
         {
             try
             {
-                element = ElementFinder.findElement(driver, locator);
+                session.findElement(driver, locator, ElementFinder.find(locator, replacement));
             } catch (NoSuchElementException ex)
             {
                 return;
             }
         } else
         {
-            element = ElementFinder.findElement(driver, locator);
-
-            WebDriverWait wait = new WebDriverWait(driver, 15);
-            wait.until(ExpectedConditions.elementToBeClickable(element));
-
-            element.click();
-
+            perform(locator, replacement, new ElementAction<Void>()
+            {
+                @Override
+                public Void perform(WebElement element)
+                {
+                    getWaitEngine().until(driver, locator, clickable(element));
+
+                    element.click();
+                    return null;
+                }
+            });
+
+            session.pageChanged();
+            session.contextUnknown();
             LOGGER.info("Successfully clicked on element '" + locator + "' with locator value '"
-                    + props.getProperty(locator) + "'");
+                    + locatorValue(locator) + "'");
         }
     }
 
+    /**
+     * Condition of an element being displayed and enabled. Unlike
+     * ExpectedConditions.elementToBeClickable, a stale element fails the wait
+     * at once instead of being waited for until the timeout, so that a stale
+     * cached element is found again.
+     */
+    private static ExpectedCondition<WebElement> clickable(final WebElement element)
+    {
+        return new ExpectedCondition<WebElement>()
+        {
+            @Override
+            public WebElement apply(WebDriver driver)
+            {
+                return element.isDisplayed() && element.isEnabled() ? element : null;
+            }
+
+            @Override
+            public String toString()
+            {
+                return "element to be clickable: " + element;
+            }
+        };
+    }
+
     public void type(String locator, String textToType)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
@@ -145,22 +537,22 @@ public class BasePage
      *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
      *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
      */
-    public void type(String locator, String replacement, String textToType)
+    public void type(String locator, String replacement, final String textToType)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                element.sendKeys(textToType);
+                return null;
             }
-        }
+        });
 
-        element = ElementFinder.findElement(driver, locator);
-
-        element.sendKeys(textToType);
+        session.pageChanged();
         LOGGER.info("Successfully typed text '" + textToType + "' on element '" + locator + "' with locator value '"
-                + props.getProperty(locator) + "'");
+                + locatorValue(locator) + "'");
     }
 
     public int getXpathCount(String locator) throws PropertyNotFoundException, InvalidLocatorStrategyException
@@ -188,19 +580,20 @@ public class BasePage
     public int getXpathCount(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
-        {
-            if (locator.contains("$value"))
-            {
-                locator = locator.replace("$value", replacement);
-            }
-        }
+        session.prepare(driver);
 
-        elements = ElementFinder.findElements(driver, locator);
+        List<Element> snapshot = snapshotElements(locator, replacement);
+        int size;
 
-        int size = elements.size();
+        if (snapshot != null)
+        {
+            size = snapshot.size();
+        } else
+        {
+            size = ElementFinder.findElements(driver, locator, replacement).size();
+        }
 
-        LOGGER.info("Element size for element '" + locator + "' with locator value '" + props.getProperty(locator)
+        LOGGER.info("Element size for element '" + locator + "' with locator value '" + locatorValue(locator)
                 + "' is " + size);
 
         return size;
@@ -231,24 +624,16 @@ public class BasePage
     public boolean isElementDisplayed(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        boolean isElementDisplayed = perform(locator, replacement, new ElementAction<Boolean>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Boolean perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                return element.isDisplayed();
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
-
-        if (null == element)
-        {
-            return false;
-        }
+        });
 
-        boolean isElementDisplayed = element.isDisplayed();
-
-        LOGGER.info("Display property for element '" + locator + "' with locator value '" + props.getProperty(locator)
+        LOGGER.info("Display property for element '" + locator + "' with locator value '" + locatorValue(locator)
                 + "' is " + isElementDisplayed);
 
         return isElementDisplayed;
@@ -278,19 +663,18 @@ public class BasePage
     public void clear(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                element.clear();
+                return null;
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
+        });
 
-        element.clear();
-
-        LOGGER.info("Successfully cleared element '" + locator + "' with locator value '" + props.getProperty(locator)
+        session.pageChanged();
+        LOGGER.info("Successfully cleared element '" + locator + "' with locator value '" + locatorValue(locator)
                 + "'");
     }
 
@@ -318,21 +702,20 @@ public class BasePage
      *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
      *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
      */
-    public void executeJavaScript(String locator, String replacement, String script)
+    public void executeJavaScript(String locator, String replacement, final String script)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                JavascriptExecutor js = (JavascriptExecutor) driver;
+                js.executeScript(script, element);
+                return null;
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
-
-        JavascriptExecutor js = (JavascriptExecutor) driver;
-        js.executeScript(script, element);
+        });
+        session.pageChanged();
     }
 
     public void selectOptionByText(String locator, String optionText)
@@ -359,24 +742,23 @@ public class BasePage
      *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
      *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
      */
-    public void selectOptionByText(String locator, String replacement, String optionText)
+    public void selectOptionByText(String locator, String replacement, final String optionText)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                Select dropdown = new Select(element);
+                dropdown.selectByVisibleText(optionText);
+                return null;
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
-
-        Select dropdown = new Select(element);
-        dropdown.selectByVisibleText(optionText);
+        });
 
+        session.pageChanged();
         LOGGER.info("Successfully selected option '" + optionText + "' from element '" + locator
-                + "' with locator value '" + props.getProperty(locator) + "'");
+                + "' with locator value '" + locatorValue(locator) + "'");
     }
 
     public void selectOptionByIndex(String locator, int optionIndex)
@@ -403,24 +785,23 @@ public class BasePage
      *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
      *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
      */
-    public void selectOptionByIndex(String locator, String replacement, int optionIndex)
+    public void selectOptionByIndex(String locator, String replacement, final int optionIndex)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                Select dropdown = new Select(element);
+                dropdown.selectByIndex(optionIndex);
+                return null;
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
-
-        Select dropdown = new Select(element);
-        dropdown.selectByIndex(optionIndex);
+        });
 
+        session.pageChanged();
         LOGGER.info("Successfully selected option with index " + optionIndex + "' from element '" + locator
-                + "' with locator value '" + props.getProperty(locator) + "'");
+                + "' with locator value '" + locatorValue(locator) + "'");
     }
 
     public void mouseOver(String locator) throws PropertyNotFoundException, InvalidLocatorStrategyException
@@ -447,21 +828,20 @@ public class BasePage
     public void mouseOver(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                Actions action = new Actions(driver);
+                action.moveToElement(element).click().perform();
+                return null;
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
-
-        Actions action = new Actions(driver);
-        action.moveToElement(element).click().perform();
+        });
 
+        session.pageChanged();
         LOGGER.info("Successfully hovered on element '" + locator + "' with locator value '"
-                + props.getProperty(locator) + "'");
+                + locatorValue(locator) + "'");
     }
 
     public String getText(String locator) throws PropertyNotFoundException, InvalidLocatorStrategyException
@@ -489,19 +869,25 @@ public class BasePage
     public String getText(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        List<Element> snapshot = snapshotElements(locator, replacement);
+        String text;
+
+        if (snapshot != null)
+        {
+            text = DomSnapshot.text(firstSnapshotElement(snapshot, locator));
+        } else
         {
-            if (locator.contains("$value"))
+            text = perform(locator, replacement, new ElementAction<String>()
             {
-                locator = locator.replace("$value", replacement);
-            }
+                @Override
+                public String perform(WebElement element)
+                {
+                    return element.getText();
+                }
+            });
         }
 
-        element = ElementFinder.findElement(driver, locator);
-
-        String text = element.getText();
-
-        LOGGER.info("Text for element '" + locator + "' with locator value '" + props.getProperty(locator) + "' is "
+        LOGGER.info("Text for element '" + locator + "' with locator value '" + locatorValue(locator) + "' is "
                 + text);
 
         return text;
@@ -532,23 +918,29 @@ public class BasePage
      *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
      *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
      */
-    public String getAttribute(String locator, String replacement, String attr)
+    public String getAttribute(String locator, String replacement, final String attr)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        List<Element> snapshot = snapshotElements(locator, replacement);
+        String attribute;
+
+        if (snapshot != null)
         {
-            if (locator.contains("$value"))
+            attribute = DomSnapshot.attribute(firstSnapshotElement(snapshot, locator), attr);
+        } else
+        {
+            attribute = perform(locator, replacement, new ElementAction<String>()
             {
-                locator = locator.replace("$value", replacement);
-            }
+                @Override
+                public String perform(WebElement element)
+                {
+                    return element.getAttribute(attr);
+                }
+            });
         }
 
-        element = ElementFinder.findElement(driver, locator);
-
-        String attribute = element.getAttribute(attr);
-
         LOGGER.info("Attribute value for '" + attr + "' of element '" + locator + "' with locator value '"
-                + props.getProperty(locator) + "' is '" + attribute + "'");
+                + locatorValue(locator) + "' is '" + attribute + "'");
 
         return attribute;
     }
@@ -578,19 +970,16 @@ public class BasePage
     public String getValue(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        String value = perform(locator, replacement, new ElementAction<String>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public String perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                return element.getAttribute("value");
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
-
-        String value = element.getAttribute("value");
+        });
 
-        LOGGER.info("Value for element '" + locator + "' with locator value '" + props.getProperty(locator) + "' is '"
+        LOGGER.info("Value for element '" + locator + "' with locator value '" + locatorValue(locator) + "' is '"
                 + value + "'");
 
         return value;
@@ -601,7 +990,22 @@ public class BasePage
      */
     public void refresh()
     {
-        driver.navigate().refresh();
+        session.prepare(driver);
+
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            driver.navigate().refresh();
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+
+        session.navigated();
 
         LOGGER.info("Successfully refreshed browser");
     }
@@ -611,7 +1015,23 @@ public class BasePage
      */
     public void pressBrowserBackButton()
     {
-        driver.navigate().back();
+        session.prepare(driver);
+
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            driver.navigate().back();
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+
+        session.navigated();
+        session.contextUnknown();
         LOGGER.info("Successfully navigated back in browser");
     }
 
@@ -620,7 +1040,23 @@ public class BasePage
      */
     public void pressBrowserForwardButton()
     {
-        driver.navigate().forward();
+        session.prepare(driver);
+
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            driver.navigate().forward();
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+
+        session.navigated();
+        session.contextUnknown();
         LOGGER.info("Successfully navigated forward in browser");
     }
 
@@ -632,6 +1068,8 @@ public class BasePage
      */
     public void sleep(int timeInSeconds)
     {
+        boolean timed = TimeBudget.begin(TimeBudget.Category.WAIT);
+
         try
         {
             LOGGER.info("Sleeping for '" + timeInSeconds + "' seconds...");
@@ -639,7 +1077,44 @@ public class BasePage
         } catch (InterruptedException ex)
         {
             // Do-Nothing
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
         }
+
+        session.pageChanged();
+    }
+
+    /**
+     * Wait for element to be visible, for the timeout of the wait engine of
+     * this page.
+     * 
+     * @param locator
+     *            - element locator
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public void waitForElementToBePresent(String locator)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        session.prepare(driver);
+
+        getWaitEngine().untilVisible(driver, locator);
+
+        // whatever made the element appear may have changed the rest of the
+        // page as well
+        session.pageChanged();
+
+        LOGGER.info("Successfully waited for element '" + locator + "' with locator value '"
+                + locatorValue(locator) + "'");
     }
 
     public void waitForElementToBePresent(String locator, int waitTimeInSeconds)
@@ -669,21 +1144,14 @@ public class BasePage
     public void waitForElementToBePresent(String locator, String replacement, int waitTimeInSeconds)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
-        {
-            if (locator.contains("$value"))
-            {
-                locator = locator.replace("$value", replacement);
-            }
-        }
+        session.prepare(driver);
 
-        By by = ElementFinder.find(locator);
+        getWaitEngine().withTimeout(waitTimeInSeconds, TimeUnit.SECONDS).untilVisible(driver, locator, replacement);
 
-        WebDriverWait wait = new WebDriverWait(driver, waitTimeInSeconds);
-        wait.until(ExpectedConditions.visibilityOfElementLocated(by));
+        session.pageChanged();
 
         LOGGER.info("Successfully waited for element '" + locator + "' with locator value '"
-                + props.getProperty(locator) + "'");
+                + locatorValue(locator) + "'");
     }
 
     /**
@@ -694,7 +1162,7 @@ public class BasePage
      */
     public void switchToFrameByName(String frameName)
     {
-        driver.switchTo().frame(frameName);
+        session.switchToFrame(driver, frameName);
         LOGGER.info("Successfully switched to frame identified by name '" + frameName + "'");
     }
 
@@ -706,7 +1174,7 @@ public class BasePage
      */
     public void switchToFrameByNumber(int frameNumber)
     {
-        driver.switchTo().frame(frameNumber);
+        session.switchToFrame(driver, frameNumber);
         LOGGER.info("Successfully switched to frame identified by number '" + frameNumber + "'");
     }
 
@@ -735,18 +1203,17 @@ public class BasePage
     public void switchToFrameByFrameElement(String locator, String replacement)
             throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        if (replacement != null)
+        perform(locator, replacement, new ElementAction<Void>()
         {
-            if (locator.contains("$value"))
+            @Override
+            public Void perform(WebElement element)
             {
-                locator = locator.replace("$value", replacement);
+                session.switchToFrame(driver, element);
+                return null;
             }
-        }
-
-        element = ElementFinder.findElement(driver, locator);
+        });
 
-        driver.switchTo().frame(element);
-        LOGGER.info("Successfully switched to frame identified by element '" + props.getProperty(locator) + "'");
+        LOGGER.info("Successfully switched to frame identified by element '" + locatorValue(locator) + "'");
     }
 
     /**
@@ -757,7 +1224,7 @@ public class BasePage
      */
     public void switchToWindow(String windowName)
     {
-        driver.switchTo().window(windowName);
+        session.switchToWindow(driver, windowName);
         LOGGER.info("Successfully switched to window identified by name '" + windowName + "'");
     }
 
@@ -766,10 +1233,23 @@ public class BasePage
      */
     public void switchToParentWindow()
     {
-        driver.switchTo().defaultContent();
+        session.switchToTopLevel(driver);
         LOGGER.info("Successfully switched to parent window");
     }
 
+    /**
+     * Close the current window. Switch to another window afterwards, e.g. by
+     * {@link #switchToWindow(String)}, before using the driver again.
+     */
+    public void closeWindow()
+    {
+        session.prepare(driver);
+
+        driver.close();
+        session.windowClosed();
+        LOGGER.info("Successfully closed current window");
+    }
+
     /**
      * Get page source.
      * 
@@ -777,7 +1257,7 @@ public class BasePage
      */
     public String getPageSource()
     {
-        return driver.getPageSource();
+        return (String) session.read(driver, SessionState.PageRead.PAGE_SOURCE);
     }
 
     /**
@@ -787,7 +1267,7 @@ public class BasePage
      */
     public String getTitle()
     {
-        String title = driver.getTitle();
+        String title = (String) session.read(driver, SessionState.PageRead.TITLE);
         LOGGER.info("Current page title is '" + title + "'");
 
         return title;
@@ -800,7 +1280,7 @@ public class BasePage
      */
     public String getCurrentUrl()
     {
-        String url = driver.getCurrentUrl();
+        String url = (String) session.read(driver, SessionState.PageRead.CURRENT_URL);
         LOGGER.info("Current page url is '" + url + "'");
 
         return url;
@@ -815,7 +1295,10 @@ public class BasePage
      */
     public Set<String> getAllWindowHandles()
     {
-        return driver.getWindowHandles();
+        @SuppressWarnings("unchecked")
+        Set<String> handles = (Set<String>) session.read(driver, SessionState.PageRead.WINDOW_HANDLES);
+
+        return handles;
     }
 
     /**
@@ -825,7 +1308,7 @@ public class BasePage
      */
     public String getCurrentWindowHandle()
     {
-        String currentWindowHandle = driver.getWindowHandle();
+        String currentWindowHandle = (String) session.read(driver, SessionState.PageRead.WINDOW_HANDLE);
         LOGGER.info("Current window handle is '" + currentWindowHandle + "'");
 
         return currentWindowHandle;
@@ -839,7 +1322,22 @@ public class BasePage
      */
     public void openUrl(String url)
     {
-        driver.get(url);
+        session.prepare(driver);
+
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            driver.get(url);
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+
+        session.navigated();
         LOGGER.info("Successfully opened url '" + url + "'");
     }
 }
@@ -0,0 +1,179 @@
+package io.xschema.oldmonk.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Outcome of an {@link ActionBatch} execution.
+ */
+public final class BatchResult
+{
+    private final int               stepCount;
+    private final List<StepFailure> failures;
+    private final int               roundTrips;
+
+    BatchResult(int stepCount, List<StepFailure> failures, int roundTrips)
+    {
+        this.stepCount = stepCount;
+        this.failures = Collections.unmodifiableList(new ArrayList<StepFailure>(failures));
+        this.roundTrips = roundTrips;
+    }
+
+    public boolean isSuccessful()
+    {
+        return failures.isEmpty();
+    }
+
+    /**
+     * @return - zero based index of the first failed step, or -1 if all steps
+     *         succeeded
+     */
+    public int getFailedStep()
+    {
+        return failures.isEmpty() ? -1 : failures.get(0).getStep();
+    }
+
+    /**
+     * @return - description of the first failed step, e.g. "click
+     *         'login_button'", or null if all steps succeeded
+     */
+    public String getFailedAction()
+    {
+        return failures.isEmpty() ? null : failures.get(0).getAction();
+    }
+
+    /**
+     * @return - reason the first failed step failed, or null if all steps
+     *         succeeded
+     */
+    public Exception getError()
+    {
+        return failures.isEmpty() ? null : failures.get(0).getError();
+    }
+
+    /**
+     * @return - all failed steps, in the order they were queued
+     */
+    public List<StepFailure> getFailures()
+    {
+        return failures;
+    }
+
+    /**
+     * @return - locator names of the failed steps mapped to the error message
+     *         of their first failure
+     */
+    public Map<String, String> getFailedLocators()
+    {
+        Map<String, String> failed = new LinkedHashMap<String, String>();
+
+        for (StepFailure failure : failures)
+        {
+            if (!failed.containsKey(failure.getLocator()))
+            {
+                failed.put(failure.getLocator(), failure.getError().getMessage());
+            }
+        }
+
+        return failed;
+    }
+
+    public int getStepCount()
+    {
+        return stepCount;
+    }
+
+    /**
+     * @return - number of batch scripts and native steps run
+     */
+    public int getRoundTrips()
+    {
+        return roundTrips;
+    }
+
+    /**
+     * Throw if a step failed, e.g. to fail the test.
+     * 
+     * @throws WebDriverException
+     *             - throw this exception when a step failed
+     */
+    public void throwIfFailed()
+    {
+        if (!isSuccessful())
+        {
+            throw new WebDriverException(toString(), getError());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        if (isSuccessful())
+        {
+            return stepCount + " steps succeeded in " + roundTrips + " round trips";
+        }
+
+        StringBuilder message = new StringBuilder();
+        message.append(failures.size()).append(" of ").append(stepCount).append(" steps failed");
+
+        for (StepFailure failure : failures)
+        {
+            message.append(System.lineSeparator()).append("  ").append(failure);
+        }
+
+        return message.toString();
+    }
+
+    /**
+     * A failed step of a batch.
+     */
+    public static final class StepFailure
+    {
+        private final int       step;
+        private final String    locator;
+        private final String    action;
+        private final Exception error;
+
+        StepFailure(int step, String locator, String action, Exception error)
+        {
+            this.step = step;
+            this.locator = locator;
+            this.action = action;
+            this.error = error;
+        }
+
+        /**
+         * @return - zero based index of the step
+         */
+        public int getStep()
+        {
+            return step;
+        }
+
+        public String getLocator()
+        {
+            return locator;
+        }
+
+        public String getAction()
+        {
+            return action;
+        }
+
+        public Exception getError()
+        {
+            return error;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "step " + (step + 1) + " (" + action + "): " + error.getMessage();
+        }
+    }
+}
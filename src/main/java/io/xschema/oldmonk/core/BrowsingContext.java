@@ -0,0 +1,185 @@
+package io.xschema.oldmonk.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+/**
+ * Tracks the current browsing context of a driver session, i.e. the window
+ * and the path of frames from its top-level document, to skip switches which
+ * would not change it. Switching to the top-level document is deferred until
+ * the next command needs it, so that the common sequence of switching to the
+ * top-level document and back into the same frame issues no command at all.
+ * <p>
+ * Frames are identified the way they were switched to: by name, by index or
+ * by element. The tracker only knows about switches done through it, so it is
+ * reset whenever the context may have changed otherwise. When disabled, every
+ * switch is issued at once.
+ */
+final class BrowsingContext
+{
+    private boolean      enabled;
+
+    /*
+     * Name or handle of the current window, null if unknown
+     */
+    private String       window;
+
+    /*
+     * Frames switched to from the top-level document, null if unknown
+     */
+    private List<Object> frames;
+
+    /*
+     * Switching to the top-level document is deferred
+     */
+    private boolean      topLevelPending;
+
+    synchronized boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    synchronized void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+        window = null;
+        frames = null;
+        topLevelPending = false;
+    }
+
+    /**
+     * Switch to a frame of the current document, or of the top-level document
+     * if switching to it is pending.
+     *
+     * @param frame
+     *            - frame name, index or element
+     * @return - true if the browsing context changed
+     */
+    synchronized boolean switchToFrame(WebDriver driver, Object frame)
+    {
+        if (topLevelPending && frames != null && frames.size() == 1 && frames.get(0).equals(frame))
+        {
+            topLevelPending = false;
+            return false;
+        }
+
+        apply(driver);
+
+        if (frame instanceof Integer)
+        {
+            driver.switchTo().frame((Integer) frame);
+        } else if (frame instanceof WebElement)
+        {
+            driver.switchTo().frame((WebElement) frame);
+        } else
+        {
+            driver.switchTo().frame((String) frame);
+        }
+
+        if (enabled && frames != null)
+        {
+            frames.add(frame);
+        }
+
+        return true;
+    }
+
+    /**
+     * Switch to the top-level document of the current window. Deferred until
+     * the next command if tracking is enabled.
+     *
+     * @return - true if the browsing context changed
+     */
+    synchronized boolean switchToTopLevel(WebDriver driver)
+    {
+        if (!enabled)
+        {
+            driver.switchTo().defaultContent();
+            return true;
+        }
+
+        if (frames != null && frames.isEmpty())
+        {
+            return false;
+        }
+
+        topLevelPending = true;
+        return false;
+    }
+
+    /**
+     * Switch to a window by name or handle.
+     *
+     * @return - true if the browsing context changed
+     */
+    synchronized boolean switchToWindow(WebDriver driver, String nameOrHandle)
+    {
+        if (enabled && nameOrHandle.equals(window))
+        {
+            // Same window, only its top-level document is selected again
+            return switchToTopLevel(driver);
+        }
+
+        driver.switchTo().window(nameOrHandle);
+
+        window = nameOrHandle;
+        frames = enabled ? new ArrayList<Object>() : null;
+        topLevelPending = false;
+
+        return true;
+    }
+
+    /**
+     * Issue a deferred switch to the top-level document, before a command of
+     * the current browsing context.
+     *
+     * @return - true if the browsing context changed
+     */
+    synchronized boolean apply(WebDriver driver)
+    {
+        if (!topLevelPending)
+        {
+            return false;
+        }
+
+        driver.switchTo().defaultContent();
+
+        frames = new ArrayList<Object>();
+        topLevelPending = false;
+
+        return true;
+    }
+
+    /**
+     * The top-level document of the current window was navigated, which also
+     * selects it as browsing context.
+     */
+    synchronized void navigated()
+    {
+        frames = enabled ? new ArrayList<Object>() : null;
+        topLevelPending = false;
+    }
+
+    /**
+     * The browsing context may have changed in an unknown way, e.g. by a
+     * click or by browser history.
+     */
+    synchronized void reset()
+    {
+        frames = null;
+        topLevelPending = false;
+    }
+
+    /**
+     * The current window was closed, no window is selected.
+     */
+    synchronized void windowClosed()
+    {
+        window = null;
+        frames = null;
+        topLevelPending = false;
+    }
+}
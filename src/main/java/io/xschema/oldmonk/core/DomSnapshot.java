@@ -0,0 +1,663 @@
+package io.xschema.oldmonk.core;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xpath.CachedXPathAPI;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import net.sourceforge.htmlunit.cyberneko.parsers.DOMParser;
+
+/**
+ * Page source parsed once, answering read-only element queries locally
+ * instead of asking the browser. Element and attribute names are lower case,
+ * as in the DOM of a browser. CSS selectors, ids, names, class names, tag
+ * names and link texts are converted to XPath.
+ * <p>
+ * The snapshot only knows the markup: text is the text content of the markup
+ * with white space collapsed, regardless of styling, and attributes are the
+ * attributes of the markup, not the current properties of the element.
+ */
+final class DomSnapshot
+{
+    /*
+     * Elements starting a new line of text
+     */
+    private static final Set<String> BLOCK_ELEMENTS  = new HashSet<String>(Arrays.asList("address", "article",
+            "aside", "blockquote", "br", "dd", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer",
+            "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "li", "main", "nav", "ol", "p", "pre",
+            "section", "table", "tbody", "tfoot", "thead", "tr", "ul"));
+
+    /*
+     * Elements whose content is never rendered as text
+     */
+    private static final Set<String> HIDDEN_ELEMENTS = new HashSet<String>(Arrays.asList("head", "noscript",
+            "script", "style", "template", "title"));
+
+    private final Document           document;
+
+    /*
+     * Keeps the XPath model of the document between queries, instead of
+     * building it again for every query
+     */
+    private final CachedXPathAPI     xpath           = new CachedXPathAPI();
+
+    private DomSnapshot(Document document)
+    {
+        this.document = document;
+    }
+
+    /**
+     * Parse a page source.
+     *
+     * @param source
+     *            - page source as returned by the browser
+     * @return - parsed snapshot
+     */
+    static DomSnapshot parse(String source) throws SAXException, IOException
+    {
+        DOMParser parser = new DOMParser();
+        parser.setFeature("http://xml.org/sax/features/namespaces", false);
+        parser.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+        parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
+        parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "lower");
+        parser.setProperty("http://apache.org/xml/properties/dom/document-class-name",
+                "org.apache.xerces.dom.DocumentImpl");
+        parser.parse(new InputSource(new StringReader(source)));
+
+        return new DomSnapshot(parser.getDocument());
+    }
+
+    /**
+     * Find the elements matching a locator.
+     *
+     * @param locator
+     *            - resolved locator
+     * @return - matching elements in document order
+     * @throws UnsupportedQueryException
+     *             - throw this exception when the locator can not be answered
+     *             from the markup alone
+     */
+    synchronized List<Element> select(Locator locator) throws UnsupportedQueryException
+    {
+        return select(locator, null);
+    }
+
+    /**
+     * Find the elements matching a locator below an element, as
+     * WebElement.findElements does: XPath expressions are evaluated with the
+     * element as context node, other locators only match its descendants.
+     *
+     * @param locator
+     *            - resolved locator
+     * @param context
+     *            - element to search from, null for the whole document
+     * @return - matching elements in document order
+     * @throws UnsupportedQueryException
+     *             - throw this exception when the locator can not be answered
+     *             from the markup alone
+     */
+    synchronized List<Element> select(Locator locator, Element context) throws UnsupportedQueryException
+    {
+        Node node = context == null ? document : context;
+        String descendants = context == null ? "//" : ".//";
+        String value = locator.getValue();
+
+        switch (locator.getStrategy())
+        {
+            case XPATH:
+                return evaluate(node, value);
+            case CSS_SELECTOR:
+                return evaluate(node, CssToXPath.convert(value, context != null));
+            case ID:
+                return evaluate(node, descendants + "*[@id=" + literal(value) + "]");
+            case NAME:
+                return evaluate(node, descendants + "*[@name=" + literal(value) + "]");
+            case TAG_NAME:
+                return evaluate(node, descendants + name(value));
+            case CLASS_NAME:
+                return evaluate(node, descendants + "*" + CssToXPath.hasWord("@class", value));
+            case LINK_TEXT:
+            case PARTIAL_LINK_TEXT:
+                List<Element> links = new ArrayList<Element>();
+
+                for (Element link : evaluate(node, descendants + "a"))
+                {
+                    String text = text(link);
+
+                    if (locator.getStrategy() == LocatorStrategy.LINK_TEXT ? text.equals(value.trim())
+                            : text.contains(value))
+                    {
+                        links.add(link);
+                    }
+                }
+
+                return links;
+            default:
+                throw new UnsupportedQueryException("Locator strategy " + locator.getStrategy() + " is not supported");
+        }
+    }
+
+    private List<Element> evaluate(Node context, String expression) throws UnsupportedQueryException
+    {
+        NodeList nodes;
+
+        try
+        {
+            nodes = xpath.selectNodeList(context, expression);
+        } catch (TransformerException e)
+        {
+            throw new UnsupportedQueryException("Unable to evaluate '" + expression + "': " + e.getMessage());
+        }
+
+        List<Element> elements = new ArrayList<Element>(nodes.getLength());
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            Node node = nodes.item(i);
+
+            if (node.getNodeType() != Node.ELEMENT_NODE)
+            {
+                throw new UnsupportedQueryException("'" + expression + "' selects nodes other than elements");
+            }
+
+            elements.add((Element) node);
+        }
+
+        return elements;
+    }
+
+    /**
+     * Text of an element, with white space collapsed, one line per block.
+     */
+    static String text(Element element)
+    {
+        StringBuilder text = new StringBuilder();
+        appendText(element, text);
+
+        StringBuilder lines = new StringBuilder();
+
+        for (String line : text.toString().split("\n"))
+        {
+            String collapsed = line.replaceAll("[ \\t\\r\\f\\u00a0]+", " ").trim();
+
+            if (!collapsed.isEmpty())
+            {
+                if (lines.length() > 0)
+                {
+                    lines.append('\n');
+                }
+                lines.append(collapsed);
+            }
+        }
+
+        return lines.toString();
+    }
+
+    private static void appendText(Node node, StringBuilder text)
+    {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE)
+            {
+                text.append(child.getNodeValue().replace('\n', ' '));
+            } else if (child.getNodeType() == Node.ELEMENT_NODE)
+            {
+                String name = child.getNodeName();
+
+                if (HIDDEN_ELEMENTS.contains(name))
+                {
+                    continue;
+                }
+
+                boolean block = BLOCK_ELEMENTS.contains(name);
+
+                if (block)
+                {
+                    text.append('\n');
+                } else if ("td".equals(name) || "th".equals(name))
+                {
+                    text.append(' ');
+                }
+
+                appendText(child, text);
+
+                if (block)
+                {
+                    text.append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Attribute of an element as written in the markup.
+     *
+     * @return - attribute value, or null if the element has no such attribute
+     */
+    static String attribute(Element element, String name)
+    {
+        String lowerCase = name.toLowerCase(Locale.ENGLISH);
+        return element.hasAttribute(lowerCase) ? element.getAttribute(lowerCase) : null;
+    }
+
+    /**
+     * Quote a string as XPath 1.0 literal.
+     */
+    static String literal(String value)
+    {
+        if (value.indexOf('\'') < 0)
+        {
+            return "'" + value + "'";
+        }
+
+        if (value.indexOf('"') < 0)
+        {
+            return "\"" + value + "\"";
+        }
+
+        return "concat('" + value.replace("'", "',\"'\",'") + "')";
+    }
+
+    private static String name(String value) throws UnsupportedQueryException
+    {
+        String name = value.trim().toLowerCase(Locale.ENGLISH);
+
+        if (!name.matches("[a-z_][a-z0-9_.-]*"))
+        {
+            throw new UnsupportedQueryException("'" + value + "' is not a valid element name");
+        }
+
+        return name;
+    }
+
+    /**
+     * Thrown when a query can not be answered by the snapshot, so that it has
+     * to be sent to the browser.
+     */
+    static final class UnsupportedQueryException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedQueryException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * Converts CSS selectors to XPath. Supports type, universal, id, class and
+     * attribute selectors, the descendant, child and sibling combinators,
+     * selector groups and the pseudo classes ':first-child', ':last-child' and
+     * ':nth-child(n)' with a number.
+     */
+    static final class CssToXPath
+    {
+        private final String  selector;
+        private final boolean relative;
+        private int           position;
+
+        private CssToXPath(String selector, boolean relative)
+        {
+            this.selector = selector;
+            this.relative = relative;
+        }
+
+        static String convert(String selector) throws UnsupportedQueryException
+        {
+            return convert(selector, false);
+        }
+
+        /**
+         * @param relative
+         *            - match descendants of the context node only
+         */
+        static String convert(String selector, boolean relative) throws UnsupportedQueryException
+        {
+            return new CssToXPath(selector, relative).group();
+        }
+
+        /**
+         * Predicate matching a white space separated word of an attribute.
+         */
+        static String hasWord(String attribute, String word)
+        {
+            return "[contains(concat(' ',normalize-space(" + attribute + "),' ')," + literal(" " + word + " ")
+                    + ")]";
+        }
+
+        private String group() throws UnsupportedQueryException
+        {
+            StringBuilder xpath = new StringBuilder();
+
+            while (true)
+            {
+                xpath.append(selector());
+                skipSpace();
+
+                if (position == selector.length())
+                {
+                    return xpath.toString();
+                }
+
+                expect(',');
+                xpath.append(" | ");
+            }
+        }
+
+        private String selector() throws UnsupportedQueryException
+        {
+            skipSpace();
+
+            StringBuilder xpath = new StringBuilder(relative ? "." : "");
+            String axis = "//";
+
+            while (true)
+            {
+                xpath.append(compound(axis));
+
+                boolean space = skipSpace();
+
+                if (position == selector.length() || peek() == ',')
+                {
+                    return xpath.toString();
+                }
+
+                char combinator = peek();
+
+                if (combinator == '>')
+                {
+                    axis = "/";
+                } else if (combinator == '+')
+                {
+                    axis = "/following-sibling::*[1]";
+                } else if (combinator == '~')
+                {
+                    axis = "/following-sibling::";
+                } else if (space)
+                {
+                    axis = "//";
+                    continue;
+                } else
+                {
+                    throw unsupported();
+                }
+
+                position++;
+                skipSpace();
+            }
+        }
+
+        private String compound(String axis) throws UnsupportedQueryException
+        {
+            String element = "*";
+            boolean typed = true;
+
+            if (position < selector.length() && peek() == '*')
+            {
+                position++;
+            } else if (position < selector.length() && isNameChar(peek()))
+            {
+                element = identifier().toLowerCase(Locale.ENGLISH);
+            } else
+            {
+                typed = false;
+            }
+
+            StringBuilder step = new StringBuilder(axis);
+
+            if (axis.endsWith("]"))
+            {
+                // Adjacent sibling, the element name is tested by a predicate
+                if (!"*".equals(element))
+                {
+                    step.append("[self::").append(element).append(']');
+                }
+            } else
+            {
+                step.append(element);
+            }
+
+            int start = position;
+
+            while (position < selector.length())
+            {
+                char c = peek();
+
+                if (c == '#')
+                {
+                    position++;
+                    step.append("[@id=").append(literal(identifier())).append(']');
+                } else if (c == '.')
+                {
+                    position++;
+                    step.append(hasWord("@class", identifier()));
+                } else if (c == '[')
+                {
+                    position++;
+                    step.append(attribute());
+                } else if (c == ':')
+                {
+                    position++;
+                    step.append(pseudoClass());
+                } else
+                {
+                    break;
+                }
+            }
+
+            if (position == start && !typed)
+            {
+                throw unsupported();
+            }
+
+            return step.toString();
+        }
+
+        private String attribute() throws UnsupportedQueryException
+        {
+            skipSpace();
+            String name = "@" + identifier().toLowerCase(Locale.ENGLISH);
+            skipSpace();
+
+            if (peek() == ']')
+            {
+                position++;
+                return "[" + name + "]";
+            }
+
+            String operator = String.valueOf(next());
+
+            if (!"=".equals(operator))
+            {
+                expect('=');
+            }
+
+            skipSpace();
+            String value = peek() == '"' || peek() == '\'' ? string() : identifier();
+            skipSpace();
+            expect(']');
+
+            String literal = literal(value);
+
+            switch (operator.charAt(0))
+            {
+                case '=':
+                    return "[" + name + "=" + literal + "]";
+                case '~':
+                    return hasWord(name, value);
+                case '|':
+                    return "[" + name + "=" + literal + " or starts-with(" + name + "," + literal(value + "-") + ")]";
+                case '^':
+                    return "[starts-with(" + name + "," + literal + ")]";
+                case '$':
+                    return "[substring(" + name + ",string-length(" + name + ")-" + value.length() + "+1)="
+                            + literal + "]";
+                case '*':
+                    return "[contains(" + name + "," + literal + ")]";
+                default:
+                    throw unsupported();
+            }
+        }
+
+        private String pseudoClass() throws UnsupportedQueryException
+        {
+            String name = identifier().toLowerCase(Locale.ENGLISH);
+
+            if ("first-child".equals(name))
+            {
+                return "[not(preceding-sibling::*)]";
+            }
+
+            if ("last-child".equals(name))
+            {
+                return "[not(following-sibling::*)]";
+            }
+
+            if ("nth-child".equals(name))
+            {
+                expect('(');
+                skipSpace();
+
+                int start = position;
+                while (position < selector.length() && Character.isDigit(peek()))
+                {
+                    position++;
+                }
+
+                if (start == position)
+                {
+                    throw unsupported();
+                }
+
+                int index = Integer.parseInt(selector.substring(start, position));
+                skipSpace();
+                expect(')');
+
+                return "[count(preceding-sibling::*)=" + (index - 1) + "]";
+            }
+
+            throw unsupported();
+        }
+
+        private String identifier() throws UnsupportedQueryException
+        {
+            StringBuilder identifier = new StringBuilder();
+
+            while (position < selector.length())
+            {
+                char c = peek();
+
+                if (c == '\\' && position + 1 < selector.length())
+                {
+                    identifier.append(selector.charAt(position + 1));
+                    position += 2;
+                } else if (isNameChar(c))
+                {
+                    identifier.append(c);
+                    position++;
+                } else
+                {
+                    break;
+                }
+            }
+
+            if (identifier.length() == 0)
+            {
+                throw unsupported();
+            }
+
+            return identifier.toString();
+        }
+
+        private String string() throws UnsupportedQueryException
+        {
+            char quote = next();
+            StringBuilder value = new StringBuilder();
+
+            while (position < selector.length())
+            {
+                char c = next();
+
+                if (c == quote)
+                {
+                    return value.toString();
+                }
+
+                if (c == '\\')
+                {
+                    if (position == selector.length())
+                    {
+                        break;
+                    }
+                    c = next();
+                }
+
+                value.append(c);
+            }
+
+            throw unsupported();
+        }
+
+        private static boolean isNameChar(char c)
+        {
+            return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c > 127;
+        }
+
+        private boolean skipSpace()
+        {
+            int start = position;
+
+            while (position < selector.length() && Character.isWhitespace(selector.charAt(position)))
+            {
+                position++;
+            }
+
+            return position > start;
+        }
+
+        private char peek() throws UnsupportedQueryException
+        {
+            if (position >= selector.length())
+            {
+                throw unsupported();
+            }
+
+            return selector.charAt(position);
+        }
+
+        private char next() throws UnsupportedQueryException
+        {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private void expect(char c) throws UnsupportedQueryException
+        {
+            if (next() != c)
+            {
+                throw unsupported();
+            }
+        }
+
+        private UnsupportedQueryException unsupported()
+        {
+            return new UnsupportedQueryException("CSS selector '" + selector + "' is not supported at position "
+                    + position);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package io.xschema.oldmonk.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the driver used by each thread. The driver factories register
+ * every driver they create for the creating thread, and listeners, reporters
+ * and page objects look it up without knowing the test class:
+ *
+ * <pre>
+ * WebDriver driver = new WebDriverFactory().createDriver(caps);
+ * ...
+ * HomePage homePage = new HomePage(DriverRegistry.require());
+ * ...
+ * DriverRegistry.quit();
+ * </pre>
+ *
+ * A thread has at most one driver, and a driver belongs to at most one thread.
+ * Registering a driver for another thread, e.g. when a driver created by a
+ * configuration method is used by a test running on another thread, moves it
+ * there, along with the ownership of its session. Unregistering a driver
+ * also discards the state kept for its session by the page objects, so that
+ * neither the driver nor its cached elements outlive the test. Remote drivers
+ * quit directly rather than by {@link #quit()} are unregistered the next time
+ * the registry is used.
+ */
+public final class DriverRegistry
+{
+    private static final Logger                    LOGGER    = LoggerFactory.getLogger(DriverRegistry.class.getName());
+
+    private static final ThreadLocal<WebDriver>    CURRENT   = new ThreadLocal<WebDriver>();
+
+    /*
+     * Thread every registered driver belongs to
+     */
+    private static final Map<WebDriver, Thread>    OWNERS    = new ConcurrentHashMap<WebDriver, Thread>();
+
+    private static final List<Listener>            LISTENERS = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * Notified when a driver is registered for a thread or unregistered, on
+     * the thread doing so.
+     */
+    public interface Listener
+    {
+        void registered(WebDriver driver);
+
+        void unregistered(WebDriver driver);
+    }
+
+    private DriverRegistry()
+    {
+    }
+
+    public static void addListener(Listener listener)
+    {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener)
+    {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Register a driver for the current thread. A driver registered for the
+     * current thread before is unregistered, but not quit.
+     */
+    public static void register(WebDriver driver)
+    {
+        WebDriver previous = current();
+
+        if (previous == driver)
+        {
+            return;
+        }
+
+        if (previous != null)
+        {
+            LOGGER.debug("Replacing the driver registered for thread " + Thread.currentThread().getName());
+            unregister(previous);
+        }
+
+        unregisterQuit();
+
+        OWNERS.put(driver, Thread.currentThread());
+        CURRENT.set(driver);
+        SessionState.of(driver).bindToCurrentThread();
+
+        for (Listener listener : LISTENERS)
+        {
+            listener.registered(driver);
+        }
+    }
+
+    /**
+     * @return - the driver registered for the current thread, null if none
+     */
+    public static WebDriver current()
+    {
+        WebDriver driver = CURRENT.get();
+
+        if (driver != null && OWNERS.get(driver) != Thread.currentThread())
+        {
+            // Unregistered or moved to another thread meanwhile
+            CURRENT.remove();
+            return null;
+        }
+
+        if (driver != null && isQuit(driver))
+        {
+            unregister(driver);
+            return null;
+        }
+
+        return driver;
+    }
+
+    /**
+     * @return - the driver registered for the current thread
+     * @throws IllegalStateException
+     *             - if no driver is registered for the current thread
+     */
+    public static WebDriver require()
+    {
+        WebDriver driver = current();
+
+        if (driver == null)
+        {
+            throw new IllegalStateException("No driver registered for thread " + Thread.currentThread().getName());
+        }
+
+        return driver;
+    }
+
+    /**
+     * Unregister the driver of the current thread, without quitting it.
+     */
+    public static void unregister()
+    {
+        WebDriver driver = current();
+
+        if (driver != null)
+        {
+            unregister(driver);
+        }
+    }
+
+    /**
+     * Unregister a driver from whichever thread it belongs to, without
+     * quitting it, and discard the state kept for its session.
+     */
+    public static void unregister(WebDriver driver)
+    {
+        if (CURRENT.get() == driver)
+        {
+            CURRENT.remove();
+        }
+
+        boolean registered = OWNERS.remove(driver) != null;
+
+        SessionState.discard(driver);
+
+        if (registered)
+        {
+            for (Listener listener : LISTENERS)
+            {
+                listener.unregistered(driver);
+            }
+        }
+    }
+
+    /**
+     * Quit and unregister the driver of the current thread, if any.
+     */
+    public static void quit()
+    {
+        WebDriver driver = current();
+
+        if (driver != null)
+        {
+            quit(driver);
+        }
+    }
+
+    /**
+     * Quit and unregister a driver.
+     */
+    public static void quit(WebDriver driver)
+    {
+        try
+        {
+            driver.quit();
+        } catch (WebDriverException e)
+        {
+            LOGGER.debug("Error while quitting driver: " + e.getMessage());
+        } finally
+        {
+            unregister(driver);
+        }
+    }
+
+    /**
+     * Quit all registered drivers, e.g. at the end of the suite.
+     */
+    public static void quitAll()
+    {
+        for (WebDriver driver : getDrivers())
+        {
+            quit(driver);
+        }
+    }
+
+    /**
+     * @return - the drivers registered for any thread
+     */
+    public static List<WebDriver> getDrivers()
+    {
+        unregisterQuit();
+
+        return new ArrayList<WebDriver>(OWNERS.keySet());
+    }
+
+    /**
+     * Unregister the drivers which were quit directly instead of through the
+     * registry.
+     */
+    private static void unregisterQuit()
+    {
+        for (WebDriver driver : OWNERS.keySet())
+        {
+            if (isQuit(driver))
+            {
+                LOGGER.debug("Unregistering driver quit without the registry");
+                unregister(driver);
+            }
+        }
+    }
+
+    /**
+     * Return whether a remote driver, or the remote driver wrapped by a
+     * driver, has no session any more. Other drivers are never considered
+     * quit.
+     */
+    static boolean isQuit(WebDriver driver)
+    {
+        WebDriver unwrapped = driver;
+
+        while (unwrapped instanceof WrapsDriver && ((WrapsDriver) unwrapped).getWrappedDriver() != unwrapped)
+        {
+            unwrapped = ((WrapsDriver) unwrapped).getWrappedDriver();
+        }
+
+        return unwrapped instanceof RemoteWebDriver && ((RemoteWebDriver) unwrapped).getSessionId() == null;
+    }
+}
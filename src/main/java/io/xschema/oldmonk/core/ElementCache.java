@@ -0,0 +1,38 @@
+package io.xschema.oldmonk.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+/**
+ * Elements found in the current browsing context, keyed by the resolved
+ * locator. Cached elements are only valid until the page is navigated or the
+ * frame or window is switched, the owner of the cache is responsible for
+ * clearing it then.
+ */
+final class ElementCache
+{
+    private final Map<By, WebElement> elements = new HashMap<By, WebElement>();
+
+    synchronized WebElement get(By by)
+    {
+        return elements.get(by);
+    }
+
+    synchronized void put(By by, WebElement element)
+    {
+        elements.put(by, element);
+    }
+
+    synchronized void remove(By by)
+    {
+        elements.remove(by);
+    }
+
+    synchronized void clear()
+    {
+        elements.clear();
+    }
+}
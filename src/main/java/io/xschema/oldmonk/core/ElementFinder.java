@@ -1,16 +1,24 @@
 package io.xschema.oldmonk.core;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 
 import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
 import io.xschema.oldmonk.exception.PropertyNotFoundException;
 import io.xschema.oldmonk.utils.ObjectRepository;
+import io.xschema.oldmonk.utils.RepositoryChangeListener;
 
 /**
  * Find WebElement or List of WebElements identified through the element
@@ -18,17 +26,35 @@ import io.xschema.oldmonk.utils.ObjectRepository;
  */
 public class ElementFinder
 {
-    static Properties props;
+    /*
+     * Object repository compiled once into locator name to By instance. A new
+     * index replaces this one whenever the object repository is reloaded.
+     */
+    static volatile LocatorIndex index;
+
+    private static volatile int  templateCacheSize = LocatorIndex.DEFAULT_TEMPLATE_CACHE_SIZE;
 
     static
     {
         try
         {
-            props = ObjectRepository.initialize();
+            Properties snapshot = ObjectRepository.initialize();
+
+            index = ObjectRepository.isLoadedOnDemand() ? LocatorIndex.onDemand(templateCacheSize)
+                    : LocatorIndex.compile(snapshot, templateCacheSize);
         } catch (IOException e)
         {
             e.printStackTrace();
         }
+
+        ObjectRepository.addChangeListener(new RepositoryChangeListener()
+        {
+            @Override
+            public void repositoryChanged(Properties snapshot)
+            {
+                index = LocatorIndex.compile(snapshot, templateCacheSize);
+            }
+        });
     }
 
     /**
@@ -52,7 +78,7 @@ public class ElementFinder
     {
         By by = find(locator);
 
-        return driver.findElement(by);
+        return locate(driver, locator, by);
     }
 
     /**
@@ -76,7 +102,194 @@ public class ElementFinder
     {
         By by = find(locator);
 
-        return driver.findElements(by);
+        return locateAll(driver, locator, by);
+    }
+
+    /**
+     * Return a single element identified by a parameterized locator.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param locator
+     *            - locator name in object repository
+     * @param replacements
+     *            - values for the placeholders of the locator, see
+     *            {@link #find(String, String...)}
+     * @return - WebElement
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public static WebElement findElement(WebDriver driver, String locator, String... replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        By by = find(locator, replacements);
+
+        return locate(driver, locator, by);
+    }
+
+    /**
+     * Return a list of element identified by a parameterized locator.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param locator
+     *            - locator name in object repository
+     * @param replacements
+     *            - values for the placeholders of the locator, see
+     *            {@link #find(String, String...)}
+     * @return - List<WebElement>
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public static List<WebElement> findElements(WebDriver driver, String locator, String... replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        By by = find(locator, replacements);
+
+        return locateAll(driver, locator, by);
+    }
+
+    /**
+     * Find a single element, recording the lookup time of the locator when
+     * profiling is enabled.
+     */
+    static WebElement locate(WebDriver driver, String locator, By by)
+    {
+        long start = LocatorProfiler.start();
+        boolean failed = true;
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            WebElement element = driver.findElement(by);
+            failed = false;
+
+            return element;
+        } finally
+        {
+            LocatorProfiler.record(locator, start, failed);
+
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+    }
+
+    /**
+     * Find all elements, recording the lookup time of the locator when
+     * profiling is enabled.
+     */
+    static List<WebElement> locateAll(WebDriver driver, String locator, By by)
+    {
+        long start = LocatorProfiler.start();
+        boolean failed = true;
+        boolean timed = TimeBudget.begin(TimeBudget.Category.COMMAND);
+
+        try
+        {
+            List<WebElement> elements = driver.findElements(by);
+            failed = false;
+
+            return elements;
+        } finally
+        {
+            LocatorProfiler.record(locator, start, failed);
+
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+    }
+
+    /**
+     * Find the elements of several locators in a single round trip to the
+     * browser. Locators are resolved by one script execution, except locators
+     * using 'LINK_TEXT' or 'PARTIAL_LINK_TEXT', which are found one by one, as
+     * are all locators when the driver can not execute java script.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param locators
+     *            - locator names in object repository
+     * @return - locator names mapped to the first matching element, or to null
+     *         if no element matches, in the order of the locator names
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public static Map<String, WebElement> findElementBatch(WebDriver driver, Collection<String> locators)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        LocatorIndex current = index;
+        boolean scriptable = driver instanceof JavascriptExecutor;
+
+        Map<String, WebElement> found = new LinkedHashMap<String, WebElement>();
+        List<String> scripted = new ArrayList<String>();
+        List<List<String>> arguments = new ArrayList<List<String>>();
+        List<String> individual = new ArrayList<String>();
+
+        for (String name : locators)
+        {
+            Locator locator = current.get(name);
+            found.put(name, null);
+
+            if (scriptable && locator.getStrategy().isScriptable())
+            {
+                scripted.add(name);
+                arguments.add(Arrays.asList(locator.getStrategy().name(), locator.getValue()));
+            } else
+            {
+                individual.add(name);
+            }
+        }
+
+        if (!scripted.isEmpty())
+        {
+            List<?> results = (List<?>) ((JavascriptExecutor) driver).executeScript(Scripts.FIND_ELEMENTS, arguments);
+
+            for (int i = 0; i < scripted.size(); i++)
+            {
+                Object result = results.get(i);
+
+                if (result instanceof WebElement)
+                {
+                    found.put(scripted.get(i), (WebElement) result);
+                } else if (result != null)
+                {
+                    // Script could not evaluate the locator, let WebDriver report it
+                    individual.add(scripted.get(i));
+                }
+            }
+        }
+
+        for (String name : individual)
+        {
+            try
+            {
+                found.put(name, locate(driver, name, current.get(name).getBy()));
+            } catch (NoSuchElementException e)
+            {
+                found.put(name, null);
+            }
+        }
+
+        return found;
     }
 
     /**
@@ -100,56 +313,145 @@ public class ElementFinder
      */
     public static By find(String locator) throws PropertyNotFoundException, InvalidLocatorStrategyException
     {
-        locator = props.getProperty(locator);
+        if (locator == null || locator.isEmpty())
+        {
+            throw new PropertyNotFoundException("Locator name can not be null or empty!");
+        }
+
+        return index.get(locator).getBy();
+    }
+
+    /**
+     * Return a By instance for a parameterized locator. Placeholders in the
+     * locator value are written as '$name' or '${name}', e.g.
+     * mail_link=XPATH,//span[text()='$value']. Replacement values are matched
+     * with the distinct placeholder names in the order they first appear in
+     * the locator value. The locator value is parsed only once, and recently
+     * built By instances are cached.
+     * <p>
+     * If the locator has no placeholders but its name contains '$value', the
+     * name itself is substituted with the first replacement value before the
+     * lookup, which is how parameterized locators used to be resolved.
+     * 
+     * @param locator
+     *            - locator name in object repository
+     * @param replacements
+     *            - values for the placeholders of the locator. Passing no
+     *            value, or a single null value, resolves the locator as is
+     * @return - By instance
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public static By find(String locator, String... replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        return resolve(locator, replacements).getBy();
+    }
+
+    /**
+     * Resolve a locator name and its replacement values, as described for
+     * {@link #find(String, String...)}.
+     */
+    static Locator resolve(String locator, String... replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        if (locator == null || locator.isEmpty())
+        {
+            throw new PropertyNotFoundException("Locator name can not be null or empty!");
+        }
 
-        if (locator.isEmpty() || locator == null)
+        LocatorIndex current = index;
+
+        if (replacements == null || replacements.length == 0 || (replacements.length == 1 && replacements[0] == null))
         {
-            throw new PropertyNotFoundException("Locator value can not be null or empty!");
+            return current.get(locator);
         }
 
-        LocatorStrategy strategy = LocatorStrategy.valueOf(locator.split(",")[0]);
-        String actualLocator = locator.split(",")[1];
-
-        By by = null;
-
-        switch (strategy)
-        {
-            case ID:
-                by = By.id(actualLocator);
-                break;
-            case XPATH:
-                by = By.xpath(actualLocator);
-                break;
-            case NAME:
-                by = By.name(actualLocator);
-                break;
-            case TAG_NAME:
-                by = By.tagName(actualLocator);
-                break;
-            case CSS_SELECTOR:
-                by = By.cssSelector(actualLocator);
-                break;
-            case CLASS_NAME:
-                by = By.className(actualLocator);
-                break;
-            case LINK_TEXT:
-                by = By.linkText(actualLocator);
-                break;
-            case PARTIAL_LINK_TEXT:
-                by = By.partialLinkText(actualLocator);
-                break;
-            default:
-                throw new InvalidLocatorStrategyException("Unknown locator strategy '" + strategy + "'");
+        LocatorTemplate template = current.getTemplate(locator);
+
+        if (template != null)
+        {
+            return current.instantiate(template, replacements);
         }
 
-        return by;
+        if (locator.contains("$value"))
+        {
+            return current.get(locator.replace("$value", replacements[0]));
+        }
+
+        return current.get(locator);
     }
-}
 
-/**
- * Enum representing all possible locator strategies for WebDriver.
- */
-enum LocatorStrategy
-{
-    ID, XPATH, CSS_SELECTOR, TAG_NAME, NAME, CLASS_NAME, LINK_TEXT, PARTIAL_LINK_TEXT
+    /**
+     * Return a By instance for a parameterized locator, taking the
+     * replacement values by placeholder name.
+     * 
+     * @param locator
+     *            - locator name in object repository
+     * @param replacements
+     *            - placeholder name mapped to its replacement value
+     * @return - By instance
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong. Valid
+     *             locator strategies are 'ID', 'XPATH', 'NAME', 'CSS_SELECTOR',
+     *             'CLASS_NAME', 'LINK_TEXT', 'PARTIAL_LINK_TEXT' and 'TAG_NAME'
+     */
+    public static By find(String locator, Map<String, String> replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        LocatorIndex current = index;
+        LocatorTemplate template = current.getTemplate(locator);
+
+        if (template == null)
+        {
+            return find(locator);
+        }
+
+        return current.instantiate(template, template.arguments(replacements)).getBy();
+    }
+
+    /**
+     * Set the maximum number of parameterized locator instantiations that are
+     * cached. Default is 1024.
+     * 
+     * @param size
+     *            - cache size
+     */
+    public static void setTemplateCacheSize(int size)
+    {
+        index.setTemplateCacheSize(size);
+        templateCacheSize = size;
+    }
+
+    /**
+     * Return all locators that were rejected while compiling the object
+     * repository, along with the reason they were rejected. When the object
+     * repository is loaded on demand, only locators looked up so far are
+     * checked.
+     * 
+     * @return - malformed locator names mapped to the reason
+     */
+    public static Map<String, String> getMalformedLocators()
+    {
+        return index.getErrors();
+    }
+
+    /**
+     * Return the XPath locators which the {@link XPathOptimizer} could not
+     * rewrite while compiling the object repository, along with the reason.
+     * 
+     * @return - locator names mapped to the reason they were not rewritten
+     */
+    public static Map<String, String> getUnoptimizedLocators()
+    {
+        return index.getUnoptimized();
+    }
 }
@@ -0,0 +1,125 @@
+package io.xschema.oldmonk.core;
+
+import org.openqa.selenium.By;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+
+/**
+ * A parsed object repository entry. The locator strategy and the actual
+ * locator value are split once and the matching By instance is built up front,
+ * so that resolving the locator does not need to parse it again.
+ */
+final class Locator
+{
+    private final LocatorStrategy strategy;
+    private final String          value;
+    private final By              by;
+
+    private Locator(LocatorStrategy strategy, String value, By by)
+    {
+        this.strategy = strategy;
+        this.value = value;
+        this.by = by;
+    }
+
+    /**
+     * Parse a locator specified as LocatorStrategy,ActualLocatorValue. Only
+     * the first comma separates the strategy from the value, so the value
+     * itself may contain commas, e.g. XPATH,//a[contains(@class,'mail')].
+     * 
+     * @param definition
+     *            - locator definition as present in object repository
+     * @return - parsed locator
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when definition is malformed or the
+     *             locator strategy is unknown
+     */
+    static Locator parse(String definition) throws InvalidLocatorStrategyException
+    {
+        int separator = definition.indexOf(',');
+
+        if (separator < 0)
+        {
+            throw new InvalidLocatorStrategyException(
+                    "Expected 'LOCATOR_STRATEGY,locator' but found '" + definition + "'");
+        }
+
+        String strategyName = definition.substring(0, separator).trim();
+        String value = definition.substring(separator + 1);
+
+        if (value.isEmpty())
+        {
+            throw new InvalidLocatorStrategyException("Locator value can not be empty in '" + definition + "'");
+        }
+
+        LocatorStrategy strategy;
+
+        try
+        {
+            strategy = LocatorStrategy.valueOf(strategyName);
+        } catch (IllegalArgumentException e)
+        {
+            throw new InvalidLocatorStrategyException("Unknown locator strategy '" + strategyName + "'");
+        }
+
+        return of(strategy, value);
+    }
+
+    /**
+     * Build a locator from a strategy and a value, e.g. an instantiated
+     * template.
+     */
+    static Locator of(LocatorStrategy strategy, String value) throws InvalidLocatorStrategyException
+    {
+        return new Locator(strategy, value, toBy(strategy, value));
+    }
+
+    /**
+     * Build the By instance for a locator strategy and value.
+     */
+    static By toBy(LocatorStrategy strategy, String value) throws InvalidLocatorStrategyException
+    {
+        switch (strategy)
+        {
+            case ID:
+                return By.id(value);
+            case XPATH:
+                return By.xpath(value);
+            case NAME:
+                return By.name(value);
+            case TAG_NAME:
+                return By.tagName(value);
+            case CSS_SELECTOR:
+                return By.cssSelector(value);
+            case CLASS_NAME:
+                return By.className(value);
+            case LINK_TEXT:
+                return By.linkText(value);
+            case PARTIAL_LINK_TEXT:
+                return By.partialLinkText(value);
+            default:
+                throw new InvalidLocatorStrategyException("Unknown locator strategy '" + strategy + "'");
+        }
+    }
+
+    LocatorStrategy getStrategy()
+    {
+        return strategy;
+    }
+
+    String getValue()
+    {
+        return value;
+    }
+
+    By getBy()
+    {
+        return by;
+    }
+
+    @Override
+    public String toString()
+    {
+        return strategy + "," + value;
+    }
+}
@@ -0,0 +1,318 @@
+package io.xschema.oldmonk.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+import io.xschema.oldmonk.exception.PropertyNotFoundException;
+import io.xschema.oldmonk.utils.LruCache;
+import io.xschema.oldmonk.utils.ObjectRepository;
+
+/**
+ * Index from locator name to its parsed locator. The object repository is
+ * compiled once into this index, so resolving a locator name is a single hash
+ * lookup. Malformed entries are reported while compiling instead of on first
+ * use. Locators containing placeholders are additionally compiled into
+ * templates, and the most recently used instantiations of those templates are
+ * kept in a bounded LRU cache.
+ * <p>
+ * When the object repository is loaded on demand, the index starts empty and
+ * each locator is compiled the first time it is looked up.
+ */
+final class LocatorIndex
+{
+    private static final Logger                          LOGGER                      = LoggerFactory
+            .getLogger(LocatorIndex.class.getName());
+
+    static final int                                     DEFAULT_TEMPLATE_CACHE_SIZE = 1024;
+
+    private final ConcurrentMap<String, Locator>         locators;
+    private final ConcurrentMap<String, LocatorTemplate> templates;
+    private final ConcurrentMap<String, String>          errors;
+    private final ConcurrentMap<String, String>          unoptimized;
+    private final boolean                                onDemand;
+
+    private final LruCache<TemplateKey, Locator>         instantiations;
+
+    private LocatorIndex(int expectedSize, boolean onDemand, int templateCacheSize)
+    {
+        this.locators = new ConcurrentHashMap<String, Locator>(expectedSize * 4 / 3 + 1);
+        this.templates = new ConcurrentHashMap<String, LocatorTemplate>();
+        this.errors = new ConcurrentSkipListMap<String, String>();
+        this.unoptimized = new ConcurrentSkipListMap<String, String>();
+        this.onDemand = onDemand;
+        this.instantiations = new LruCache<TemplateKey, Locator>(templateCacheSize);
+    }
+
+    /**
+     * Compile all locators present in object repository.
+     * 
+     * @param props
+     *            - locators in name/value pair
+     * @param templateCacheSize
+     *            - maximum number of template instantiations to cache
+     * @return - compiled locator index
+     */
+    static LocatorIndex compile(Properties props, int templateCacheSize)
+    {
+        LocatorIndex index = new LocatorIndex(props.size(), false, templateCacheSize);
+
+        for (String name : props.stringPropertyNames())
+        {
+            index.add(name, props.getProperty(name));
+        }
+
+        for (Map.Entry<String, String> error : index.errors.entrySet())
+        {
+            LOGGER.error("Malformed locator '" + error.getKey() + "': " + error.getValue());
+        }
+
+        LOGGER.info("Compiled " + index.locators.size() + " locators (" + index.templates.size()
+                + " parameterized), " + index.errors.size() + " malformed");
+
+        if (XPathOptimizer.isEnabled())
+        {
+            for (Map.Entry<String, String> entry : index.unoptimized.entrySet())
+            {
+                LOGGER.info("XPath locator '" + entry.getKey() + "' not optimized: " + entry.getValue());
+            }
+
+            LOGGER.info(index.unoptimized.size() + " XPath locators could not be optimized");
+        }
+
+        return index;
+    }
+
+    /**
+     * Create an empty index which compiles locators as they are looked up,
+     * for object repositories loaded on demand.
+     * 
+     * @param templateCacheSize
+     *            - maximum number of template instantiations to cache
+     * @return - locator index
+     */
+    static LocatorIndex onDemand(int templateCacheSize)
+    {
+        return new LocatorIndex(16, true, templateCacheSize);
+    }
+
+    private Locator add(String name, String definition)
+    {
+        try
+        {
+            Locator locator = Locator.parse(definition);
+
+            if (XPathOptimizer.isEnabled())
+            {
+                locator = XPathOptimizer.optimize(name, locator, unoptimized);
+            }
+
+            LocatorTemplate template = LocatorTemplate.parse(locator);
+            if (template != null)
+            {
+                templates.put(name, template);
+            }
+
+            // Publish the locator last, so its template is visible once it is
+            locators.put(name, locator);
+
+            return locator;
+        } catch (InvalidLocatorStrategyException e)
+        {
+            errors.put(name, e.getMessage());
+
+            if (onDemand)
+            {
+                LOGGER.error("Malformed locator '" + name + "': " + e.getMessage());
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Return the parsed locator for a locator name.
+     * 
+     * @param name
+     *            - locator name in object repository
+     * @return - parsed locator
+     * @throws PropertyNotFoundException
+     *             - throw this exception when locator is not found in object
+     *             repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator was found but is
+     *             malformed
+     */
+    Locator get(String name) throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        Locator locator = locators.get(name);
+
+        if (locator == null)
+        {
+            if (onDemand && !errors.containsKey(name))
+            {
+                locator = load(name);
+
+                if (locator != null)
+                {
+                    return locator;
+                }
+            }
+
+            String error = errors.get(name);
+
+            if (error != null)
+            {
+                throw new InvalidLocatorStrategyException("Malformed locator '" + name + "': " + error);
+            }
+
+            throw new PropertyNotFoundException("Locator '" + name + "' is not present in object repository!");
+        }
+
+        return locator;
+    }
+
+    private Locator load(String name) throws PropertyNotFoundException
+    {
+        String definition;
+
+        try
+        {
+            definition = ObjectRepository.getLocator(name);
+        } catch (IOException e)
+        {
+            throw new PropertyNotFoundException("Unable to load locator '" + name + "': " + e.getMessage(), e);
+        }
+
+        return definition == null ? null : add(name, definition);
+    }
+
+    /**
+     * Return the template for a locator name.
+     * 
+     * @param name
+     *            - locator name in object repository
+     * @return - template or null if the locator does not contain placeholders
+     */
+    LocatorTemplate getTemplate(String name)
+    {
+        if (onDemand && !locators.containsKey(name))
+        {
+            try
+            {
+                get(name);
+            } catch (PropertyNotFoundException | InvalidLocatorStrategyException e)
+            {
+                return null;
+            }
+        }
+
+        return templates.get(name);
+    }
+
+    /**
+     * Build a concrete locator from a template, reusing a cached instance
+     * when the same template was recently instantiated with the same
+     * arguments.
+     * 
+     * @param template
+     *            - compiled template
+     * @param arguments
+     *            - one argument per distinct placeholder
+     * @return - locator
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong
+     */
+    Locator instantiate(LocatorTemplate template, String[] arguments) throws InvalidLocatorStrategyException
+    {
+        TemplateKey key = new TemplateKey(template, arguments);
+        Locator locator = instantiations.get(key);
+
+        if (locator == null)
+        {
+            locator = template.instantiate(arguments);
+            instantiations.put(key, locator);
+        }
+
+        return locator;
+    }
+
+    void setTemplateCacheSize(int templateCacheSize)
+    {
+        instantiations.setCapacity(templateCacheSize);
+    }
+
+    int getTemplateCacheSize()
+    {
+        return instantiations.getCapacity();
+    }
+
+    /**
+     * @return - malformed locator names mapped to the reason they were rejected
+     */
+    Map<String, String> getErrors()
+    {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return - XPath locator names mapped to the reason they were not
+     *         rewritten by the {@link XPathOptimizer}
+     */
+    Map<String, String> getUnoptimized()
+    {
+        return Collections.unmodifiableMap(unoptimized);
+    }
+
+    int size()
+    {
+        return locators.size();
+    }
+
+    /**
+     * Cache key of a template instantiation.
+     */
+    private static final class TemplateKey
+    {
+        private final LocatorTemplate template;
+        private final String[]        arguments;
+        private final int             hash;
+
+        TemplateKey(LocatorTemplate template, String[] arguments)
+        {
+            this.template = template;
+            // callers may reuse their varargs array, which must not change
+            // the key once it is cached
+            this.arguments = arguments.clone();
+            this.hash = 31 * System.identityHashCode(template) + Arrays.hashCode(arguments);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof TemplateKey))
+            {
+                return false;
+            }
+
+            TemplateKey other = (TemplateKey) obj;
+
+            return template == other.template && Arrays.equals(arguments, other.arguments);
+        }
+    }
+}
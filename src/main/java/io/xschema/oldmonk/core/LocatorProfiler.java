@@ -0,0 +1,201 @@
+package io.xschema.oldmonk.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record how long finding elements takes for each locator of the object
+ * repository, and how long waits for them take. Profiling is disabled by
+ * default, in which case it costs a single volatile read per lookup.
+ */
+public class LocatorProfiler
+{
+    private static final Logger                                    LOGGER     = LoggerFactory
+            .getLogger(LocatorProfiler.class.getName());
+
+    private static final ConcurrentMap<String, LocatorStatistics> statistics = new ConcurrentHashMap<String, LocatorStatistics>();
+    private static final ConcurrentMap<String, LocatorStatistics> waits      = new ConcurrentHashMap<String, LocatorStatistics>();
+
+    private static volatile boolean                                enabled;
+
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Start timing a lookup.
+     * 
+     * @return - start time to pass to {@link #record(String, long, boolean)},
+     *         or 0 if profiling is disabled
+     */
+    static long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a lookup started by {@link #start()}.
+     * 
+     * @param locator
+     *            - locator name in object repository
+     * @param start
+     *            - start time
+     * @param failed
+     *            - true if no element was found or the lookup failed
+     */
+    static void record(String locator, long start, boolean failed)
+    {
+        if (start == 0)
+        {
+            return;
+        }
+
+        record(statistics, locator, System.nanoTime() - start, failed);
+    }
+
+    /**
+     * Record a wait of the {@link WaitEngine}.
+     * 
+     * @param name
+     *            - what was waited for
+     * @param start
+     *            - start time of the wait
+     * @param timedOut
+     *            - true if the wait timed out
+     */
+    static void recordWait(String name, long start, boolean timedOut)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        record(waits, name, System.nanoTime() - start, timedOut);
+    }
+
+    private static void record(ConcurrentMap<String, LocatorStatistics> map, String name, long elapsed,
+            boolean failed)
+    {
+        LocatorStatistics stats = map.get(name);
+        if (stats == null)
+        {
+            LocatorStatistics created = new LocatorStatistics(name);
+            stats = map.putIfAbsent(name, created);
+            if (stats == null)
+            {
+                stats = created;
+            }
+        }
+
+        stats.record(elapsed, failed);
+    }
+
+    /**
+     * Return the slowest locators, ranked by their 95th percentile latency and
+     * then by the total time spent finding them.
+     * 
+     * @param limit
+     *            - maximum number of locators to return
+     * @return - statistics of the slowest locators
+     */
+    public static List<LocatorStatistics> getSlowestLocators(int limit)
+    {
+        return rank(statistics, limit);
+    }
+
+    /**
+     * Return the slowest waits, ranked like {@link #getSlowestLocators(int)}.
+     * Failures of the returned statistics are timed out waits.
+     * 
+     * @param limit
+     *            - maximum number of waits to return
+     * @return - statistics of the slowest waits
+     */
+    public static List<LocatorStatistics> getSlowestWaits(int limit)
+    {
+        return rank(waits, limit);
+    }
+
+    private static List<LocatorStatistics> rank(ConcurrentMap<String, LocatorStatistics> map, int limit)
+    {
+        List<LocatorStatistics> ranked = new ArrayList<LocatorStatistics>(map.values());
+
+        Collections.sort(ranked, new Comparator<LocatorStatistics>()
+        {
+            @Override
+            public int compare(LocatorStatistics a, LocatorStatistics b)
+            {
+                int byPercentile = Double.compare(b.getPercentileMillis(95), a.getPercentileMillis(95));
+                return byPercentile != 0 ? byPercentile : Long.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+
+        return ranked.subList(0, Math.min(limit, ranked.size()));
+    }
+
+    /**
+     * Write all profiled locators, slowest first, to a report file.
+     * 
+     * @param report
+     *            - report file
+     * @throws IOException
+     *             - throw this exception, if report can not be written
+     */
+    public static void writeReport(File report) throws IOException
+    {
+        List<LocatorStatistics> ranked = getSlowestLocators(Integer.MAX_VALUE);
+
+        File parent = report.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IOException("Unable to create directory '" + parent + "'!");
+        }
+
+        try (PrintWriter out = new PrintWriter(report, "UTF-8"))
+        {
+            out.println("Slowest locators (" + ranked.size() + " profiled)");
+
+            for (int i = 0; i < ranked.size(); i++)
+            {
+                out.println(String.format("%4d. %s", i + 1, ranked.get(i)));
+            }
+
+            List<LocatorStatistics> rankedWaits = getSlowestWaits(Integer.MAX_VALUE);
+
+            if (!rankedWaits.isEmpty())
+            {
+                out.println();
+                out.println("Slowest waits (" + rankedWaits.size() + " profiled, failures are timeouts)");
+
+                for (int i = 0; i < rankedWaits.size(); i++)
+                {
+                    out.println(String.format("%4d. %s", i + 1, rankedWaits.get(i)));
+                }
+            }
+        }
+
+        LOGGER.info("Locator profile written to '" + report + "'");
+    }
+
+    public static void reset()
+    {
+        statistics.clear();
+        waits.clear();
+    }
+}
@@ -0,0 +1,113 @@
+package io.xschema.oldmonk.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency statistics of a single locator. Latencies are counted in a histogram
+ * with power of two microsecond buckets, so recording a lookup is a few atomic
+ * increments and percentiles are accurate to within a factor of two.
+ */
+public final class LocatorStatistics
+{
+    private static final int      BUCKETS    = 40;
+
+    private final String          locator;
+    private final AtomicLong      count      = new AtomicLong();
+    private final AtomicLong      failures   = new AtomicLong();
+    private final AtomicLong      totalNanos = new AtomicLong();
+    private final AtomicLong      maxNanos   = new AtomicLong();
+    private final AtomicLongArray histogram  = new AtomicLongArray(BUCKETS);
+
+    LocatorStatistics(String locator)
+    {
+        this.locator = locator;
+    }
+
+    void record(long nanos, boolean failed)
+    {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        if (failed)
+        {
+            failures.incrementAndGet();
+        }
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+        {
+            max = maxNanos.get();
+        }
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+    }
+
+    public String getLocator()
+    {
+        return locator;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getFailureCount()
+    {
+        return failures.get();
+    }
+
+    public long getTotalMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    public double getMeanMillis()
+    {
+        long calls = count.get();
+        return calls == 0 ? 0 : totalNanos.get() / (calls * 1000000.0);
+    }
+
+    public double getMaxMillis()
+    {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * Return the latency below which the given fraction of lookups completed.
+     * 
+     * @param percentile
+     *            - percentile between 0 and 100
+     * @return - upper bound of the latency in milliseconds
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        long calls = count.get();
+        long rank = (long) Math.ceil(calls * percentile / 100.0);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            seen += histogram.get(bucket);
+
+            if (seen >= rank && seen > 0)
+            {
+                // Upper bound of the bucket is 2^bucket microseconds
+                return Math.min((1L << bucket) / 1000.0, getMaxMillis());
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-40s calls=%d failures=%d total=%dms mean=%.1fms p50=%.1fms p95=%.1fms max=%.1fms",
+                locator, getCount(), getFailureCount(), getTotalMillis(), getMeanMillis(), getPercentileMillis(50),
+                getPercentileMillis(95), getMaxMillis());
+    }
+}
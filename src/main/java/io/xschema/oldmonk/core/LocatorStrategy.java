@@ -0,0 +1,27 @@
+package io.xschema.oldmonk.core;
+
+/**
+ * Enum representing all possible locator strategies for WebDriver.
+ */
+enum LocatorStrategy
+{
+    ID(true), XPATH(true), CSS_SELECTOR(true), TAG_NAME(true), NAME(true), CLASS_NAME(true), LINK_TEXT(
+            false), PARTIAL_LINK_TEXT(false);
+
+    private final boolean scriptable;
+
+    private LocatorStrategy(boolean scriptable)
+    {
+        this.scriptable = scriptable;
+    }
+
+    /**
+     * Return whether elements can be found by java script the same way
+     * WebDriver finds them. Link texts depend on the rendered text, so they
+     * are left to WebDriver.
+     */
+    boolean isScriptable()
+    {
+        return scriptable;
+    }
+}
@@ -0,0 +1,268 @@
+package io.xschema.oldmonk.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+
+/**
+ * Parameterized locator, i.e. a locator whose value contains placeholders such
+ * as XPATH,//a[text()='$value'] or CSS_SELECTOR,#${form} input[name='${field}'].
+ * A placeholder is a '$' followed by a name, optionally enclosed in braces. The
+ * value is split into literal segments once, so building a concrete locator
+ * only concatenates the segments with the arguments.
+ */
+final class LocatorTemplate
+{
+    private final LocatorStrategy strategy;
+    private final String          definition;
+
+    /*
+     * segments.length == slots.length + 1. Placeholder i sits between
+     * segments[i] and segments[i + 1] and is filled with argument slots[i].
+     */
+    private final String[]        segments;
+    private final int[]           slots;
+    private final String[]        parameterNames;
+    private final int             literalLength;
+
+    private LocatorTemplate(LocatorStrategy strategy, String definition, String[] segments, int[] slots,
+            String[] parameterNames)
+    {
+        this.strategy = strategy;
+        this.definition = definition;
+        this.segments = segments;
+        this.slots = slots;
+        this.parameterNames = parameterNames;
+
+        int length = 0;
+        for (String segment : segments)
+        {
+            length += segment.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parse a locator into a template.
+     * 
+     * @param locator
+     *            - parsed locator
+     * @return - template or null if the locator value does not contain any
+     *         placeholder
+     */
+    static LocatorTemplate parse(Locator locator)
+    {
+        String value = locator.getValue();
+
+        if (value.indexOf('$') < 0)
+        {
+            return null;
+        }
+
+        List<String> segments = new ArrayList<String>();
+        List<Integer> slots = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+
+        int segmentStart = 0;
+        int i = 0;
+
+        while (i < value.length())
+        {
+            if (value.charAt(i) != '$')
+            {
+                i++;
+                continue;
+            }
+
+            int nameStart;
+            int nameEnd;
+            int placeholderEnd;
+
+            if (i + 1 < value.length() && value.charAt(i + 1) == '{')
+            {
+                nameStart = i + 2;
+                nameEnd = value.indexOf('}', nameStart);
+
+                if (nameEnd < 0 || !isName(value, nameStart, nameEnd))
+                {
+                    i++;
+                    continue;
+                }
+                placeholderEnd = nameEnd + 1;
+            } else
+            {
+                nameStart = i + 1;
+                nameEnd = nameStart;
+
+                while (nameEnd < value.length() && isNameChar(value.charAt(nameEnd), nameEnd == nameStart))
+                {
+                    nameEnd++;
+                }
+
+                if (nameEnd == nameStart)
+                {
+                    // Not a placeholder, e.g. the CSS attribute selector [href$='.pdf']
+                    i++;
+                    continue;
+                }
+                placeholderEnd = nameEnd;
+            }
+
+            String name = value.substring(nameStart, nameEnd);
+            int slot = names.indexOf(name);
+            if (slot < 0)
+            {
+                slot = names.size();
+                names.add(name);
+            }
+
+            segments.add(value.substring(segmentStart, i));
+            slots.add(slot);
+
+            segmentStart = placeholderEnd;
+            i = placeholderEnd;
+        }
+
+        if (slots.isEmpty())
+        {
+            return null;
+        }
+
+        segments.add(value.substring(segmentStart));
+
+        int[] slotArray = new int[slots.size()];
+        for (int s = 0; s < slotArray.length; s++)
+        {
+            slotArray[s] = slots.get(s);
+        }
+
+        return new LocatorTemplate(locator.getStrategy(), locator.toString(),
+                segments.toArray(new String[segments.size()]), slotArray, names.toArray(new String[names.size()]));
+    }
+
+    private static boolean isName(String value, int start, int end)
+    {
+        if (start == end)
+        {
+            return false;
+        }
+
+        for (int i = start; i < end; i++)
+        {
+            if (!isNameChar(value.charAt(i), i == start))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isNameChar(char c, boolean first)
+    {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (!first && c >= '0' && c <= '9');
+    }
+
+    /**
+     * Build a concrete locator. Arguments are matched with the distinct
+     * placeholder names in the order they first appear in the locator value.
+     * 
+     * @param arguments
+     *            - one argument per distinct placeholder
+     * @return - locator
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong
+     */
+    Locator instantiate(String[] arguments) throws InvalidLocatorStrategyException
+    {
+        if (arguments.length != parameterNames.length)
+        {
+            throw new IllegalArgumentException("Locator '" + definition + "' expects " + parameterNames.length
+                    + " replacement value(s) " + Arrays.toString(parameterNames) + " but " + arguments.length
+                    + " were passed!");
+        }
+
+        int length = literalLength;
+        for (int i = 0; i < arguments.length; i++)
+        {
+            if (arguments[i] == null)
+            {
+                throw new IllegalArgumentException("Replacement value for placeholder '" + parameterNames[i]
+                        + "' of locator '" + definition + "' can not be null!");
+            }
+        }
+
+        for (int slot : slots)
+        {
+            length += arguments[slot].length();
+        }
+
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < slots.length; i++)
+        {
+            value.append(segments[i]).append(arguments[slots[i]]);
+        }
+        value.append(segments[slots.length]);
+
+        return Locator.of(strategy, value.toString());
+    }
+
+    /**
+     * Build a locator value with every placeholder replaced by the same
+     * sample argument, e.g. to check the syntax of the template.
+     * 
+     * @param sample
+     *            - value for all placeholders
+     * @return - locator value
+     */
+    String sample(String sample)
+    {
+        StringBuilder value = new StringBuilder(literalLength + slots.length * sample.length());
+        for (int i = 0; i < slots.length; i++)
+        {
+            value.append(segments[i]).append(sample);
+        }
+        value.append(segments[slots.length]);
+
+        return value.toString();
+    }
+
+    /**
+     * Order named arguments by placeholder position.
+     * 
+     * @param arguments
+     *            - placeholder name mapped to its value
+     * @return - arguments ordered as expected by {@link #instantiate(String[])}
+     */
+    String[] arguments(Map<String, String> arguments)
+    {
+        String[] ordered = new String[parameterNames.length];
+
+        for (int i = 0; i < parameterNames.length; i++)
+        {
+            ordered[i] = arguments.get(parameterNames[i]);
+
+            if (ordered[i] == null)
+            {
+                throw new IllegalArgumentException("No replacement value passed for placeholder '"
+                        + parameterNames[i] + "' of locator '" + definition + "'!");
+            }
+        }
+
+        return ordered;
+    }
+
+    String[] getParameterNames()
+    {
+        return parameterNames.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        return definition;
+    }
+}
@@ -0,0 +1,390 @@
+package io.xschema.oldmonk.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.css.sac.CSSException;
+import org.w3c.css.sac.CSSParseException;
+import org.w3c.css.sac.ErrorHandler;
+import org.w3c.css.sac.InputSource;
+
+import com.steadystate.css.parser.CSSOMParser;
+import com.steadystate.css.parser.SACParserCSS3;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+import io.xschema.oldmonk.exception.ObjectRepositoryValidationException;
+import io.xschema.oldmonk.utils.ObjectRepository;
+
+/**
+ * Validate every locator of an object repository up front, so that malformed
+ * locators fail the run before any browser is started instead of in the middle
+ * of a test. Locator files are validated in parallel. Besides the
+ * LocatorStrategy,value format, XPath expressions are compiled and CSS
+ * selectors are parsed (CSS level 3). Parameterized locators are checked with
+ * every placeholder replaced by a sample value.
+ * <p>
+ * The CSS parser does not know newer selectors which browsers support, e.g.
+ * div:not(.a, .b), a:has(&gt; img) or input[type=checkbox i], so CSS
+ * selectors it can not parse are only logged as warnings. Malformed XPath
+ * expressions and locator strategies fail the validation.
+ */
+public class ObjectRepositoryValidator
+{
+    private static final Logger LOGGER             = LoggerFactory
+            .getLogger(ObjectRepositoryValidator.class.getName());
+
+    private static final String PLACEHOLDER_SAMPLE = "x";
+
+    /**
+     * Validate the configured object repository directory.
+     * 
+     * @return - number of validated locators
+     * @throws IOException
+     *             - throw this exception, if locator files can not be read
+     * @throws ObjectRepositoryValidationException
+     *             - throw this exception, listing all malformed locators
+     */
+    public static int validate() throws IOException, ObjectRepositoryValidationException
+    {
+        return validate(new File(ObjectRepository.getRepositoryDirectory()));
+    }
+
+    /**
+     * Validate all locator files present in an object repository directory.
+     * 
+     * @param repositoryDir
+     *            - directory containing locator files
+     * @return - number of validated locators
+     * @throws IOException
+     *             - throw this exception, if locator files can not be read
+     * @throws ObjectRepositoryValidationException
+     *             - throw this exception, listing all malformed locators
+     */
+    public static int validate(File repositoryDir) throws IOException, ObjectRepositoryValidationException
+    {
+        File[] locatorFiles = ObjectRepository.listLocatorFiles(repositoryDir);
+        Arrays.sort(locatorFiles);
+
+        if (locatorFiles.length == 0)
+        {
+            return 0;
+        }
+
+        ExecutorService executor = Executors
+                .newFixedThreadPool(Math.min(locatorFiles.length, Runtime.getRuntime().availableProcessors()));
+
+        List<Future<FileResult>> results = new ArrayList<Future<FileResult>>();
+
+        try
+        {
+            for (final File f : locatorFiles)
+            {
+                results.add(executor.submit(new Callable<FileResult>()
+                {
+                    @Override
+                    public FileResult call() throws IOException
+                    {
+                        return validateFile(f);
+                    }
+                }));
+            }
+
+            List<String> problems = new ArrayList<String>();
+            int warnings = 0;
+            Map<String, String> definedIn = new HashMap<String, String>();
+            int count = 0;
+
+            for (Future<FileResult> future : results)
+            {
+                FileResult result = getResult(future);
+
+                problems.addAll(result.problems);
+                count += result.names.size();
+
+                for (String warning : result.warnings)
+                {
+                    LOGGER.warn("Locator " + warning);
+                    warnings++;
+                }
+
+                for (String name : result.names)
+                {
+                    String previous = definedIn.put(name, result.file);
+
+                    if (previous != null)
+                    {
+                        LOGGER.warn("Locator '" + name + "' of " + result.file + " overrides the one of " + previous);
+                    }
+                }
+            }
+
+            if (!problems.isEmpty())
+            {
+                throw new ObjectRepositoryValidationException(problems);
+            }
+
+            LOGGER.info("Validated " + count + " locators in " + locatorFiles.length + " locator files, " + warnings
+                    + " with warnings");
+
+            return count;
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static FileResult getResult(Future<FileResult> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        } catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IllegalStateException("Object repository validation failed!", e.getCause());
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while validating object repository!", e);
+        }
+    }
+
+    private static FileResult validateFile(File f) throws IOException
+    {
+        Properties locators = ObjectRepository.load(f);
+
+        FileResult result = new FileResult(f.getName());
+        SyntaxChecker checker = new SyntaxChecker();
+
+        List<String> names = new ArrayList<String>(locators.stringPropertyNames());
+        Collections.sort(names);
+
+        for (String name : names)
+        {
+            result.names.add(name);
+
+            String problem = checker.check(locators.getProperty(name));
+
+            if (problem != null)
+            {
+                result.problems.add(f.getName() + ": " + name + " - " + problem);
+            }
+
+            String warning = checker.getWarning();
+
+            if (warning != null)
+            {
+                result.warnings.add(f.getName() + ": " + name + " - " + warning);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Locators, problems and warnings of a single locator file.
+     */
+    private static final class FileResult
+    {
+        private final String       file;
+        private final List<String> names    = new ArrayList<String>();
+        private final List<String> problems = new ArrayList<String>();
+        private final List<String> warnings = new ArrayList<String>();
+
+        FileResult(String file)
+        {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Checks the syntax of locator definitions. XPath and CSS parsers are not
+     * thread safe, so each validating thread uses its own checker.
+     */
+    private static final class SyntaxChecker
+    {
+        private final XPath                  xpath     = XPathFactory.newInstance().newXPath();
+        private final CSSOMParser            css       = new CSSOMParser(new SACParserCSS3());
+        private final CollectingErrorHandler cssErrors = new CollectingErrorHandler();
+
+        private String                       warning;
+
+        SyntaxChecker()
+        {
+            // Any prefix is accepted, browsers resolve them against the document
+            xpath.setNamespaceContext(new NamespaceContext()
+            {
+                @Override
+                public String getNamespaceURI(String prefix)
+                {
+                    return "urn:oldmonk:" + prefix;
+                }
+
+                @Override
+                public String getPrefix(String namespaceURI)
+                {
+                    return null;
+                }
+
+                @Override
+                public Iterator<String> getPrefixes(String namespaceURI)
+                {
+                    return Collections.<String> emptyList().iterator();
+                }
+            });
+
+            css.setErrorHandler(cssErrors);
+        }
+
+        /**
+         * @return - description of the problem or null if the definition is
+         *         valid
+         */
+        String check(String definition)
+        {
+            warning = null;
+
+            Locator locator;
+
+            try
+            {
+                locator = Locator.parse(definition);
+            } catch (InvalidLocatorStrategyException e)
+            {
+                return e.getMessage();
+            }
+
+            String value = locator.getValue();
+
+            LocatorTemplate template = LocatorTemplate.parse(locator);
+            if (template != null)
+            {
+                value = template.sample(PLACEHOLDER_SAMPLE);
+            }
+
+            switch (locator.getStrategy())
+            {
+                case XPATH:
+                    return checkXPath(value);
+                case CSS_SELECTOR:
+                    warning = checkCss(value);
+                    return null;
+                case CLASS_NAME:
+                    return containsWhitespace(value) ? "Compound class names are not permitted in '" + value + "'"
+                            : null;
+                case TAG_NAME:
+                    return containsWhitespace(value) ? "Invalid tag name '" + value + "'" : null;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @return - description of a possible problem of the definition last
+         *         checked, which does not fail the validation, or null
+         */
+        String getWarning()
+        {
+            return warning;
+        }
+
+        private String checkXPath(String value)
+        {
+            try
+            {
+                xpath.compile(value);
+                return null;
+            } catch (XPathExpressionException e)
+            {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                return "Invalid XPath '" + value + "': " + cause.getMessage();
+            }
+        }
+
+        private String checkCss(String value)
+        {
+            cssErrors.clear();
+
+            try
+            {
+                css.parseSelectors(new InputSource(new StringReader(value)));
+            } catch (IOException | CSSException e)
+            {
+                return "CSS selector '" + value + "' could not be parsed: " + e.getMessage();
+            }
+
+            return cssErrors.first == null ? null
+                    : "CSS selector '" + value + "' could not be parsed: " + cssErrors.first;
+        }
+
+        private static boolean containsWhitespace(String value)
+        {
+            for (int i = 0; i < value.length(); i++)
+            {
+                if (Character.isWhitespace(value.charAt(i)))
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Remembers the first CSS syntax error instead of printing it.
+     */
+    private static final class CollectingErrorHandler implements ErrorHandler
+    {
+        private String first;
+
+        void clear()
+        {
+            first = null;
+        }
+
+        @Override
+        public void warning(CSSParseException e)
+        {}
+
+        @Override
+        public void error(CSSParseException e)
+        {
+            if (first == null)
+            {
+                first = e.getMessage();
+            }
+        }
+
+        @Override
+        public void fatalError(CSSParseException e)
+        {
+            error(e);
+        }
+    }
+}
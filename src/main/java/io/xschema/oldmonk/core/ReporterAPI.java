@@ -702,4 +702,21 @@ public class ReporterAPI
 
         return null;
     }
+
+    /**
+     * Return the slowest locators profiled during the run, for custom
+     * reports. Locators are sorted by their 95th percentile find latency,
+     * slowest first, and then by the total time spent finding them. All times
+     * of the returned statistics are in milliseconds. Locators are only
+     * profiled while the profiler is enabled, e.g. by LocatorProfilerListener.
+     * 
+     * @param limit
+     *            - maximum number of locators to return
+     * @return - statistics of at most 'limit' locators, empty if none were
+     *         profiled
+     */
+    public List<LocatorStatistics> getSlowestLocators(int limit)
+    {
+        return LocatorProfiler.getSlowestLocators(limit);
+    }
 }
@@ -0,0 +1,51 @@
+package io.xschema.oldmonk.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Java scripts executed in the browser. Scripts are kept as resources next to
+ * this class and prefixed with locate.js, which resolves object repository
+ * locators in the browser.
+ */
+final class Scripts
+{
+    private static final String LOCATE           = load("locate.js");
+
+    static final String         FIND_ELEMENTS    = LOCATE + load("find-elements.js");
+    static final String         WAIT_FOR_ELEMENT = LOCATE + load("wait-for-element.js");
+    static final String         RUN_ACTIONS      = LOCATE + load("actions.js") + load("run-actions.js");
+
+    private Scripts()
+    {}
+
+    private static String load(String name)
+    {
+        InputStream in = Scripts.class.getResourceAsStream(name);
+
+        if (in == null)
+        {
+            throw new IllegalStateException("Script '" + name + "' not found on classpath!");
+        }
+
+        StringBuilder script = new StringBuilder();
+        char[] buffer = new char[4096];
+
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8))
+        {
+            int read;
+            while ((read = reader.read(buffer)) != -1)
+            {
+                script.append(buffer, 0, read);
+            }
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to load script '" + name + "'!", e);
+        }
+
+        return script.append('\n').toString();
+    }
+}
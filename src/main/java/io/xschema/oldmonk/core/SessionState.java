@@ -0,0 +1,509 @@
+package io.xschema.oldmonk.core;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * State kept per WebDriver session and shared by all page objects using the
+ * same driver, so that a navigation done through one page object is seen by
+ * the others.
+ * <p>
+ * A session is confined to the thread which created it, its owner. Page
+ * objects keep no state of their own between calls, so a page object may be
+ * shared by several threads as long as each thread uses its own driver.
+ */
+final class SessionState
+{
+    private static final Logger                       LOGGER       = LoggerFactory.getLogger(SessionState.class.getName());
+
+    private static final Map<WebDriver, SessionState> SESSIONS     = new WeakHashMap<WebDriver, SessionState>();
+
+    /*
+     * Session a thread is acting for on behalf of its owner, e.g. running the
+     * calls of an asynchronous page
+     */
+    private static final ThreadLocal<SessionState>    DELEGATED    = new ThreadLocal<SessionState>();
+
+    private static volatile boolean                   strictThreadConfinement;
+
+    private volatile Thread                           owner        = Thread.currentThread();
+    private volatile Thread                           warnedThread;
+
+    private final ElementCache                        elementCache = new ElementCache();
+    private final BrowsingContext                     context      = new BrowsingContext();
+    private volatile boolean                          elementCacheEnabled;
+
+    /*
+     * Script timeout last set by event driven waits, -1 if never set
+     */
+    private volatile long                             scriptTimeoutMillis = -1;
+
+    /*
+     * Page level reads memoized in the current navigation epoch. The epoch is
+     * guarded by the map.
+     */
+    private final Map<PageRead, Object>               pageReads    = new EnumMap<PageRead, Object>(PageRead.class);
+    private long                                      epoch;
+    private volatile boolean                          pageReadCacheEnabled;
+
+    /*
+     * Parsed page source of the current navigation epoch, guarded by the map
+     * of page reads
+     */
+    private DomSnapshot                               snapshot;
+    private volatile boolean                          domSnapshotEnabled;
+
+    /**
+     * Reads of the whole page, which can be memoized until the page changes.
+     */
+    enum PageRead
+    {
+        PAGE_SOURCE
+        {
+            @Override
+            Object from(WebDriver driver)
+            {
+                return driver.getPageSource();
+            }
+        },
+        TITLE
+        {
+            @Override
+            Object from(WebDriver driver)
+            {
+                return driver.getTitle();
+            }
+        },
+        CURRENT_URL
+        {
+            @Override
+            Object from(WebDriver driver)
+            {
+                return driver.getCurrentUrl();
+            }
+        },
+        WINDOW_HANDLES
+        {
+            @Override
+            Object from(WebDriver driver)
+            {
+                return Collections.unmodifiableSet(new LinkedHashSet<String>(driver.getWindowHandles()));
+            }
+        },
+        WINDOW_HANDLE
+        {
+            @Override
+            Object from(WebDriver driver)
+            {
+                return driver.getWindowHandle();
+            }
+        };
+
+        abstract Object from(WebDriver driver);
+    }
+
+    private SessionState()
+    {}
+
+    /**
+     * Return the state of a driver session, creating it on first use.
+     */
+    static SessionState of(WebDriver driver)
+    {
+        synchronized (SESSIONS)
+        {
+            SessionState state = SESSIONS.get(driver);
+
+            if (state == null)
+            {
+                state = new SessionState();
+                SESSIONS.put(driver, state);
+            }
+
+            return state;
+        }
+    }
+
+    /**
+     * Forget the state of a driver session, e.g. once the driver has quit or
+     * before it is reused by another test.
+     */
+    static void discard(WebDriver driver)
+    {
+        synchronized (SESSIONS)
+        {
+            SESSIONS.remove(driver);
+        }
+    }
+
+    /**
+     * If strict, using a session from a thread other than its owner throws an
+     * IllegalStateException, else a warning is logged once per thread.
+     */
+    static void setStrictThreadConfinement(boolean strict)
+    {
+        strictThreadConfinement = strict;
+    }
+
+    static boolean isStrictThreadConfinement()
+    {
+        return strictThreadConfinement;
+    }
+
+    /**
+     * Hand the session over to the current thread.
+     */
+    void bindToCurrentThread()
+    {
+        owner = Thread.currentThread();
+        warnedThread = null;
+    }
+
+    /**
+     * Check that the session is used by its owner, or by a thread acting on
+     * its behalf. A session whose owner has terminated is taken over by the
+     * current thread.
+     * 
+     * @throws IllegalStateException
+     *             - if the session is used from the wrong thread and thread
+     *             confinement is strict
+     */
+    void checkThread()
+    {
+        Thread current = Thread.currentThread();
+        Thread sessionOwner = owner;
+
+        if (current == sessionOwner || DELEGATED.get() == this)
+        {
+            return;
+        }
+
+        if (!sessionOwner.isAlive())
+        {
+            bindToCurrentThread();
+            return;
+        }
+
+        String message = "WebDriver session of thread '" + sessionOwner.getName() + "' used from thread '"
+                + current.getName() + "'";
+
+        if (strictThreadConfinement)
+        {
+            throw new IllegalStateException(message
+                    + ", use a driver per thread or hand the session over by bindToCurrentThread()");
+        }
+
+        if (warnedThread != current)
+        {
+            warnedThread = current;
+            LOGGER.warn(message + ", page objects of a driver must not be used by several threads at once");
+        }
+    }
+
+    /**
+     * Prepare the session for a command of the current thread: check the
+     * thread and issue a deferred switch of the browsing context.
+     */
+    void prepare(WebDriver driver)
+    {
+        checkThread();
+
+        if (context.apply(driver))
+        {
+            contextSwitched();
+        }
+    }
+
+    /**
+     * Let the current thread act for the owner of this session, until
+     * {@link #endDelegation()}.
+     */
+    void beginDelegation()
+    {
+        DELEGATED.set(this);
+    }
+
+    static void endDelegation()
+    {
+        DELEGATED.remove();
+    }
+
+    /**
+     * Make sure asynchronous scripts may run for at least the given time,
+     * setting the script timeout of the driver only when it has to be raised.
+     */
+    void ensureScriptTimeout(WebDriver driver, long millis)
+    {
+        if (scriptTimeoutMillis < millis)
+        {
+            driver.manage().timeouts().setScriptTimeout(millis, TimeUnit.MILLISECONDS);
+            scriptTimeoutMillis = millis;
+        }
+    }
+
+    boolean isElementCacheEnabled()
+    {
+        return elementCacheEnabled;
+    }
+
+    void setElementCacheEnabled(boolean enabled)
+    {
+        elementCacheEnabled = enabled;
+
+        if (!enabled)
+        {
+            elementCache.clear();
+        }
+    }
+
+    boolean isPageReadCacheEnabled()
+    {
+        return pageReadCacheEnabled;
+    }
+
+    void setPageReadCacheEnabled(boolean enabled)
+    {
+        pageReadCacheEnabled = enabled;
+        pageChanged();
+    }
+
+    /**
+     * Read from the whole page, returning the value read before in the same
+     * navigation epoch if memoizing is enabled.
+     */
+    Object read(WebDriver driver, PageRead read)
+    {
+        prepare(driver);
+
+        if (!pageReadCacheEnabled)
+        {
+            return read.from(driver);
+        }
+
+        long readEpoch;
+
+        synchronized (pageReads)
+        {
+            Object value = pageReads.get(read);
+
+            if (value != null)
+            {
+                return value;
+            }
+
+            readEpoch = epoch;
+        }
+
+        Object value = read.from(driver);
+
+        synchronized (pageReads)
+        {
+            // The page may have changed while reading
+            if (readEpoch == epoch && value != null)
+            {
+                pageReads.put(read, value);
+            }
+        }
+
+        return value;
+    }
+
+    boolean isDomSnapshotEnabled()
+    {
+        return domSnapshotEnabled;
+    }
+
+    void setDomSnapshotEnabled(boolean enabled)
+    {
+        domSnapshotEnabled = enabled;
+        pageChanged();
+    }
+
+    /**
+     * Return the parsed page source of the current navigation epoch, reading
+     * and parsing it on first use.
+     */
+    DomSnapshot snapshot(WebDriver driver) throws SAXException, IOException
+    {
+        long readEpoch;
+
+        synchronized (pageReads)
+        {
+            if (snapshot != null)
+            {
+                return snapshot;
+            }
+
+            readEpoch = epoch;
+        }
+
+        DomSnapshot parsed = DomSnapshot.parse((String) read(driver, PageRead.PAGE_SOURCE));
+
+        synchronized (pageReads)
+        {
+            // The page may have changed while reading
+            if (readEpoch == epoch)
+            {
+                snapshot = parsed;
+            }
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Page may have changed, start a new navigation epoch.
+     */
+    void pageChanged()
+    {
+        synchronized (pageReads)
+        {
+            epoch++;
+            pageReads.clear();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Return the cached element for a locator.
+     * 
+     * @return - cached element or null if caching is disabled or the element
+     *         was not found before
+     */
+    WebElement cachedElement(By by)
+    {
+        return elementCacheEnabled ? elementCache.get(by) : null;
+    }
+
+    /**
+     * Find an element and cache it, if caching is enabled.
+     */
+    WebElement findElement(WebDriver driver, String locator, By by)
+    {
+        WebElement element = ElementFinder.locate(driver, locator, by);
+
+        if (elementCacheEnabled)
+        {
+            elementCache.put(by, element);
+        }
+
+        return element;
+    }
+
+    /**
+     * Cache an element found by other means, if caching is enabled.
+     */
+    void cache(By by, WebElement element)
+    {
+        if (elementCacheEnabled)
+        {
+            elementCache.put(by, element);
+        }
+    }
+
+    void evict(By by)
+    {
+        elementCache.remove(by);
+    }
+
+    /**
+     * Page was navigated, elements of the previous page are gone. Navigating
+     * also selects the top-level document.
+     */
+    void navigated()
+    {
+        context.navigated();
+        elementCache.clear();
+        pageChanged();
+    }
+
+    boolean isContextTrackingEnabled()
+    {
+        return context.isEnabled();
+    }
+
+    void setContextTrackingEnabled(boolean enabled)
+    {
+        context.setEnabled(enabled);
+    }
+
+    /**
+     * Switch to a frame of the current browsing context.
+     * 
+     * @param frame
+     *            - frame name, index or element
+     */
+    void switchToFrame(WebDriver driver, Object frame)
+    {
+        checkThread();
+
+        if (context.switchToFrame(driver, frame))
+        {
+            contextSwitched();
+        }
+    }
+
+    /**
+     * Switch to the top-level document of the current window, deferred until
+     * the next command if context tracking is enabled.
+     */
+    void switchToTopLevel(WebDriver driver)
+    {
+        checkThread();
+
+        if (context.switchToTopLevel(driver))
+        {
+            contextSwitched();
+        }
+    }
+
+    void switchToWindow(WebDriver driver, String nameOrHandle)
+    {
+        checkThread();
+
+        if (context.switchToWindow(driver, nameOrHandle))
+        {
+            contextSwitched();
+        }
+    }
+
+    /**
+     * Browsing context may have changed without a switch, e.g. by a click or
+     * by browser history.
+     */
+    void contextUnknown()
+    {
+        context.reset();
+    }
+
+    /**
+     * Current window was closed.
+     */
+    void windowClosed()
+    {
+        context.windowClosed();
+        contextSwitched();
+    }
+
+    /**
+     * Frame or window was switched, cached elements belong to another
+     * browsing context.
+     */
+    void contextSwitched()
+    {
+        elementCache.clear();
+        pageChanged();
+    }
+}
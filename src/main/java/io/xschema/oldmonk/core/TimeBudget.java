@@ -0,0 +1,215 @@
+package io.xschema.oldmonk.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time accounting of a single test. The wall time of the test is split into
+ * time spent waiting (waits of the {@link WaitEngine} and
+ * {@link BasePage#sleep(int)}), time spent in WebDriver commands issued by
+ * page objects, and the remaining test logic. Time is charged to the innermost
+ * activity only, e.g. the wait inside a click counts as waiting and not as a
+ * command.
+ * <p>
+ * The budget limits the waiting time of the test. Budgets are kept per thread
+ * and are started and finished by
+ * {@link io.xschema.oldmonk.listener.TimeBudgetListener}. Without a started
+ * budget, accounting costs a thread local lookup per page object action.
+ */
+public final class TimeBudget
+{
+    /**
+     * Activities time is charged to.
+     */
+    public enum Category
+    {
+        WAIT, COMMAND
+    }
+
+    private static final ThreadLocal<TimeBudget> CURRENT = new ThreadLocal<TimeBudget>();
+
+    private final String                         testName;
+    private final long                           budgetNanos;
+    private final long                           startNanos;
+    private long                                 endNanos;
+
+    private final long[]                         chargedNanos = new long[Category.values().length];
+
+    /*
+     * Activities in progress, innermost last. childNanos is the time of the
+     * nested activities, which is not charged to the enclosing one.
+     */
+    private Category[]                           frameCategory = new Category[4];
+    private long[]                               frameStart    = new long[4];
+    private long[]                               frameChild    = new long[4];
+    private int                                  depth;
+
+    private TimeBudget(String testName, long budgetMillis)
+    {
+        this.testName = testName;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start accounting a test on the current thread.
+     *
+     * @param testName
+     *            - name of the test
+     * @param budgetMillis
+     *            - maximum waiting time of the test, 0 for no limit
+     * @return - the started budget
+     */
+    public static TimeBudget start(String testName, long budgetMillis)
+    {
+        TimeBudget budget = new TimeBudget(testName, budgetMillis);
+        CURRENT.set(budget);
+        return budget;
+    }
+
+    /**
+     * @return - budget of the test running on the current thread, or null
+     */
+    public static TimeBudget current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Finish accounting the test running on the current thread.
+     *
+     * @return - the finished budget, or null if none was started
+     */
+    public static TimeBudget finish()
+    {
+        TimeBudget budget = CURRENT.get();
+        CURRENT.remove();
+
+        if (budget != null)
+        {
+            budget.endNanos = System.nanoTime();
+        }
+
+        return budget;
+    }
+
+    /**
+     * Begin an activity of the test running on the current thread. Every call
+     * returning true must be matched by a call to {@link #end()}, in a finally
+     * block.
+     *
+     * @param category
+     *            - activity
+     * @return - true if a budget is started on the current thread
+     */
+    static boolean begin(Category category)
+    {
+        TimeBudget budget = CURRENT.get();
+
+        if (budget == null)
+        {
+            return false;
+        }
+
+        budget.push(category);
+        return true;
+    }
+
+    /**
+     * End the innermost activity begun by {@link #begin(Category)}.
+     */
+    static void end()
+    {
+        TimeBudget budget = CURRENT.get();
+
+        if (budget != null)
+        {
+            budget.pop();
+        }
+    }
+
+    private void push(Category category)
+    {
+        if (depth == frameCategory.length)
+        {
+            frameCategory = Arrays.copyOf(frameCategory, depth * 2);
+            frameStart = Arrays.copyOf(frameStart, depth * 2);
+            frameChild = Arrays.copyOf(frameChild, depth * 2);
+        }
+
+        frameCategory[depth] = category;
+        frameStart[depth] = System.nanoTime();
+        frameChild[depth] = 0;
+        depth++;
+    }
+
+    private void pop()
+    {
+        if (depth == 0)
+        {
+            return;
+        }
+
+        depth--;
+
+        long elapsed = System.nanoTime() - frameStart[depth];
+        chargedNanos[frameCategory[depth].ordinal()] += elapsed - frameChild[depth];
+
+        if (depth > 0)
+        {
+            frameChild[depth - 1] += elapsed;
+        }
+    }
+
+    public String getTestName()
+    {
+        return testName;
+    }
+
+    public long getBudgetMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(budgetNanos);
+    }
+
+    /**
+     * @return - wall time of the test so far, or in total once finished
+     */
+    public long getWallMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos);
+    }
+
+    public long getWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(chargedNanos[Category.WAIT.ordinal()]);
+    }
+
+    public long getCommandMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(chargedNanos[Category.COMMAND.ordinal()]);
+    }
+
+    /**
+     * @return - wall time not spent waiting or in WebDriver commands
+     */
+    public long getLogicMillis()
+    {
+        return Math.max(0, getWallMillis() - getWaitMillis() - getCommandMillis());
+    }
+
+    /**
+     * @return - true if the test has a budget and waited longer than it
+     */
+    public boolean isExceeded()
+    {
+        return budgetNanos > 0 && chargedNanos[Category.WAIT.ordinal()] > budgetNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-60s wall %8d ms, waiting %8d ms, commands %8d ms, logic %8d ms%s", testName,
+                getWallMillis(), getWaitMillis(), getCommandMillis(), getLogicMillis(),
+                isExceeded() ? ", exceeded budget of " + getBudgetMillis() + " ms" : "");
+    }
+}
@@ -0,0 +1,416 @@
+package io.xschema.oldmonk.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+import io.xschema.oldmonk.exception.PropertyNotFoundException;
+
+/**
+ * Polling wait with adaptive intervals. The condition is checked right away,
+ * then after a short first poll, and the interval grows by the backoff factor
+ * up to the maximum poll interval. Elements which are usually present are
+ * found without any delay, while long waits poll the browser less often.
+ * Missing elements are ignored while waiting, like
+ * {@link org.openqa.selenium.support.ui.WebDriverWait} does.
+ * <p>
+ * Instances are immutable and can be shared between threads. The default
+ * engine is used by all pages, unless a page is given its own engine through
+ * {@link BasePage#setWaitEngine(WaitEngine)}:
+ * 
+ * <pre>
+ * WaitEngine.setDefault(WaitEngine.getDefault().withTimeout(30, TimeUnit.SECONDS));
+ * </pre>
+ * 
+ * When the {@link LocatorProfiler} is enabled, the duration of every wait is
+ * recorded.
+ */
+public final class WaitEngine
+{
+    private static final Logger        LOGGER                       = LoggerFactory.getLogger(WaitEngine.class.getName());
+
+    /*
+     * Extra time given to asynchronous scripts, so that the script times out
+     * by itself before the driver gives up on it
+     */
+    private static final long          SCRIPT_TIMEOUT_MARGIN_MILLIS = 5000;
+
+    private static volatile WaitEngine defaultEngine                = new WaitEngine(TimeUnit.SECONDS.toMillis(15), 50, 500, 1.5,
+            false);
+
+    private final long                 timeoutMillis;
+    private final long                 firstPollMillis;
+    private final long                 maxPollMillis;
+    private final double               backoff;
+    private final boolean              eventDriven;
+
+    private WaitEngine(long timeoutMillis, long firstPollMillis, long maxPollMillis, double backoff,
+            boolean eventDriven)
+    {
+        if (timeoutMillis < 0 || firstPollMillis < 1 || maxPollMillis < firstPollMillis || backoff < 1)
+        {
+            throw new IllegalArgumentException("Invalid wait settings: timeout " + timeoutMillis + " ms, first poll "
+                    + firstPollMillis + " ms, maximum poll " + maxPollMillis + " ms, backoff " + backoff);
+        }
+
+        this.timeoutMillis = timeoutMillis;
+        this.firstPollMillis = firstPollMillis;
+        this.maxPollMillis = maxPollMillis;
+        this.backoff = backoff;
+        this.eventDriven = eventDriven;
+    }
+
+    /**
+     * @return - engine used by pages without an engine of their own. Waits 15
+     *         seconds, polling after 50 ms first and at most every 500 ms.
+     */
+    public static WaitEngine getDefault()
+    {
+        return defaultEngine;
+    }
+
+    /**
+     * Set the engine used by pages without an engine of their own, e.g. once
+     * per suite.
+     * 
+     * @param engine
+     *            - default wait engine
+     */
+    public static void setDefault(WaitEngine engine)
+    {
+        if (engine == null)
+        {
+            throw new IllegalArgumentException("Default wait engine can not be null!");
+        }
+
+        defaultEngine = engine;
+    }
+
+    public WaitEngine withTimeout(long duration, TimeUnit unit)
+    {
+        return new WaitEngine(unit.toMillis(duration), firstPollMillis, maxPollMillis, backoff, eventDriven);
+    }
+
+    /**
+     * @param duration
+     *            - delay before the second check of the condition
+     * @param unit
+     *            - unit of duration
+     * @return - copy of this engine with the given first poll interval
+     */
+    public WaitEngine withFirstPoll(long duration, TimeUnit unit)
+    {
+        long firstPoll = unit.toMillis(duration);
+        return new WaitEngine(timeoutMillis, firstPoll, Math.max(firstPoll, maxPollMillis), backoff, eventDriven);
+    }
+
+    public WaitEngine withMaxPoll(long duration, TimeUnit unit)
+    {
+        long maxPoll = unit.toMillis(duration);
+        return new WaitEngine(timeoutMillis, Math.min(firstPollMillis, maxPoll), maxPoll, backoff, eventDriven);
+    }
+
+    /**
+     * @param factor
+     *            - factor by which the poll interval grows after every check,
+     *            1 for fixed interval polling
+     * @return - copy of this engine with the given backoff factor
+     */
+    public WaitEngine withBackoff(double factor)
+    {
+        return new WaitEngine(timeoutMillis, firstPollMillis, maxPollMillis, factor, eventDriven);
+    }
+
+    /**
+     * Wait for elements with a single asynchronous script per wait, which is
+     * notified by a MutationObserver when the page changes, instead of polling
+     * the browser. Applies to {@link #untilPresent(WebDriver, String, String...)}
+     * and {@link #untilVisible(WebDriver, String, String...)}. Locators using
+     * 'LINK_TEXT' or 'PARTIAL_LINK_TEXT', drivers which can not execute
+     * scripts and waits interrupted by a navigation fall back to polling. The
+     * script timeout of the driver is raised to the wait timeout if needed.
+     * 
+     * @param enable
+     *            - true for event driven waits
+     * @return - copy of this engine with event driven waits enabled or
+     *         disabled
+     */
+    public WaitEngine withEventDrivenWaits(boolean enable)
+    {
+        return new WaitEngine(timeoutMillis, firstPollMillis, maxPollMillis, backoff, enable);
+    }
+
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    public long getFirstPollMillis()
+    {
+        return firstPollMillis;
+    }
+
+    public long getMaxPollMillis()
+    {
+        return maxPollMillis;
+    }
+
+    public double getBackoff()
+    {
+        return backoff;
+    }
+
+    public boolean isEventDriven()
+    {
+        return eventDriven;
+    }
+
+    /**
+     * Wait until an element is present in the page.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param locator
+     *            - element locator
+     * @param replacements
+     *            - values for the placeholders of the locator, if any
+     * @return - element
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong
+     * @throws TimeoutException
+     *             - throw this exception when the element is not present
+     *             within the timeout
+     */
+    public WebElement untilPresent(WebDriver driver, String locator, String... replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        return untilElement(driver, locator, ElementFinder.resolve(locator, replacements), false);
+    }
+
+    /**
+     * Wait until an element is present in the page and visible.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param locator
+     *            - element locator
+     * @param replacements
+     *            - values for the placeholders of the locator, if any
+     * @return - element
+     * @throws PropertyNotFoundException
+     *             - throw this exception when declared locator is not found in
+     *             object repository
+     * @throws InvalidLocatorStrategyException
+     *             - throw this exception when locator strategy is wrong
+     * @throws TimeoutException
+     *             - throw this exception when the element is not visible
+     *             within the timeout
+     */
+    public WebElement untilVisible(WebDriver driver, String locator, String... replacements)
+            throws PropertyNotFoundException, InvalidLocatorStrategyException
+    {
+        return untilElement(driver, locator, ElementFinder.resolve(locator, replacements), true);
+    }
+
+    private WebElement untilElement(WebDriver driver, String name, Locator locator, boolean visible)
+    {
+        boolean timed = TimeBudget.begin(TimeBudget.Category.WAIT);
+
+        try
+        {
+            return untilElement(driver, name, locator, visible, System.nanoTime());
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+    }
+
+    private WebElement untilElement(WebDriver driver, String name, Locator locator, boolean visible, long start)
+    {
+
+        if (eventDriven && driver instanceof JavascriptExecutor && locator.getStrategy().isScriptable())
+        {
+            try
+            {
+                SessionState.of(driver).ensureScriptTimeout(driver, timeoutMillis + SCRIPT_TIMEOUT_MARGIN_MILLIS);
+
+                Object result = ((JavascriptExecutor) driver).executeAsyncScript(Scripts.WAIT_FOR_ELEMENT,
+                        locator.getStrategy().name(), locator.getValue(), visible, timeoutMillis);
+
+                if (result instanceof WebElement && (!visible || ((WebElement) result).isDisplayed()))
+                {
+                    finished(name, start, 1, false);
+                    return (WebElement) result;
+                }
+
+                if (result == null)
+                {
+                    finished(name, start, 1, true);
+                    throw new TimeoutException("Timed out after " + timeoutMillis + " ms waiting for '" + name
+                            + "' to be " + (visible ? "visible" : "present") + ": " + locator);
+                }
+
+                // The script could not evaluate the locator, or WebDriver does not consider the element visible
+                LOGGER.debug("Event driven wait for '" + name + "' returned '" + result + "', polling instead");
+            } catch (TimeoutException e)
+            {
+                throw e;
+            } catch (WebDriverException e)
+            {
+                // E.g. the page was navigated while waiting
+                LOGGER.debug("Event driven wait for '" + name + "' failed, polling instead: " + e.getMessage());
+            }
+        }
+
+        By by = locator.getBy();
+
+        return poll(driver, name, visible ? ExpectedConditions.visibilityOfElementLocated(by)
+                : ExpectedConditions.presenceOfElementLocated(by), start, timeoutMillis);
+    }
+
+    /**
+     * Wait until the condition returns neither null nor false.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param name
+     *            - what is waited for, e.g. the locator name, for reporting
+     * @param condition
+     *            - condition to wait for, e.g. one of
+     *            {@link org.openqa.selenium.support.ui.ExpectedConditions}
+     * @return - the last value returned by the condition
+     * @throws TimeoutException
+     *             - throw this exception when the condition is not met within
+     *             the timeout
+     */
+    public <T> T until(WebDriver driver, String name, Function<? super WebDriver, T> condition)
+    {
+        return until(driver, name, condition, timeoutMillis);
+    }
+
+    /**
+     * Wait until the condition returns neither null nor false, with a timeout
+     * other than the one of this engine.
+     * 
+     * @param driver
+     *            - WebDriver instance
+     * @param name
+     *            - what is waited for, e.g. the locator name, for reporting
+     * @param condition
+     *            - condition to wait for
+     * @param timeout
+     *            - timeout in milliseconds
+     * @return - the last value returned by the condition
+     * @throws TimeoutException
+     *             - throw this exception when the condition is not met within
+     *             the timeout
+     */
+    public <T> T until(WebDriver driver, String name, Function<? super WebDriver, T> condition, long timeout)
+    {
+        boolean timed = TimeBudget.begin(TimeBudget.Category.WAIT);
+
+        try
+        {
+            return poll(driver, name, condition, System.nanoTime(), timeout);
+        } finally
+        {
+            if (timed)
+            {
+                TimeBudget.end();
+            }
+        }
+    }
+
+    private <T> T poll(WebDriver driver, String name, Function<? super WebDriver, T> condition, long start,
+            long timeout)
+    {
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long interval = firstPollMillis;
+        int polls = 0;
+
+        NotFoundException lastException = null;
+
+        while (true)
+        {
+            polls++;
+
+            try
+            {
+                T value = condition.apply(driver);
+
+                if (value != null && !Boolean.FALSE.equals(value))
+                {
+                    finished(name, start, polls, false);
+                    return value;
+                }
+            } catch (NotFoundException e)
+            {
+                lastException = e;
+            }
+
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+            if (remaining <= 0)
+            {
+                finished(name, start, polls, true);
+                throw new TimeoutException("Timed out after " + timeout + " ms waiting for '" + name + "' ("
+                        + polls + " polls): " + condition, lastException);
+            }
+
+            try
+            {
+                Thread.sleep(Math.min(interval, remaining));
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException("Interrupted while waiting for '" + name + "'", e);
+            }
+
+            interval = nextPoll(interval);
+        }
+    }
+
+    /**
+     * @return - poll interval following the given one
+     */
+    long nextPoll(long interval)
+    {
+        return Math.min(maxPollMillis, (long) Math.ceil(interval * backoff));
+    }
+
+    private static void finished(String name, long start, int polls, boolean timedOut)
+    {
+        LocatorProfiler.recordWait(name, start, timedOut);
+
+        if (LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms for '" + name
+                    + "' (" + polls + " polls" + (timedOut ? ", timed out)" : ")"));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "WaitEngine[timeout " + timeoutMillis + " ms, first poll " + firstPollMillis + " ms, maximum poll "
+                + maxPollMillis + " ms, backoff " + backoff + (eventDriven ? ", event driven]" : "]");
+    }
+}
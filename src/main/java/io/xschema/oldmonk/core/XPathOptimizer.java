@@ -0,0 +1,651 @@
+package io.xschema.oldmonk.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+import io.xschema.oldmonk.utils.ObjectRepository;
+
+/**
+ * Rewrite XPath locators into equivalent 'ID', 'NAME', 'TAG_NAME' or
+ * 'CSS_SELECTOR' locators, which browsers evaluate much faster. Only XPath
+ * expressions which provably select the same elements are rewritten, i.e.
+ * paths of '//' and '/' steps with lower case element names and predicates
+ * made of attribute tests joined by 'and':
+ * 
+ * <pre>
+ * //*[@id='login']                          ID,login
+ * //*[@name='email']                        NAME,email
+ * //form                                    TAG_NAME,form
+ * //div[@class='menu']//a[@href]            CSS_SELECTOR,div[class="menu"] a[href]
+ * //ul[contains(@class,'nav')]/li           CSS_SELECTOR,ul[class*="nav"] > li
+ * //a[starts-with(@href,'/mail')]           CSS_SELECTOR,a[href^="/mail"]
+ * </pre>
+ * 
+ * Everything else, e.g. text(), positions, other axes, 'or', and attributes
+ * whose values CSS matches case-insensitively in HTML documents (such as
+ * 'type'), is left as is and reported, see
+ * {@link ElementFinder#getUnoptimizedLocators()}. Parameterized locators are
+ * never rewritten. The optimizer is disabled by default.
+ */
+public class XPathOptimizer
+{
+    private static final Logger                         LOGGER                      = LoggerFactory
+            .getLogger(XPathOptimizer.class.getName());
+
+    /*
+     * Attributes whose values are matched case-insensitively by CSS attribute
+     * selectors in HTML documents, while XPath always compares them exactly.
+     */
+    private static final Set<String>                    CASE_INSENSITIVE_ATTRIBUTES = new HashSet<String>(
+            Arrays.asList("accept", "accept-charset", "align", "alink", "axis", "bgcolor", "charset", "checked",
+                    "clear", "codetype", "color", "compact", "declare", "defer", "dir", "direction", "disabled",
+                    "enctype", "face", "frame", "hreflang", "http-equiv", "lang", "language", "link", "media",
+                    "method", "multiple", "nohref", "noresize", "noshade", "nowrap", "readonly", "rel", "rev",
+                    "rules", "scope", "scrolling", "selected", "shape", "target", "text", "type", "valign",
+                    "valuetype", "vlink"));
+
+    private static volatile boolean                     enabled;
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: XPathOptimizer <object repository dir> <output dir>");
+            System.exit(1);
+        }
+
+        writeOptimizedRepository(new File(args[0]), new File(args[1]));
+    }
+
+    /**
+     * Enable or disable rewriting of XPath locators while the object
+     * repository is compiled. Has to be called before the first page object is
+     * created.
+     * 
+     * @param enable
+     *            - true to rewrite XPath locators
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Rewrite a parsed XPath locator, if possible.
+     * 
+     * @param name
+     *            - locator name in object repository
+     * @param locator
+     *            - parsed locator
+     * @param unoptimized
+     *            - locator names mapped to the reason they were not
+     *            rewritten, the locator is added if it can not be rewritten
+     * @return - rewritten locator, or the locator itself if it is not an XPath
+     *         locator or can not be rewritten
+     */
+    static Locator optimize(String name, Locator locator, Map<String, String> unoptimized)
+    {
+        if (locator.getStrategy() != LocatorStrategy.XPATH)
+        {
+            return locator;
+        }
+
+        if (LocatorTemplate.parse(locator) != null)
+        {
+            unoptimized.put(name, "parameterized locator");
+            return locator;
+        }
+
+        try
+        {
+            Locator rewritten = Locator.parse(rewrite(locator.getValue()));
+
+            LOGGER.debug("Rewrote locator '" + name + "' from '" + locator + "' to '" + rewritten + "'");
+
+            return rewritten;
+        } catch (NotRewritableException e)
+        {
+            unoptimized.put(name, e.getMessage());
+            LOGGER.debug("Locator '" + name + "' not rewritten: " + e.getMessage());
+        } catch (InvalidLocatorStrategyException e)
+        {
+            unoptimized.put(name, e.getMessage());
+        }
+
+        return locator;
+    }
+
+    /**
+     * Write an optimized copy of every locator file of an object repository
+     * directory into another directory, with XPath locators rewritten where
+     * possible. Each locator file keeps its name, so that a repository loaded
+     * per namespace keeps its namespaces. Locators which can not be rewritten
+     * are preceded by a comment giving the reason.
+     * 
+     * @param repositoryDir
+     *            - directory containing locator files
+     * @param outputDir
+     *            - directory to write the optimized locator files to, created
+     *            if missing
+     * @return - rewritten and not rewritten locators
+     * @throws IOException
+     *             - throw this exception, if locator files can not be read or
+     *             written
+     */
+    public static Result writeOptimizedRepository(File repositoryDir, File outputDir) throws IOException
+    {
+        if (repositoryDir.getCanonicalFile().equals(outputDir.getCanonicalFile()))
+        {
+            throw new IOException("Output directory '" + outputDir + "' must differ from the object repository!");
+        }
+
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+        {
+            throw new IOException("Unable to create output directory '" + outputDir + "'!");
+        }
+
+        File[] locatorFiles = ObjectRepository.listLocatorFiles(repositoryDir);
+        Arrays.sort(locatorFiles);
+
+        Result result = new Result();
+
+        for (File f : locatorFiles)
+        {
+            File output = new File(outputDir, f.getName());
+            Map<String, String> unoptimized = new TreeMap<String, String>();
+
+            result.rewritten += writeOptimized(f, output, unoptimized);
+
+            if (!unoptimized.isEmpty())
+            {
+                result.unoptimized.put(f.getName(), Collections.unmodifiableMap(unoptimized));
+            }
+        }
+
+        LOGGER.info("Rewrote " + result.rewritten + " locators of " + locatorFiles.length + " locator files into '"
+                + outputDir + "'");
+
+        return result;
+    }
+
+    private static int writeOptimized(File locatorFile, File output, Map<String, String> unoptimized)
+            throws IOException
+    {
+        Properties locators = ObjectRepository.load(locatorFile);
+
+        List<String> names = new ArrayList<String>(locators.stringPropertyNames());
+        Collections.sort(names);
+
+        int rewritten = 0;
+
+        try (PrintWriter out = new PrintWriter(output, "ISO-8859-1"))
+        {
+            out.println("# Optimized from '" + locatorFile + "'");
+
+            for (String name : names)
+            {
+                String definition = locators.getProperty(name);
+
+                try
+                {
+                    Locator locator = Locator.parse(definition);
+                    Locator optimized = optimize(name, locator, unoptimized);
+
+                    if (optimized != locator)
+                    {
+                        definition = optimized.toString();
+                        rewritten++;
+                    } else if (locator.getStrategy() == LocatorStrategy.XPATH)
+                    {
+                        out.println("# not optimized: " + unoptimized.get(name));
+                    }
+                } catch (InvalidLocatorStrategyException e)
+                {
+                    out.println("# malformed: " + e.getMessage());
+                }
+
+                out.println(escape(name, true) + "=" + escape(definition, false));
+            }
+        }
+
+        return rewritten;
+    }
+
+    /**
+     * Outcome of writing an optimized copy of an object repository.
+     */
+    public static final class Result
+    {
+        private int                                    rewritten;
+        private final Map<String, Map<String, String>> unoptimized = new TreeMap<String, Map<String, String>>();
+
+        private Result()
+        {
+        }
+
+        /**
+         * @return - number of rewritten locators
+         */
+        public int getRewrittenCount()
+        {
+            return rewritten;
+        }
+
+        /**
+         * @return - locator file names mapped to the XPath locators of the
+         *         file which could not be rewritten, along with the reason
+         */
+        public Map<String, Map<String, String>> getUnoptimizedLocators()
+        {
+            return Collections.unmodifiableMap(unoptimized);
+        }
+    }
+
+    /**
+     * Escape a key or value for a properties file.
+     */
+    private static String escape(String text, boolean key)
+    {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            switch (c)
+            {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\f':
+                    escaped.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    escaped.append('\\').append(c);
+                    break;
+                case ' ':
+                    escaped.append(key || i == 0 ? "\\ " : " ");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e)
+                    {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else
+                    {
+                        escaped.append(c);
+                    }
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Rewrite an XPath expression.
+     * 
+     * @param xpath
+     *            - XPath expression
+     * @return - equivalent locator definition, i.e. LocatorStrategy,value
+     * @throws NotRewritableException
+     *             - throw this exception when no equivalent faster locator
+     *             exists
+     */
+    static String rewrite(String xpath) throws NotRewritableException
+    {
+        return new Parser(xpath.trim()).parse();
+    }
+
+    /**
+     * Thrown when an XPath expression can not be rewritten.
+     */
+    static final class NotRewritableException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        NotRewritableException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * Recursive descent parser for the rewritable subset of XPath, producing
+     * the CSS selector along the way.
+     */
+    private static final class Parser
+    {
+        private final String        xpath;
+        private int                 pos;
+
+        private final StringBuilder css = new StringBuilder();
+
+        /*
+         * Single step paths are candidates for 'ID', 'NAME' and 'TAG_NAME'
+         */
+        private int                 steps;
+        private int                 conditions;
+        private String              tag;
+        private String              equalityAttribute;
+        private String              equalityValue;
+
+        Parser(String xpath)
+        {
+            this.xpath = xpath;
+        }
+
+        String parse() throws NotRewritableException
+        {
+            if (!xpath.startsWith("//"))
+            {
+                throw new NotRewritableException("only paths starting with '//' are rewritten");
+            }
+
+            while (pos < xpath.length())
+            {
+                step();
+                skipWhitespace();
+            }
+
+            if (steps == 1 && "*".equals(tag) && conditions == 1 && equalityAttribute != null)
+            {
+                if (equalityAttribute.equals("id"))
+                {
+                    return LocatorStrategy.ID + "," + equalityValue;
+                }
+
+                if (equalityAttribute.equals("name"))
+                {
+                    return LocatorStrategy.NAME + "," + equalityValue;
+                }
+            }
+
+            if (steps == 1 && !"*".equals(tag) && conditions == 0)
+            {
+                return LocatorStrategy.TAG_NAME + "," + tag;
+            }
+
+            return LocatorStrategy.CSS_SELECTOR + "," + css;
+        }
+
+        private void step() throws NotRewritableException
+        {
+            if (xpath.startsWith("//", pos))
+            {
+                pos += 2;
+                if (steps > 0)
+                {
+                    css.append(' ');
+                }
+            } else if (xpath.startsWith("/", pos))
+            {
+                pos += 1;
+                css.append(" > ");
+            } else
+            {
+                throw unsupported();
+            }
+
+            skipWhitespace();
+
+            int stepStart = css.length();
+
+            if (xpath.startsWith("*", pos))
+            {
+                pos++;
+                tag = "*";
+            } else
+            {
+                tag = name("element");
+
+                if (tag.equals("text") || tag.equals("node") || xpath.startsWith("::", pos)
+                        || xpath.startsWith("(", pos))
+                {
+                    throw new NotRewritableException("axes and node tests other than elements are not rewritten");
+                }
+            }
+
+            css.append(tag);
+            steps++;
+
+            int stepConditions = 0;
+            skipWhitespace();
+
+            while (xpath.startsWith("[", pos))
+            {
+                pos++;
+                stepConditions += predicate();
+            }
+
+            conditions = stepConditions;
+
+            // '*' is implied by attribute selectors
+            if ("*".equals(tag) && stepConditions > 0)
+            {
+                css.deleteCharAt(stepStart);
+            }
+        }
+
+        private int predicate() throws NotRewritableException
+        {
+            int count = 0;
+
+            skipWhitespace();
+            condition();
+            count++;
+            skipWhitespace();
+
+            while (xpath.startsWith("and", pos) && pos + 3 < xpath.length()
+                    && (Character.isWhitespace(xpath.charAt(pos + 3)) || xpath.charAt(pos + 3) == '@'))
+            {
+                pos += 3;
+                skipWhitespace();
+                condition();
+                count++;
+                skipWhitespace();
+            }
+
+            expect(']');
+
+            return count;
+        }
+
+        private void condition() throws NotRewritableException
+        {
+            if (pos < xpath.length() && Character.isDigit(xpath.charAt(pos)))
+            {
+                throw new NotRewritableException("positional predicates are not rewritten");
+            }
+
+            if (xpath.startsWith("@", pos))
+            {
+                pos++;
+                String attribute = name("attribute");
+                skipWhitespace();
+
+                if (xpath.startsWith("=", pos))
+                {
+                    pos++;
+                    skipWhitespace();
+                    String value = literal();
+
+                    checkCaseSensitive(attribute);
+                    css.append('[').append(attribute).append("=").append(cssString(value)).append(']');
+
+                    equalityAttribute = attribute;
+                    equalityValue = value;
+                } else
+                {
+                    css.append('[').append(attribute).append(']');
+                    equalityAttribute = null;
+                }
+
+                return;
+            }
+
+            String operator;
+
+            if (xpath.startsWith("contains(", pos))
+            {
+                pos += "contains(".length();
+                operator = "*=";
+            } else if (xpath.startsWith("starts-with(", pos))
+            {
+                pos += "starts-with(".length();
+                operator = "^=";
+            } else
+            {
+                throw unsupported();
+            }
+
+            skipWhitespace();
+            expect('@');
+            String attribute = name("attribute");
+            skipWhitespace();
+            expect(',');
+            skipWhitespace();
+            String value = literal();
+            skipWhitespace();
+            expect(')');
+
+            if (value.isEmpty())
+            {
+                throw new NotRewritableException("empty string comparisons are not rewritten");
+            }
+
+            checkCaseSensitive(attribute);
+            css.append('[').append(attribute).append(operator).append(cssString(value)).append(']');
+            equalityAttribute = null;
+        }
+
+        private void checkCaseSensitive(String attribute) throws NotRewritableException
+        {
+            if (CASE_INSENSITIVE_ATTRIBUTES.contains(attribute))
+            {
+                throw new NotRewritableException(
+                        "CSS matches values of attribute '" + attribute + "' case-insensitively");
+            }
+        }
+
+        private String name(String kind) throws NotRewritableException
+        {
+            int start = pos;
+
+            while (pos < xpath.length())
+            {
+                char c = xpath.charAt(pos);
+
+                if ((c >= 'a' && c <= 'z') || c == '_' || (pos > start && ((c >= '0' && c <= '9') || c == '-')))
+                {
+                    pos++;
+                } else if (c >= 'A' && c <= 'Z')
+                {
+                    throw new NotRewritableException(
+                            "upper case " + kind + " names are matched differently by CSS in HTML documents");
+                } else
+                {
+                    break;
+                }
+            }
+
+            if (pos == start)
+            {
+                throw unsupported();
+            }
+
+            if (pos < xpath.length() && xpath.charAt(pos) == ':')
+            {
+                throw new NotRewritableException("axes and namespaces are not rewritten");
+            }
+
+            return xpath.substring(start, pos);
+        }
+
+        private String literal() throws NotRewritableException
+        {
+            if (pos >= xpath.length() || (xpath.charAt(pos) != '\'' && xpath.charAt(pos) != '"'))
+            {
+                throw unsupported();
+            }
+
+            char quote = xpath.charAt(pos);
+            int end = xpath.indexOf(quote, pos + 1);
+
+            if (end < 0)
+            {
+                throw new NotRewritableException("unterminated string literal");
+            }
+
+            String value = xpath.substring(pos + 1, end);
+            pos = end + 1;
+
+            for (int i = 0; i < value.length(); i++)
+            {
+                if (value.charAt(i) < 0x20 || value.charAt(i) == 0x7f)
+                {
+                    throw new NotRewritableException("control characters in string literals are not rewritten");
+                }
+            }
+
+            return value;
+        }
+
+        private String cssString(String value)
+        {
+            return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+
+        private void expect(char c) throws NotRewritableException
+        {
+            if (pos >= xpath.length() || xpath.charAt(pos) != c)
+            {
+                throw unsupported();
+            }
+
+            pos++;
+        }
+
+        private void skipWhitespace()
+        {
+            while (pos < xpath.length() && Character.isWhitespace(xpath.charAt(pos)))
+            {
+                pos++;
+            }
+        }
+
+        private NotRewritableException unsupported()
+        {
+            return new NotRewritableException("unsupported syntax at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.xschema.oldmonk.exception;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Throw this exception when the object repository contains malformed
+ * locators. All problems found are reported at once, one per locator.
+ */
+public class ObjectRepositoryValidationException extends Exception
+{
+    private static final long  serialVersionUID = 1L;
+
+    private final List<String> problems;
+
+    public ObjectRepositoryValidationException(final List<String> problems)
+    {
+        super(problems.size() + " malformed locator(s) in object repository:" + lines(problems));
+        this.problems = Collections.unmodifiableList(new ArrayList<String>(problems));
+    }
+
+    private static String lines(List<String> problems)
+    {
+        StringBuilder message = new StringBuilder();
+
+        for (String problem : problems)
+        {
+            message.append(System.lineSeparator()).append("  ").append(problem);
+        }
+
+        return message.toString();
+    }
+
+    /**
+     * @return - one message per malformed locator
+     */
+    public List<String> getProblems()
+    {
+        return problems;
+    }
+}
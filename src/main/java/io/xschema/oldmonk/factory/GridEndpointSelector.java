@@ -0,0 +1,625 @@
+package io.xschema.oldmonk.factory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xschema.oldmonk.core.DriverRegistry;
+
+/**
+ * Driver factory spreading sessions over several Selenium GRID hubs, so that
+ * a slow or dead hub does not stall the run:
+ *
+ * <pre>
+ * GridEndpointSelector grid = new GridEndpointSelector(hub1, hub2, hub3);
+ * grid.setStrategy(GridEndpointSelector.Strategy.LOWEST_LATENCY);
+ * driver = grid.createDriver(caps);
+ * </pre>
+ *
+ * A new session goes to the hub with the fewest open sessions of this factory,
+ * or with the lowest session creation latency, and to the next hub if starting
+ * it fails. A hub is ejected after a number of consecutive failures or once its
+ * error rate is too high. Only failures of the hub count, i.e. a hub which can
+ * not be reached or does not answer in time, not a session the hub refused,
+ * e.g. for capabilities none of its nodes offers. Ejected hubs are probed in
+ * the background by requesting their status, and admitted again once they
+ * answer. Sessions of remote drivers count as open until the driver has quit.
+ */
+public class GridEndpointSelector implements DriverFactory
+{
+    private static final Logger            LOGGER              = LoggerFactory
+            .getLogger(GridEndpointSelector.class.getName());
+
+    /*
+     * Weight of the last sample in the moving averages of latency and errors
+     */
+    private static final double            SMOOTHING           = 0.3;
+
+    /*
+     * Samples needed before a hub is ejected for its error rate
+     */
+    private static final int               MIN_SAMPLES         = 10;
+
+    /**
+     * How to choose the hub of a new session.
+     */
+    public enum Strategy
+    {
+        /**
+         * Fewest open sessions, then lowest latency
+         */
+        LEAST_SESSIONS,
+
+        /**
+         * Lowest latency, then fewest open sessions
+         */
+        LOWEST_LATENCY
+    }
+
+    private final DriverFactory            delegate;
+    private final List<Endpoint>           endpoints;
+
+    private volatile Strategy              strategy            = Strategy.LEAST_SESSIONS;
+    private volatile int                   maxFailures         = 3;
+    private volatile double                maxErrorRate        = 0.5;
+    private volatile long                  probeIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile int                   probeTimeoutMillis  = (int) TimeUnit.SECONDS.toMillis(5);
+
+    /*
+     * Hub of every session started, guarded by this
+     */
+    private final Map<WebDriver, Endpoint> sessions            = new WeakHashMap<WebDriver, Endpoint>();
+    private int                            rotation;
+    private ScheduledExecutorService       prober;
+
+    public GridEndpointSelector(URL... hubs)
+    {
+        this(new WebDriverFactory(), Arrays.asList(hubs));
+    }
+
+    /**
+     * @param delegate
+     *            - factory starting the sessions on a hub
+     * @param hubs
+     *            - Selenium GRID urls
+     */
+    public GridEndpointSelector(DriverFactory delegate, List<URL> hubs)
+    {
+        if (hubs.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one hub url is required");
+        }
+
+        List<Endpoint> list = new ArrayList<Endpoint>();
+
+        for (URL hub : hubs)
+        {
+            list.add(new Endpoint(hub));
+        }
+
+        this.delegate = delegate;
+        this.endpoints = Collections.unmodifiableList(list);
+    }
+
+    public void setStrategy(Strategy strategy)
+    {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Eject a hub after the given number of consecutive failures to start a
+     * session, 3 by default.
+     */
+    public void setMaxFailures(int maxFailures)
+    {
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Eject a hub once the moving average of its failures exceeds the given
+     * rate, between 0 and 1, 0.5 by default.
+     */
+    public void setMaxErrorRate(double maxErrorRate)
+    {
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * Probe ejected hubs at the given interval, every 30 seconds by default.
+     */
+    public void setProbeInterval(long interval, TimeUnit unit)
+    {
+        this.probeIntervalMillis = unit.toMillis(interval);
+    }
+
+    /**
+     * Fail a probe which gets no answer within the given time, 5 seconds by
+     * default.
+     */
+    public void setProbeTimeout(long timeout, TimeUnit unit)
+    {
+        this.probeTimeoutMillis = (int) unit.toMillis(timeout);
+    }
+
+    /**
+     * Start a session on the best admitted hub, failing over to the others.
+     */
+    @Override
+    public WebDriver createDriver(DesiredCapabilities caps)
+    {
+        List<Endpoint> candidates = candidates();
+
+        if (candidates.isEmpty())
+        {
+            // Rather than failing at once, give the ejected hubs a chance
+            probe();
+            candidates = candidates();
+        }
+
+        if (candidates.isEmpty())
+        {
+            throw new WebDriverException("All grid hubs are ejected: " + endpoints);
+        }
+
+        WebDriverException failure = null;
+
+        for (Endpoint endpoint : candidates)
+        {
+            try
+            {
+                return start(endpoint, caps);
+            } catch (WebDriverException e)
+            {
+                failure = e;
+            }
+        }
+
+        throw new WebDriverException("No grid hub could start a session with " + caps + ": "
+                + failure.getMessage(), failure);
+    }
+
+    /**
+     * Start a session on the given hub, accounted to it if it is one of the
+     * hubs of this factory.
+     */
+    @Override
+    public WebDriver createDriver(URL remoteHubUrl, DesiredCapabilities caps) throws MalformedURLException
+    {
+        for (Endpoint endpoint : endpoints)
+        {
+            if (endpoint.url.toExternalForm().equals(remoteHubUrl.toExternalForm()))
+            {
+                return start(endpoint, caps);
+            }
+        }
+
+        return delegate.createDriver(remoteHubUrl, caps);
+    }
+
+    /**
+     * @return - the hub a new session would be started on
+     * @throws WebDriverException
+     *             - if all hubs are ejected
+     */
+    public URL select()
+    {
+        List<Endpoint> candidates = candidates();
+
+        if (candidates.isEmpty())
+        {
+            throw new WebDriverException("All grid hubs are ejected: " + endpoints);
+        }
+
+        return candidates.get(0).url;
+    }
+
+    /**
+     * Quit a driver started by this factory. Remote drivers which quit
+     * otherwise are noticed by their session id, other drivers must be quit
+     * here to count as closed.
+     */
+    public void quit(WebDriver driver)
+    {
+        synchronized (this)
+        {
+            sessions.remove(driver);
+        }
+
+        DriverRegistry.quit(driver);
+    }
+
+    private WebDriver start(Endpoint endpoint, DesiredCapabilities caps)
+    {
+        long start = System.nanoTime();
+        WebDriver driver;
+
+        try
+        {
+            driver = delegate.createDriver(endpoint.url, caps);
+
+            if (driver == null)
+            {
+                throw new WebDriverException("Unable to create a driver on " + endpoint.url);
+            }
+        } catch (MalformedURLException | RuntimeException e)
+        {
+            if (isHubFailure(e))
+            {
+                failed(endpoint, e);
+            } else
+            {
+                LOGGER.warn("Grid hub " + endpoint.url + " refused to start a session: " + e.getMessage());
+            }
+
+            throw e instanceof WebDriverException ? (WebDriverException) e : new WebDriverException(e);
+        }
+
+        endpoint.succeeded(System.nanoTime() - start);
+
+        synchronized (this)
+        {
+            sessions.put(driver, endpoint);
+        }
+
+        return driver;
+    }
+
+    /**
+     * Return whether a failure to start a session is the fault of the hub,
+     * i.e. it could not be reached, did not answer in time or failed itself.
+     * Requests the hub rejected, such as capabilities no node matches, are
+     * not held against it.
+     */
+    static boolean isHubFailure(Throwable failure)
+    {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof MalformedURLException)
+            {
+                return false;
+            }
+
+            if (cause instanceof UnreachableBrowserException || cause instanceof TimeoutException
+                    || cause instanceof IOException)
+            {
+                return true;
+            }
+
+            if (cause.getCause() == cause)
+            {
+                break;
+            }
+        }
+
+        return false;
+    }
+
+    private void failed(Endpoint endpoint, Exception cause)
+    {
+        LOGGER.warn("Grid hub " + endpoint.url + " failed to start a session: " + cause.getMessage());
+
+        if (endpoint.failed(maxFailures, maxErrorRate))
+        {
+            LOGGER.error("Ejecting grid hub " + endpoint);
+            scheduleProbes();
+        }
+    }
+
+    /**
+     * Admitted hubs, best first. Ties are broken in turn.
+     */
+    private synchronized List<Endpoint> candidates()
+    {
+        countOpenSessions();
+
+        List<Endpoint> candidates = new ArrayList<Endpoint>();
+        int offset = rotation++ % endpoints.size();
+
+        for (int i = 0; i < endpoints.size(); i++)
+        {
+            Endpoint endpoint = endpoints.get((offset + i) % endpoints.size());
+
+            if (!endpoint.isEjected())
+            {
+                candidates.add(endpoint);
+            }
+        }
+
+        final boolean byLatency = strategy == Strategy.LOWEST_LATENCY;
+
+        Collections.sort(candidates, new Comparator<Endpoint>()
+        {
+            @Override
+            public int compare(Endpoint a, Endpoint b)
+            {
+                int sessions = Integer.compare(a.getOpenSessions(), b.getOpenSessions());
+                int latency = Double.compare(a.getLatencyNanos(), b.getLatencyNanos());
+
+                if (byLatency)
+                {
+                    return latency != 0 ? latency : sessions;
+                }
+
+                return sessions != 0 ? sessions : latency;
+            }
+        });
+
+        return candidates;
+    }
+
+    /*
+     * Guarded by this
+     */
+    private void countOpenSessions()
+    {
+        int[] open = new int[endpoints.size()];
+        Iterator<Map.Entry<WebDriver, Endpoint>> iterator = sessions.entrySet().iterator();
+
+        while (iterator.hasNext())
+        {
+            Map.Entry<WebDriver, Endpoint> session = iterator.next();
+            WebDriver driver = session.getKey();
+
+            // A remote driver forgets its session id when it quits
+            if (driver instanceof RemoteWebDriver && ((RemoteWebDriver) driver).getSessionId() == null)
+            {
+                iterator.remove();
+            } else
+            {
+                open[endpoints.indexOf(session.getValue())]++;
+            }
+        }
+
+        for (int i = 0; i < open.length; i++)
+        {
+            endpoints.get(i).setOpenSessions(open[i]);
+        }
+    }
+
+    private synchronized void scheduleProbes()
+    {
+        if (prober != null)
+        {
+            return;
+        }
+
+        prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "oldmonk-grid-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        prober.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                probe();
+            }
+        }, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probe all ejected hubs now, admitting those which answer.
+     */
+    public void probe()
+    {
+        for (Endpoint endpoint : endpoints)
+        {
+            if (endpoint.isEjected() && isHealthy(endpoint.url))
+            {
+                endpoint.admit();
+                LOGGER.info("Grid hub " + endpoint.url + " answered its health probe, admitting it again");
+            }
+        }
+    }
+
+    /**
+     * A hub is healthy if its status resource answers with success.
+     */
+    private boolean isHealthy(URL hub)
+    {
+        HttpURLConnection connection = null;
+
+        try
+        {
+            connection = (HttpURLConnection) new URL(hub.toExternalForm().replaceAll("/+$", "") + "/status")
+                    .openConnection();
+            connection.setConnectTimeout(probeTimeoutMillis);
+            connection.setReadTimeout(probeTimeoutMillis);
+
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e)
+        {
+            LOGGER.debug("Health probe of grid hub " + hub + " failed: " + e.getMessage());
+            return false;
+        } finally
+        {
+            if (connection != null)
+            {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Stop probing ejected hubs.
+     */
+    public synchronized void shutdown()
+    {
+        if (prober != null)
+        {
+            prober.shutdownNow();
+            prober = null;
+        }
+    }
+
+    /**
+     * @return - the hubs with their statistics, in the order given
+     */
+    public List<Endpoint> getEndpoints()
+    {
+        return endpoints;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        countOpenSessions();
+        return "grid hubs: " + endpoints;
+    }
+
+    /**
+     * A hub and its statistics.
+     */
+    public static final class Endpoint
+    {
+        private final URL url;
+
+        private int       openSessions;
+        private long      started;
+        private long      failures;
+        private int       consecutiveFailures;
+        private double    latencyNanos;
+        private double    errorRate;
+        private boolean   ejected;
+        private long      ejections;
+
+        Endpoint(URL url)
+        {
+            this.url = url;
+        }
+
+        synchronized void succeeded(long nanos)
+        {
+            latencyNanos = started == 0 ? nanos : SMOOTHING * nanos + (1 - SMOOTHING) * latencyNanos;
+            errorRate = (1 - SMOOTHING) * errorRate;
+            consecutiveFailures = 0;
+            started++;
+        }
+
+        /**
+         * @return - true if the hub got ejected
+         */
+        synchronized boolean failed(int maxFailures, double maxErrorRate)
+        {
+            errorRate = SMOOTHING + (1 - SMOOTHING) * errorRate;
+            consecutiveFailures++;
+            failures++;
+
+            if (!ejected && (consecutiveFailures >= maxFailures
+                    || started + failures >= MIN_SAMPLES && errorRate > maxErrorRate))
+            {
+                ejected = true;
+                ejections++;
+                return true;
+            }
+
+            return false;
+        }
+
+        synchronized void admit()
+        {
+            ejected = false;
+            consecutiveFailures = 0;
+            errorRate = 0;
+        }
+
+        public URL getUrl()
+        {
+            return url;
+        }
+
+        synchronized void setOpenSessions(int openSessions)
+        {
+            this.openSessions = openSessions;
+        }
+
+        synchronized double getLatencyNanos()
+        {
+            return latencyNanos;
+        }
+
+        /**
+         * @return - sessions started on the hub and not quit yet, as of the
+         *         last selection
+         */
+        public synchronized int getOpenSessions()
+        {
+            return openSessions;
+        }
+
+        public synchronized long getSessionsStarted()
+        {
+            return started;
+        }
+
+        public synchronized long getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * @return - moving average of the time to start a session
+         */
+        public synchronized long getLatencyMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis((long) latencyNanos);
+        }
+
+        /**
+         * @return - moving average of failures, between 0 and 1
+         */
+        public synchronized double getErrorRate()
+        {
+            return errorRate;
+        }
+
+        public synchronized boolean isEjected()
+        {
+            return ejected;
+        }
+
+        /**
+         * @return - how often the hub was ejected
+         */
+        public synchronized long getEjections()
+        {
+            return ejections;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return String.format("%s: %d open, %d started, %d failed, latency %d ms, error rate %.2f%s", url,
+                    openSessions, started, failures, getLatencyMillis(), errorRate, ejected ? ", ejected" : "");
+        }
+    }
+}
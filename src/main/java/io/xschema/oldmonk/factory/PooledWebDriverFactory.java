@@ -0,0 +1,891 @@
+package io.xschema.oldmonk.factory;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Proxy;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xschema.oldmonk.core.DriverRegistry;
+
+/**
+ * Driver factory keeping browser sessions alive between tests. Drivers are
+ * leased from a pool per hub url and capabilities instead of starting a new
+ * browser each time, and must be given back by {@link #release(WebDriver)}
+ * instead of being quit:
+ *
+ * <pre>
+ * PooledWebDriverFactory factory = new PooledWebDriverFactory();
+ * WebDriver driver = factory.createDriver(caps);
+ * try
+ * {
+ *     // test
+ * } finally
+ * {
+ *     factory.release(driver);
+ * }
+ * </pre>
+ *
+ * A released session is reset for the next lease: extra windows are closed,
+ * cookies, local and session storage of the current page are cleared and
+ * 'about:blank' is opened. Cookies of other domains can not be reached by
+ * WebDriver and are kept. A session is retired, i.e. quit, after a number of
+ * leases or once it is too old, and whenever resetting it fails. Leased drivers
+ * are registered in the {@link DriverRegistry} for the leasing thread, idle
+ * ones are not.
+ * <p>
+ * Sessions can be started ahead of the first lease, so that tests pick up a
+ * warm session instead of waiting for a browser to start. Either explicitly,
+ * e.g. in a 'BeforeSuite' method, by {@link #prewarm(URL, DesiredCapabilities,
+ * int)}, or speculatively by {@link #setPrewarmSessions(int)}: the first lease
+ * of some capabilities then starts the given number of sessions concurrently.
+ * Sessions are warmed up in the background, a failed start is retried there
+ * and only the leases waiting for it are delayed.
+ */
+public class PooledWebDriverFactory implements DriverFactory
+{
+    private static final Logger                 LOGGER             = LoggerFactory
+            .getLogger(PooledWebDriverFactory.class.getName());
+
+    private static final String                 CLEAR_STORAGE      = "try { window.localStorage.clear(); }"
+            + " catch (e) {} try { window.sessionStorage.clear(); } catch (e) {}";
+
+    private static final int                    WARM_UP_ATTEMPTS   = 3;
+    private static final long                   WARM_UP_BACKOFF    = TimeUnit.SECONDS.toMillis(2);
+
+    private static final AtomicLong             WARM_UP_THREADS    = new AtomicLong();
+
+    private static PooledWebDriverFactory       shared;
+
+    private final DriverFactory                 delegate;
+
+    private volatile int                        maxSessions        = Integer.MAX_VALUE;
+    private volatile int                        maxUses            = 100;
+    private volatile long                       maxAgeMillis       = TimeUnit.MINUTES.toMillis(30);
+    private volatile long                       leaseTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+    private volatile int                        prewarmSessions;
+
+    private final Map<PoolKey, Pool>            pools              = new HashMap<PoolKey, Pool>();
+    private final Map<WebDriver, PooledSession> leased             = new IdentityHashMap<WebDriver, PooledSession>();
+    private boolean                             shutdown;
+
+    private final AtomicLong                    hits               = new AtomicLong();
+    private final AtomicLong                    misses             = new AtomicLong();
+    private final AtomicLong                    retired            = new AtomicLong();
+    private final AtomicLong                    leaseWaitNanos     = new AtomicLong();
+    private final AtomicLong                    maxLeaseWaitNanos  = new AtomicLong();
+    private final AtomicLong                    warmedUp           = new AtomicLong();
+    private final AtomicLong                    warmUpFailures     = new AtomicLong();
+
+    public PooledWebDriverFactory()
+    {
+        this(new WebDriverFactory());
+    }
+
+    /**
+     * @param delegate
+     *            - factory starting new sessions for the pool
+     */
+    public PooledWebDriverFactory(DriverFactory delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Return the factory shared by the suite, creating it on first use.
+     */
+    public static synchronized PooledWebDriverFactory shared()
+    {
+        if (shared == null)
+        {
+            shared = new PooledWebDriverFactory();
+        }
+
+        return shared;
+    }
+
+    /**
+     * Shut the shared factory down, the next call of {@link #shared()}
+     * creates a new one.
+     */
+    public static synchronized void shutdownShared()
+    {
+        if (shared != null)
+        {
+            shared.shutdown();
+            shared = null;
+        }
+    }
+
+    /**
+     * Limit the number of sessions per hub url and capabilities, leased or
+     * idle. Leases wait for a session to be released once the limit is
+     * reached. Unlimited by default.
+     */
+    public void setMaxSessions(int maxSessions)
+    {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Retire a session after the given number of leases, 100 by default.
+     */
+    public void setMaxUses(int maxUses)
+    {
+        this.maxUses = maxUses;
+    }
+
+    /**
+     * Retire a session once it is older than the given age, 30 minutes by
+     * default.
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit)
+    {
+        this.maxAgeMillis = unit.toMillis(maxAge);
+    }
+
+    /**
+     * Fail a lease which waited longer than the given time for a session to
+     * be released, 5 minutes by default.
+     */
+    public void setLeaseTimeout(long leaseTimeout, TimeUnit unit)
+    {
+        this.leaseTimeoutMillis = unit.toMillis(leaseTimeout);
+    }
+
+    /**
+     * Start sessions speculatively: the first lease of some hub url and
+     * capabilities warms up the given number of sessions concurrently, one of
+     * them for the lease itself. Disabled by default.
+     */
+    public void setPrewarmSessions(int prewarmSessions)
+    {
+        this.prewarmSessions = prewarmSessions;
+    }
+
+    /**
+     * Start sessions in the background until the given number of sessions
+     * with the hub url and capabilities is idle or warming up. Returns at
+     * once, leases wait for the sessions still warming up rather than
+     * starting more.
+     *
+     * @param remoteHubUrl
+     *            - Selenium GRID url, null for local drivers
+     * @param caps
+     *            - desired browser capabilities, the same leases use
+     * @param sessions
+     *            - number of warm sessions
+     */
+    public void prewarm(URL remoteHubUrl, DesiredCapabilities caps, int sessions)
+    {
+        Pool pool = pool(new PoolKey(remoteHubUrl, caps));
+
+        synchronized (pool)
+        {
+            pool.prewarmed = true;
+        }
+
+        warmUp(pool, remoteHubUrl, caps, sessions);
+    }
+
+    private void warmUp(Pool pool, URL remoteHubUrl, DesiredCapabilities caps, int sessions)
+    {
+        int count;
+
+        synchronized (pool)
+        {
+            count = Math.min(sessions - pool.idle.size() - pool.warming, maxSessions - pool.total);
+
+            if (count <= 0)
+            {
+                return;
+            }
+
+            pool.total += count;
+            pool.warming += count;
+        }
+
+        LOGGER.info("Warming up " + count + " sessions for " + pool.key);
+
+        for (int i = 0; i < count; i++)
+        {
+            Thread thread = new Thread(new WarmUp(pool, remoteHubUrl, caps),
+                    "oldmonk-warm-up-" + WARM_UP_THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Lease a local driver with the given capabilities.
+     */
+    @Override
+    public WebDriver createDriver(DesiredCapabilities caps)
+    {
+        try
+        {
+            return lease(null, caps);
+        } catch (MalformedURLException e)
+        {
+            throw new WebDriverException(e);
+        }
+    }
+
+    /**
+     * Lease a remote driver with the given capabilities.
+     */
+    @Override
+    public WebDriver createDriver(URL remoteHubUrl, DesiredCapabilities caps) throws MalformedURLException
+    {
+        return lease(remoteHubUrl, caps);
+    }
+
+    private WebDriver lease(URL remoteHubUrl, DesiredCapabilities caps) throws MalformedURLException
+    {
+        Pool pool = pool(new PoolKey(remoteHubUrl, caps));
+        long start = System.nanoTime();
+
+        if (prewarmSessions > 0)
+        {
+            boolean first;
+
+            synchronized (pool)
+            {
+                first = !pool.prewarmed;
+                pool.prewarmed = true;
+            }
+
+            if (first)
+            {
+                warmUp(pool, remoteHubUrl, caps, prewarmSessions);
+            }
+        }
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+
+        while (true)
+        {
+            PooledSession session;
+            boolean reserved = false;
+
+            synchronized (pool)
+            {
+                session = pool.idle.pollFirst();
+
+                if (session == null && pool.warming <= pool.waiting && pool.total < maxSessions)
+                {
+                    pool.total++;
+                    reserved = true;
+                } else if (session == null)
+                {
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0)
+                    {
+                        throw new WebDriverException("No session available for " + pool.key + " after waiting "
+                                + leaseTimeoutMillis + " ms");
+                    }
+
+                    // Sessions warming up and not yet claimed by a waiting lease
+                    // come sooner than a new one
+                    pool.waiting++;
+
+                    try
+                    {
+                        TimeUnit.NANOSECONDS.timedWait(pool, remaining);
+                    } catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new WebDriverException("Interrupted while waiting for a session of " + pool.key, e);
+                    } finally
+                    {
+                        pool.waiting--;
+                    }
+                }
+            }
+
+            if (session != null && session.isExpired())
+            {
+                retire(session, "expired");
+                continue;
+            }
+
+            if (session != null)
+            {
+                hits.incrementAndGet();
+            } else if (reserved)
+            {
+                misses.incrementAndGet();
+                session = start(pool, remoteHubUrl, caps);
+            } else
+            {
+                continue;
+            }
+
+            recordLeaseWait(System.nanoTime() - start);
+
+            synchronized (leased)
+            {
+                leased.put(session.driver, session);
+            }
+
+            DriverRegistry.register(session.driver);
+
+            return session.driver;
+        }
+    }
+
+    private PooledSession start(Pool pool, URL remoteHubUrl, DesiredCapabilities caps) throws MalformedURLException
+    {
+        boolean started = false;
+
+        try
+        {
+            WebDriver driver = remoteHubUrl == null ? delegate.createDriver(caps)
+                    : delegate.createDriver(remoteHubUrl, caps);
+
+            if (driver == null)
+            {
+                throw new WebDriverException("Unable to create a driver for " + pool.key);
+            }
+
+            started = true;
+            LOGGER.info("Started pooled session for " + pool.key);
+
+            return new PooledSession(pool, driver);
+        } finally
+        {
+            if (!started)
+            {
+                synchronized (pool)
+                {
+                    pool.total--;
+                    pool.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Give a leased driver back to the pool. Drivers not leased from this
+     * factory are quit.
+     *
+     * @param driver
+     *            - driver leased by {@link #createDriver(DesiredCapabilities)}
+     *            or {@link #createDriver(URL, DesiredCapabilities)}
+     */
+    public void release(WebDriver driver)
+    {
+        PooledSession session;
+
+        synchronized (leased)
+        {
+            session = leased.remove(driver);
+        }
+
+        DriverRegistry.unregister(driver);
+
+        if (session == null)
+        {
+            LOGGER.warn("Driver was not leased from this pool, quitting it");
+            quit(driver);
+            return;
+        }
+
+        session.uses++;
+
+        if (isShutdown())
+        {
+            retire(session, "pool shut down");
+            return;
+        }
+
+        if (session.uses >= maxUses || session.isExpired())
+        {
+            retire(session, "used " + session.uses + " times");
+            return;
+        }
+
+        try
+        {
+            reset(driver);
+        } catch (RuntimeException e)
+        {
+            // Not only WebDriver errors, e.g. when every window was closed
+            retire(session, "reset failed: " + e);
+            return;
+        }
+
+        synchronized (session.pool)
+        {
+            session.pool.idle.addFirst(session);
+            session.pool.notifyAll();
+        }
+    }
+
+    /**
+     * Reset a session for the next lease.
+     */
+    private static void reset(WebDriver driver)
+    {
+        List<String> handles = new ArrayList<String>(driver.getWindowHandles());
+
+        if (handles.isEmpty())
+        {
+            throw new WebDriverException("All windows of the session were closed");
+        }
+
+        String keep = handles.get(0);
+
+        for (String handle : handles.subList(1, handles.size()))
+        {
+            driver.switchTo().window(handle);
+            driver.close();
+        }
+
+        driver.switchTo().window(keep);
+        driver.switchTo().defaultContent();
+
+        if (driver instanceof JavascriptExecutor)
+        {
+            ((JavascriptExecutor) driver).executeScript(CLEAR_STORAGE);
+        }
+
+        driver.manage().deleteAllCookies();
+        driver.get("about:blank");
+    }
+
+    private void retire(PooledSession session, String reason)
+    {
+        LOGGER.info("Retiring pooled session of " + session.pool.key + ", " + reason);
+        retired.incrementAndGet();
+
+        synchronized (session.pool)
+        {
+            session.pool.idle.remove(session);
+            session.pool.total--;
+            session.pool.notifyAll();
+        }
+
+        quit(session.driver);
+    }
+
+    private static void quit(WebDriver driver)
+    {
+        DriverRegistry.quit(driver);
+    }
+
+    /**
+     * Quit all idle sessions. Sessions still leased are quit when released.
+     */
+    public void shutdown()
+    {
+        List<PooledSession> idle = new ArrayList<PooledSession>();
+
+        synchronized (pools)
+        {
+            shutdown = true;
+
+            for (Pool pool : pools.values())
+            {
+                synchronized (pool)
+                {
+                    idle.addAll(pool.idle);
+                }
+            }
+        }
+
+        for (PooledSession session : idle)
+        {
+            retire(session, "pool shut down");
+        }
+    }
+
+    private boolean isShutdown()
+    {
+        synchronized (pools)
+        {
+            return shutdown;
+        }
+    }
+
+    private Pool pool(PoolKey key)
+    {
+        synchronized (pools)
+        {
+            if (shutdown)
+            {
+                throw new IllegalStateException("Driver pool is shut down");
+            }
+
+            Pool pool = pools.get(key);
+
+            if (pool == null)
+            {
+                pool = new Pool(key);
+                pools.put(key, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    private void recordLeaseWait(long nanos)
+    {
+        leaseWaitNanos.addAndGet(nanos);
+
+        long max = maxLeaseWaitNanos.get();
+        while (nanos > max && !maxLeaseWaitNanos.compareAndSet(max, nanos))
+        {
+            max = maxLeaseWaitNanos.get();
+        }
+    }
+
+    /**
+     * @return - leases served by a warm session
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return - leases which had to start a new session
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return - sessions started ahead of their lease
+     */
+    public long getWarmedUp()
+    {
+        return warmedUp.get();
+    }
+
+    /**
+     * @return - failed attempts to start a session ahead of its lease
+     */
+    public long getWarmUpFailures()
+    {
+        return warmUpFailures.get();
+    }
+
+    /**
+     * @return - sessions quit because of their age, use count, a failed reset
+     *         or shut down
+     */
+    public long getRetired()
+    {
+        return retired.get();
+    }
+
+    /**
+     * @return - average time a lease took, including starting new sessions
+     */
+    public long getAverageLeaseWaitMillis()
+    {
+        long leases = hits.get() + misses.get();
+        return leases == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(leaseWaitNanos.get() / leases);
+    }
+
+    public long getMaxLeaseWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxLeaseWaitNanos.get());
+    }
+
+    /**
+     * @return - number of sessions leased right now
+     */
+    public int getLeasedCount()
+    {
+        synchronized (leased)
+        {
+            return leased.size();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+                "driver pool: %d hits, %d misses, %d warmed up, %d warm-up failures, %d retired, %d leased,"
+                        + " lease wait avg %d ms, max %d ms",
+                getHits(), getMisses(), getWarmedUp(), getWarmUpFailures(), getRetired(), getLeasedCount(),
+                getAverageLeaseWaitMillis(), getMaxLeaseWaitMillis());
+    }
+
+    /**
+     * Sessions of the same hub url and capabilities.
+     */
+    private static final class Pool
+    {
+        private final PoolKey              key;
+        private final Deque<PooledSession> idle = new ArrayDeque<PooledSession>();
+        private int                        total;
+
+        /*
+         * Sessions starting in the background, included in the total
+         */
+        private int                        warming;
+
+        /*
+         * Leases waiting for a session
+         */
+        private int                        waiting;
+        private boolean                    prewarmed;
+
+        Pool(PoolKey key)
+        {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Starts a session in the background and adds it to the idle sessions,
+     * retrying a failed start with a growing delay.
+     */
+    private final class WarmUp implements Runnable
+    {
+        private final Pool                pool;
+        private final URL                 remoteHubUrl;
+        private final DesiredCapabilities caps;
+
+        WarmUp(Pool pool, URL remoteHubUrl, DesiredCapabilities caps)
+        {
+            this.pool = pool;
+            this.remoteHubUrl = remoteHubUrl;
+            this.caps = caps;
+        }
+
+        @Override
+        public void run()
+        {
+            for (int attempt = 1; attempt <= WARM_UP_ATTEMPTS && !isShutdown(); attempt++)
+            {
+                try
+                {
+                    WebDriver driver = remoteHubUrl == null ? delegate.createDriver(caps)
+                            : delegate.createDriver(remoteHubUrl, caps);
+
+                    if (driver == null)
+                    {
+                        throw new WebDriverException("Unable to create a driver for " + pool.key);
+                    }
+
+                    // Registered for the warm-up thread by the delegate
+                    DriverRegistry.unregister(driver);
+                    warmedUp.incrementAndGet();
+                    LOGGER.info("Warmed up pooled session for " + pool.key);
+
+                    if (!addIdle(new PooledSession(pool, driver)))
+                    {
+                        quit(driver);
+                    }
+
+                    return;
+                } catch (MalformedURLException | RuntimeException e)
+                {
+                    warmUpFailures.incrementAndGet();
+                    LOGGER.warn("Warming up a session for " + pool.key + " failed, attempt " + attempt + " of "
+                            + WARM_UP_ATTEMPTS + ": " + e.getMessage());
+                }
+
+                try
+                {
+                    Thread.sleep(WARM_UP_BACKOFF * attempt);
+                } catch (InterruptedException e)
+                {
+                    break;
+                }
+            }
+
+            synchronized (pool)
+            {
+                pool.warming--;
+                pool.total--;
+                pool.notifyAll();
+            }
+        }
+
+        /**
+         * Add the warm session to the idle sessions, unless the pool was shut
+         * down meanwhile.
+         */
+        private boolean addIdle(PooledSession session)
+        {
+            synchronized (pools)
+            {
+                synchronized (pool)
+                {
+                    pool.warming--;
+
+                    if (shutdown)
+                    {
+                        pool.total--;
+                        pool.notifyAll();
+                        return false;
+                    }
+
+                    pool.idle.addLast(session);
+                    pool.notifyAll();
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final class PooledSession
+    {
+        private final Pool      pool;
+        private final WebDriver driver;
+        private final long      created = System.currentTimeMillis();
+        private int             uses;
+
+        PooledSession(Pool pool, WebDriver driver)
+        {
+            this.pool = pool;
+            this.driver = driver;
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() - created >= maxAgeMillis;
+        }
+    }
+
+    /**
+     * Hub url and capabilities in a form compared by value. Capabilities are
+     * usually built anew for every lease, and some values, such as a Proxy
+     * or a FirefoxProfile, do not implement equals. A Proxy is compared by its
+     * settings, other values without equals by their string form if they
+     * have one, else by their type only. Sessions with different Firefox
+     * profiles therefore share a pool, use one factory per profile to keep
+     * them apart.
+     */
+    private static final class PoolKey
+    {
+        private final String              hub;
+        private final Map<String, Object> capabilities = new TreeMap<String, Object>();
+
+        PoolKey(URL remoteHubUrl, DesiredCapabilities caps)
+        {
+            this.hub = remoteHubUrl == null ? null : remoteHubUrl.toExternalForm();
+
+            for (Map.Entry<String, ?> capability : caps.asMap().entrySet())
+            {
+                capabilities.put(capability.getKey(), comparable(capability.getValue()));
+            }
+        }
+
+        private static Object comparable(Object value)
+        {
+            if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Character)
+            {
+                return value;
+            }
+
+            if (value instanceof Enum)
+            {
+                return ((Enum<?>) value).name();
+            }
+
+            if (value instanceof Map)
+            {
+                Map<String, Object> map = new TreeMap<String, Object>();
+
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                {
+                    map.put(String.valueOf(entry.getKey()), comparable(entry.getValue()));
+                }
+
+                return map;
+            }
+
+            if (value instanceof Collection || value instanceof Object[])
+            {
+                List<Object> list = new ArrayList<Object>();
+
+                for (Object element : value instanceof Object[] ? Arrays.asList((Object[]) value)
+                        : (Collection<?>) value)
+                {
+                    list.add(comparable(element));
+                }
+
+                return list;
+            }
+
+            if (value instanceof Proxy)
+            {
+                Proxy proxy = (Proxy) value;
+                return Arrays.<Object> asList(proxy.getProxyType(), proxy.isAutodetect(), proxy.getHttpProxy(),
+                        proxy.getSslProxy(), proxy.getFtpProxy(), proxy.getSocksProxy(), proxy.getSocksUsername(),
+                        proxy.getSocksPassword(), proxy.getNoProxy(), proxy.getProxyAutoconfigUrl());
+            }
+
+            try
+            {
+                Class<?> type = value.getClass();
+
+                if (type.getMethod("equals", Object.class).getDeclaringClass() != Object.class)
+                {
+                    return value;
+                }
+
+                if (type.getMethod("toString").getDeclaringClass() != Object.class)
+                {
+                    return type.getName() + ": " + value;
+                }
+            } catch (NoSuchMethodException e)
+            {
+                // Declared by every class
+            }
+
+            return value.getClass().getName();
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof PoolKey))
+            {
+                return false;
+            }
+
+            PoolKey key = (PoolKey) other;
+            return (hub == null ? key.hub == null : hub.equals(key.hub)) && capabilities.equals(key.capabilities);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (hub == null ? 0 : hub.hashCode()) * 31 + capabilities.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return (hub == null ? "local " : hub + " ") + capabilities;
+        }
+    }
+}
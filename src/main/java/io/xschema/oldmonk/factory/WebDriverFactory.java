@@ -10,18 +10,21 @@ import org.openqa.selenium.ie.InternetExplorerDriver;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.RemoteWebDriver;
 
+import io.xschema.oldmonk.core.DriverRegistry;
+
 /**
- * Create Selenium/WebDriver Factory.
+ * Create Selenium/WebDriver Factory. Created drivers are registered in the
+ * {@link DriverRegistry} for the calling thread.
  */
 public class WebDriverFactory implements DriverFactory
 {
-    private WebDriver driver;
-
     /**
-     * Create WebDriver instance based on the capabilities passed.
+     * Create WebDriver instance based on the capabilities passed. Safe to call
+     * from concurrent threads.
      */
     public WebDriver createDriver(DesiredCapabilities caps)
     {
+        WebDriver driver = null;
         String browser = caps.getBrowserName();
 
         if (browser.equalsIgnoreCase("firefox"))
@@ -35,6 +38,11 @@ public class WebDriverFactory implements DriverFactory
             driver = new ChromeDriver(caps);
         }
 
+        if (driver != null)
+        {
+            DriverRegistry.register(driver);
+        }
+
         return driver;
     }
 
@@ -43,7 +51,9 @@ public class WebDriverFactory implements DriverFactory
      */
     public WebDriver createDriver(URL remoteHubUrl, DesiredCapabilities caps) throws MalformedURLException
     {
-        driver = new RemoteWebDriver(remoteHubUrl, caps);
+        WebDriver driver = new RemoteWebDriver(remoteHubUrl, caps);
+        DriverRegistry.register(driver);
+
         return driver;
     }
 }
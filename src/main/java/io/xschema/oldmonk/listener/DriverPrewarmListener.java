@@ -0,0 +1,132 @@
+package io.xschema.oldmonk.listener;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.TestNGException;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import io.xschema.oldmonk.builder.WebCapabilitiesBuilder;
+import io.xschema.oldmonk.factory.PooledWebDriverFactory;
+
+/**
+ * Listener class to warm up browser sessions of the shared
+ * {@link PooledWebDriverFactory} as soon as the suite starts. The sessions are
+ * started in the background for the capabilities given by the suite
+ * parameters 'browser', 'version' and 'platform', on the hub given by
+ * 'prewarm.hub.url' or locally, so that tests leasing the same capabilities
+ * find a warm session instead of starting a browser each. Leases of other
+ * capabilities warm up the same number of sessions on their first lease. The
+ * shared factory is shut down at the end of the suite. This listener class
+ * must be included in testng.xml to warm up sessions.
+ * <p>
+ * The number of sessions follows the 'parallel' and 'thread-count' settings of
+ * the suite, and can be set by the suite parameter 'prewarm.sessions'.
+ */
+public class DriverPrewarmListener implements ISuiteListener
+{
+    private static final Logger LOGGER             = LoggerFactory.getLogger(DriverPrewarmListener.class.getName());
+
+    public static final String  SESSIONS_PARAMETER = "prewarm.sessions";
+    public static final String  HUB_URL_PARAMETER  = "prewarm.hub.url";
+    public static final String  BROWSER_PARAMETER  = "browser";
+    public static final String  VERSION_PARAMETER  = "version";
+    public static final String  PLATFORM_PARAMETER = "platform";
+
+    @Override
+    public void onStart(ISuite suite)
+    {
+        String parameter = suite.getParameter(SESSIONS_PARAMETER);
+        int sessions = parameter == null ? sessions(suite.getXmlSuite(), suite.getParallel()) : Integer.parseInt(parameter.trim());
+
+        PooledWebDriverFactory factory = PooledWebDriverFactory.shared();
+        factory.setPrewarmSessions(sessions);
+
+        String browser = suite.getParameter(BROWSER_PARAMETER);
+
+        if (browser == null)
+        {
+            LOGGER.info("Warming up " + sessions + " sessions per capabilities on first lease for suite "
+                    + suite.getName());
+            return;
+        }
+
+        WebCapabilitiesBuilder builder = new WebCapabilitiesBuilder().addBrowser(browser);
+
+        if (suite.getParameter(VERSION_PARAMETER) != null)
+        {
+            builder.addVersion(suite.getParameter(VERSION_PARAMETER));
+        }
+
+        if (suite.getParameter(PLATFORM_PARAMETER) != null)
+        {
+            builder.addPlatform(suite.getParameter(PLATFORM_PARAMETER));
+        }
+
+        String hub = suite.getParameter(HUB_URL_PARAMETER);
+        URL remoteHubUrl;
+
+        try
+        {
+            remoteHubUrl = hub == null ? null : new URL(hub);
+        } catch (MalformedURLException e)
+        {
+            throw new TestNGException("Invalid suite parameter '" + HUB_URL_PARAMETER + "': " + hub, e);
+        }
+
+        LOGGER.info("Warming up " + sessions + " " + browser + " sessions for suite " + suite.getName());
+        factory.prewarm(remoteHubUrl, builder.build(), sessions);
+    }
+
+    @Override
+    public void onFinish(ISuite suite)
+    {
+        LOGGER.info("Suite " + suite.getName() + " " + PooledWebDriverFactory.shared());
+        PooledWebDriverFactory.shutdownShared();
+    }
+
+    /**
+     * Number of tests the suite runs at the same time: one unless it runs in
+     * parallel, else the thread count, but no more than the tests or classes
+     * running in parallel. Tests run one after another when their classes run
+     * in parallel.
+     * 
+     * @param xmlSuite
+     *            - definition of the suite
+     * @param parallel
+     *            - parallel mode the suite runs in
+     */
+    static int sessions(XmlSuite xmlSuite, String parallel)
+    {
+        int threads = Math.max(1, xmlSuite.getThreadCount());
+
+        if (parallel == null || "none".equalsIgnoreCase(parallel) || "false".equalsIgnoreCase(parallel))
+        {
+            return 1;
+        }
+
+        if ("tests".equalsIgnoreCase(parallel))
+        {
+            return Math.max(1, Math.min(threads, xmlSuite.getTests().size()));
+        }
+
+        if ("classes".equalsIgnoreCase(parallel))
+        {
+            int classes = 0;
+
+            for (XmlTest test : xmlSuite.getTests())
+            {
+                classes = Math.max(classes, test.getClasses().size());
+            }
+
+            return Math.max(1, Math.min(threads, classes));
+        }
+
+        return threads;
+    }
+}
@@ -0,0 +1,45 @@
+package io.xschema.oldmonk.listener;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+import io.xschema.oldmonk.core.LocatorProfiler;
+
+/**
+ * Listener class to profile locator lookups during the suite. At the end of the
+ * suite, the slowest locators are written to 'slowest-locators.txt' inside the
+ * suite output directory. This listener class must be included in testng.xml
+ * to profile locators.
+ */
+public class LocatorProfilerListener implements ISuiteListener
+{
+    private static final Logger LOGGER      = LoggerFactory.getLogger(LocatorProfilerListener.class.getName());
+
+    public static final String  REPORT_FILE = "slowest-locators.txt";
+
+    @Override
+    public void onStart(ISuite suite)
+    {
+        LocatorProfiler.reset();
+        LocatorProfiler.setEnabled(true);
+    }
+
+    @Override
+    public void onFinish(ISuite suite)
+    {
+        LocatorProfiler.setEnabled(false);
+
+        try
+        {
+            LocatorProfiler.writeReport(new File(suite.getOutputDirectory(), REPORT_FILE));
+        } catch (IOException e)
+        {
+            LOGGER.debug("Error while writing locator profile: " + e.getMessage());
+        }
+    }
+}
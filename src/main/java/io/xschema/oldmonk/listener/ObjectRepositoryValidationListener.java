@@ -0,0 +1,63 @@
+package io.xschema.oldmonk.listener;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.TestNGException;
+
+import io.xschema.oldmonk.core.ObjectRepositoryValidator;
+import io.xschema.oldmonk.exception.ObjectRepositoryValidationException;
+import io.xschema.oldmonk.utils.ObjectRepository;
+
+/**
+ * Listener class to validate the object repository when the suite starts.
+ * Malformed locators abort the suite before any driver is created, with all
+ * problems listed in the error. The object repository directory is taken from
+ * the suite parameter 'object.repository.dir', or else from
+ * {@link ObjectRepository#setRepositoryDirectory(String)}. This listener class
+ * must be included in testng.xml to validate the object repository.
+ */
+public class ObjectRepositoryValidationListener implements ISuiteListener
+{
+    private static final Logger LOGGER                   = LoggerFactory
+            .getLogger(ObjectRepositoryValidationListener.class.getName());
+
+    public static final String  REPOSITORY_DIR_PARAMETER = "object.repository.dir";
+
+    @Override
+    public void onStart(ISuite suite)
+    {
+        String dir = suite.getParameter(REPOSITORY_DIR_PARAMETER);
+
+        if (dir == null)
+        {
+            dir = ObjectRepository.getRepositoryDirectory();
+        }
+
+        if (dir == null)
+        {
+            throw new TestNGException("Object repository directory is not set, add the suite parameter '"
+                    + REPOSITORY_DIR_PARAMETER + "' to testng.xml!");
+        }
+
+        try
+        {
+            ObjectRepositoryValidator.validate(new File(dir));
+        } catch (ObjectRepositoryValidationException e)
+        {
+            LOGGER.error(e.getMessage());
+            throw new TestNGException(e.getMessage(), e);
+        } catch (IOException e)
+        {
+            throw new TestNGException("Unable to validate object repository: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void onFinish(ISuite suite)
+    {}
+}
@@ -14,15 +14,22 @@ import java.util.Date;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.ITestResult;
 import org.testng.Reporter;
 import org.testng.TestListenerAdapter;
 
+import io.xschema.oldmonk.core.DriverRegistry;
+
 /**
  * Class responsible for taking screenshots in case of test failures. This
  * listener class must be included in testng.xml for taking failure screenshots.
+ * <p>
+ * The screenshot is taken with the driver registered for the thread of the
+ * failed test in the {@link DriverRegistry}, or else, e.g. when that driver
+ * was quit already, with the driver found in a field of the test class.
  */
 public class ScreenshotListener extends TestListenerAdapter
 {
@@ -49,17 +56,39 @@ public class ScreenshotListener extends TestListenerAdapter
     {
         super.onTestFailure(tr);
 
-        WebDriver webDriver = findWebDriverByReflection(tr);
+        WebDriver webDriver = DriverRegistry.current();
+
+        if (webDriver == null)
+        {
+            webDriver = findWebDriverByReflection(tr);
+        }
 
         if (webDriver == null)
         {
-            LOGGER.debug(String
-                    .format("The test class '%s' does not have any field of type 'org.openqa.selenium.WebDriver'. "
-                            + "ScreenshotTestListener can not continue.", tr.getTestClass().getName()));
+            LOGGER.debug(String.format(
+                    "No driver is registered for the test and the test class '%s' does not have any field of type "
+                            + "'org.openqa.selenium.WebDriver'. ScreenshotTestListener can not continue.",
+                    tr.getTestClass().getName()));
             return;
         }
 
-        File f = ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.FILE);
+        if (!(webDriver instanceof TakesScreenshot))
+        {
+            LOGGER.debug("Driver of test class '" + tr.getTestClass().getName() + "' can not take screenshots.");
+            return;
+        }
+
+        File f;
+
+        try
+        {
+            f = ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.FILE);
+        } catch (WebDriverException e)
+        {
+            // e.g. the driver was quit before the listener was called
+            LOGGER.debug("Error while taking failure screenshot:" + e.getMessage());
+            return;
+        }
 
         Format formatter = new SimpleDateFormat("dd_MMM_hh_mm_ss");
 
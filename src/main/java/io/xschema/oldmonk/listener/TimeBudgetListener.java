@@ -0,0 +1,154 @@
+package io.xschema.oldmonk.listener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestResult;
+
+import io.xschema.oldmonk.core.TimeBudget;
+
+/**
+ * Listener class to account the time of every test method. Waits and sleeps
+ * are charged to a budget per test, and at the end of the suite the wall time
+ * of every test, split into waiting, WebDriver commands and test logic, is
+ * written to 'time-budget.txt' inside the suite output directory, slowest
+ * first. This listener class must be included in testng.xml to account test
+ * time.
+ * <p>
+ * The budget is set in seconds by the parameter 'time.budget.seconds' of the
+ * suite or of a test. A test which waits longer fails, or only logs a warning
+ * if the parameter 'time.budget.action' is 'warn'. Test methods with a
+ * 'timeOut' run on a thread of their own and are not accounted.
+ */
+public class TimeBudgetListener implements IInvokedMethodListener, ISuiteListener
+{
+    private static final Logger     LOGGER           = LoggerFactory.getLogger(TimeBudgetListener.class.getName());
+
+    public static final String      REPORT_FILE      = "time-budget.txt";
+    public static final String      BUDGET_PARAMETER = "time.budget.seconds";
+    public static final String      ACTION_PARAMETER = "time.budget.action";
+
+    private final Queue<TimeBudget> finished         = new ConcurrentLinkedQueue<TimeBudget>();
+
+    @Override
+    public void onStart(ISuite suite)
+    {
+        finished.clear();
+    }
+
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult)
+    {
+        if (!method.isTestMethod())
+        {
+            return;
+        }
+
+        String budget = parameter(testResult, BUDGET_PARAMETER);
+        long budgetMillis = budget == null ? 0 : TimeUnit.SECONDS.toMillis(Long.parseLong(budget.trim()));
+
+        TimeBudget.start(testResult.getTestClass().getName() + "." + testResult.getMethod().getMethodName(),
+                budgetMillis);
+    }
+
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult)
+    {
+        if (!method.isTestMethod())
+        {
+            return;
+        }
+
+        TimeBudget budget = TimeBudget.finish();
+
+        if (budget == null)
+        {
+            return;
+        }
+
+        finished.add(budget);
+
+        if (!budget.isExceeded())
+        {
+            return;
+        }
+
+        String message = "Test waited " + budget.getWaitMillis() + " ms, exceeding its budget of "
+                + budget.getBudgetMillis() + " ms";
+
+        if ("warn".equalsIgnoreCase(parameter(testResult, ACTION_PARAMETER)))
+        {
+            LOGGER.warn(budget.getTestName() + ": " + message);
+        } else if (testResult.getStatus() == ITestResult.SUCCESS)
+        {
+            LOGGER.error(budget.getTestName() + ": " + message);
+
+            testResult.setStatus(ITestResult.FAILURE);
+            testResult.setThrowable(new AssertionError(message));
+        }
+    }
+
+    @Override
+    public void onFinish(ISuite suite)
+    {
+        List<TimeBudget> tests = new ArrayList<TimeBudget>(finished);
+
+        Collections.sort(tests, new Comparator<TimeBudget>()
+        {
+            @Override
+            public int compare(TimeBudget a, TimeBudget b)
+            {
+                return Long.compare(b.getWallMillis(), a.getWallMillis());
+            }
+        });
+
+        long wall = 0;
+        long waiting = 0;
+        long commands = 0;
+
+        for (TimeBudget test : tests)
+        {
+            wall += test.getWallMillis();
+            waiting += test.getWaitMillis();
+            commands += test.getCommandMillis();
+        }
+
+        File report = new File(suite.getOutputDirectory(), REPORT_FILE);
+        report.getAbsoluteFile().getParentFile().mkdirs();
+
+        try (PrintWriter out = new PrintWriter(report, "UTF-8"))
+        {
+            out.println(String.format("%d tests: wall %d ms, waiting %d ms, commands %d ms, logic %d ms",
+                    tests.size(), wall, waiting, commands, Math.max(0, wall - waiting - commands)));
+
+            for (TimeBudget test : tests)
+            {
+                out.println(test);
+            }
+
+            LOGGER.info("Time budget report written to '" + report + "'");
+        } catch (IOException e)
+        {
+            LOGGER.debug("Error while writing time budget report: " + e.getMessage());
+        }
+    }
+
+    private static String parameter(ITestResult testResult, String name)
+    {
+        return testResult.getTestContext().getCurrentXmlTest().getParameter(name);
+    }
+}
@@ -0,0 +1,110 @@
+package io.xschema.oldmonk.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe, size bounded cache which evicts the least recently used entry
+ * once the capacity is reached.
+ * 
+ * @param <K>
+ *            - key type
+ * @param <V>
+ *            - value type
+ */
+public class LruCache<K, V>
+{
+    private final LinkedHashMap<K, V> entries;
+    private int                       capacity;
+
+    public LruCache(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Cache capacity should be at least 1!");
+        }
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                return size() > LruCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cached value and mark it as most recently used.
+     * 
+     * @param key
+     *            - cache key
+     * @return - cached value or null if key is not cached
+     */
+    public synchronized V get(K key)
+    {
+        return entries.get(key);
+    }
+
+    /**
+     * Cache a value, evicting the least recently used entry if the cache is
+     * full.
+     * 
+     * @param key
+     *            - cache key
+     * @param value
+     *            - value to cache
+     */
+    public synchronized void put(K key, V value)
+    {
+        entries.put(key, value);
+    }
+
+    public synchronized V remove(K key)
+    {
+        return entries.remove(key);
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Change the capacity of the cache. Least recently used entries are
+     * evicted if the cache holds more entries than the new capacity.
+     * 
+     * @param capacity
+     *            - maximum number of entries
+     */
+    public synchronized void setCapacity(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Cache capacity should be at least 1!");
+        }
+
+        this.capacity = capacity;
+
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > capacity && keys.hasNext())
+        {
+            keys.next();
+            keys.remove();
+        }
+    }
+}
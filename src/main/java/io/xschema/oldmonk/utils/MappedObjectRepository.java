@@ -0,0 +1,172 @@
+package io.xschema.oldmonk.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read only view of a compiled object repository, see
+ * {@link ObjectRepositoryCompiler}. The file is memory mapped, so all JVMs
+ * using the same file share the same pages of the operating system page cache
+ * and locators are decoded only when they are looked up.
+ * <p>
+ * File layout (big endian):
+ * 
+ * <pre>
+ * header : magic, version, entry count, table size, table offset, pool offset, pool length
+ * table  : table size slots of (key hash, key offset, value offset), key offset -1 marks an empty slot
+ * pool   : strings stored as (byte length, UTF-8 bytes), offsets are relative to the pool
+ * </pre>
+ */
+final class MappedObjectRepository
+{
+    static final int               MAGIC       = 0x4F4D5250;
+    static final int               VERSION     = 1;
+    static final int               HEADER_SIZE = 7 * 4;
+    static final int               SLOT_SIZE   = 3 * 4;
+
+    private final File             file;
+    private final MappedByteBuffer buffer;
+    private final int              size;
+    private final int              tableSize;
+    private final int              tableOffset;
+    private final int              poolOffset;
+
+    private MappedObjectRepository(File file, MappedByteBuffer buffer) throws IOException
+    {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("'" + file + "' is not a compiled object repository!");
+        }
+
+        if (buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("Compiled object repository '" + file + "' has unsupported version "
+                    + buffer.getInt(4) + ", compile it again!");
+        }
+
+        this.size = buffer.getInt(8);
+        this.tableSize = buffer.getInt(12);
+        this.tableOffset = buffer.getInt(16);
+        this.poolOffset = buffer.getInt(20);
+
+        if (Integer.bitCount(tableSize) != 1 || (long) poolOffset + buffer.getInt(24) > buffer.capacity())
+        {
+            throw new IOException("Compiled object repository '" + file + "' is corrupt!");
+        }
+    }
+
+    /**
+     * Memory map a compiled object repository.
+     * 
+     * @param file
+     *            - compiled object repository
+     * @return - mapped repository
+     * @throws IOException
+     *             - throw this exception, if file can not be read or is not a
+     *             compiled object repository
+     */
+    static MappedObjectRepository open(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+        {
+            // The mapping stays valid after the channel is closed
+            return new MappedObjectRepository(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    static int hash(String name)
+    {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Look up a locator.
+     * 
+     * @param name
+     *            - locator name
+     * @return - locator value or null if not present
+     */
+    String get(String name)
+    {
+        int hash = hash(name);
+        byte[] key = null;
+        int mask = tableSize - 1;
+
+        for (int i = hash & mask;; i = (i + 1) & mask)
+        {
+            int slot = tableOffset + i * SLOT_SIZE;
+            int keyOffset = buffer.getInt(slot + 4);
+
+            if (keyOffset < 0)
+            {
+                return null;
+            }
+
+            if (buffer.getInt(slot) == hash)
+            {
+                if (key == null)
+                {
+                    key = name.getBytes(StandardCharsets.UTF_8);
+                }
+
+                if (matches(keyOffset, key))
+                {
+                    return readString(buffer.getInt(slot + 8));
+                }
+            }
+        }
+    }
+
+    private boolean matches(int offset, byte[] key)
+    {
+        int position = poolOffset + offset;
+
+        if (buffer.getInt(position) != key.length)
+        {
+            return false;
+        }
+
+        position += 4;
+        for (int i = 0; i < key.length; i++)
+        {
+            if (buffer.get(position + i) != key[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String readString(int offset)
+    {
+        int position = poolOffset + offset;
+        byte[] bytes = new byte[buffer.getInt(position)];
+
+        position += 4;
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buffer.get(position + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+}
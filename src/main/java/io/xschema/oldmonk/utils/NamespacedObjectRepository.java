@@ -0,0 +1,134 @@
+package io.xschema.oldmonk.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Object repository where every locator file is a namespace, e.g. the locators
+ * of login.properties are looked up as login.username, login.password etc. A
+ * locator file is loaded the first time a locator of its namespace is looked
+ * up. When several threads look up the same namespace at once, the file is
+ * loaded by one thread while the others wait for it.
+ */
+final class NamespacedObjectRepository
+{
+    private final File                                          dir;
+
+    private volatile Map<String, File>                          namespaces;
+    private final ConcurrentMap<String, FutureTask<Properties>> loaded = new ConcurrentHashMap<String, FutureTask<Properties>>();
+
+    NamespacedObjectRepository(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * Look up a locator, loading its namespace if needed. The longest
+     * namespace matching the locator name wins, so login.page.username is
+     * looked up in login.page.properties before login.properties.
+     * 
+     * @param name
+     *            - locator name qualified with its namespace
+     * @return - locator value or null if not present
+     * @throws IOException
+     *             - throw this exception, if the locator file of the namespace
+     *             can not be loaded
+     */
+    String get(String name) throws IOException
+    {
+        Map<String, File> available = namespaces();
+
+        for (int dot = name.lastIndexOf('.'); dot > 0; dot = name.lastIndexOf('.', dot - 1))
+        {
+            String namespace = name.substring(0, dot);
+            File f = available.get(namespace);
+
+            if (f != null)
+            {
+                Properties locators = load(namespace, f);
+                String value = locators.getProperty(name.substring(dot + 1));
+
+                // Locator files may also declare the qualified name
+                return value != null ? value : locators.getProperty(name);
+            }
+        }
+
+        return null;
+    }
+
+    private Map<String, File> namespaces() throws IOException
+    {
+        Map<String, File> available = namespaces;
+
+        if (available == null)
+        {
+            synchronized (this)
+            {
+                if (namespaces == null)
+                {
+                    Map<String, File> found = new HashMap<String, File>();
+
+                    for (File f : ObjectRepository.listLocatorFiles(dir))
+                    {
+                        String fileName = f.getName();
+                        found.put(fileName.substring(0, fileName.length() - ".properties".length()), f);
+                    }
+
+                    namespaces = Collections.unmodifiableMap(found);
+                }
+
+                available = namespaces;
+            }
+        }
+
+        return available;
+    }
+
+    private Properties load(String namespace, final File f) throws IOException
+    {
+        FutureTask<Properties> task = loaded.get(namespace);
+
+        if (task == null)
+        {
+            FutureTask<Properties> newTask = new FutureTask<Properties>(new Callable<Properties>()
+            {
+                @Override
+                public Properties call() throws IOException
+                {
+                    return ObjectRepository.load(f);
+                }
+            });
+
+            task = loaded.putIfAbsent(namespace, newTask);
+
+            if (task == null)
+            {
+                task = newTask;
+                task.run();
+            }
+        }
+
+        try
+        {
+            return task.get();
+        } catch (ExecutionException e)
+        {
+            // Allow the next lookup to try again
+            loaded.remove(namespace, task);
+            throw new IOException("Unable to load namespace '" + namespace + "'!", e.getCause());
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading namespace '" + namespace + "'!", e);
+        }
+    }
+}
@@ -1,67 +1,703 @@
 package io.xschema.oldmonk.utils;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Load all properties file which contain element locators.
+ * Load all properties file which contain element locators. Locators are
+ * published as an immutable snapshot. When hot reload is enabled, the
+ * repository directory is watched for changes, only the changed files are
+ * parsed again and a new snapshot replaces the old one atomically, so readers
+ * never block and never see a partially loaded repository. Alternatively, a
+ * repository compiled by {@link ObjectRepositoryCompiler} can be memory mapped,
+ * in which case locators are looked up on demand and no locator file is parsed.
+ * Or every locator file can be treated as a namespace which is loaded the
+ * first time one of its locators is looked up.
  */
 public class ObjectRepository
 {
-    private static final Logger LOGGER   = LoggerFactory.getLogger(ProjectConfigurator.class);
+    private static final Logger                         LOGGER          = LoggerFactory
+            .getLogger(ObjectRepository.class);
+
+    /*
+     * Time to wait for further file system events before reloading, so that a
+     * file being saved in several writes is parsed only once.
+     */
+    private static final long                           RELOAD_DELAY_MS = 200;
+
+    private static final Object                         LOCK            = new Object();
+
+    private static volatile Properties                  props;
+
+    /*
+     * Locators of every loaded file, in load order. Guarded by LOCK.
+     */
+    private static final Map<String, Properties>        files           = new LinkedHashMap<String, Properties>();
+
+    private static final List<RepositoryChangeListener> listeners       = new CopyOnWriteArrayList<RepositoryChangeListener>();
 
-    private static Properties   props    = new Properties();
-    private static boolean      isLoaded = false;
+    private static WatchService                         watchService;
+
+    private static String                               compiledRepositoryFile;
+    private static volatile MappedObjectRepository      mapped;
+
+    private static boolean                              loadNamespacesOnDemand;
+    private static volatile NamespacedObjectRepository  namespaced;
 
     /*
      * All files ending with '.properties' or '.PROPERTIES' present in specified
      * directory will be treated as locator files.
      */
-    private static String       objectRepositoryDirectory;
+    private static String                               objectRepositoryDirectory;
 
     public static void setRepositoryDirectory(String objectRepositoryDir)
     {
         objectRepositoryDirectory = objectRepositoryDir;
     }
 
+    public static String getRepositoryDirectory()
+    {
+        return objectRepositoryDirectory;
+    }
+
     /**
-     * Load all locator files
+     * Use a compiled object repository instead of the locator files of the
+     * repository directory.
      * 
-     * @return - Properties containing all locators in name/value pair
+     * @param compiledRepository
+     *            - file created by {@link ObjectRepositoryCompiler}
+     */
+    public static void setCompiledRepository(String compiledRepository)
+    {
+        compiledRepositoryFile = compiledRepository;
+    }
+
+    /**
+     * Treat every locator file as a namespace, which is loaded the first time
+     * one of its locators is looked up. Locators are then referred to by their
+     * qualified name, e.g. the locator 'username' of login.properties is
+     * 'login.username'. Useful for small runs which touch only a few pages of
+     * a large object repository.
+     * 
+     * @param onDemand
+     *            - true to load namespaces on demand
+     */
+    public static void setLoadNamespacesOnDemand(boolean onDemand)
+    {
+        loadNamespacesOnDemand = onDemand;
+    }
+
+    /**
+     * Return whether locators are looked up on demand through
+     * {@link #getLocator(String)} instead of being loaded up front by
+     * {@link #initialize()}.
+     * 
+     * @return - true if a compiled object repository is used or namespaces
+     *         are loaded on demand
+     */
+    public static boolean isLoadedOnDemand()
+    {
+        return compiledRepositoryFile != null || loadNamespacesOnDemand;
+    }
+
+    /**
+     * Look up a single locator.
+     * 
+     * @param name
+     *            - locator name
+     * @return - locator value or null if the locator is not present
+     * @throws IOException
+     *             - throw this exception, if object repository can not be
+     *             loaded
+     */
+    public static String getLocator(String name) throws IOException
+    {
+        if (compiledRepositoryFile != null)
+        {
+            return mapped().get(name);
+        }
+
+        if (loadNamespacesOnDemand)
+        {
+            return namespaced().get(name);
+        }
+
+        return initialize().getProperty(name);
+    }
+
+    private static NamespacedObjectRepository namespaced()
+    {
+        NamespacedObjectRepository repository = namespaced;
+
+        if (repository != null)
+        {
+            return repository;
+        }
+
+        synchronized (LOCK)
+        {
+            if (namespaced == null)
+            {
+                namespaced = new NamespacedObjectRepository(new File(objectRepositoryDirectory));
+            }
+
+            return namespaced;
+        }
+    }
+
+    private static MappedObjectRepository mapped() throws IOException
+    {
+        MappedObjectRepository repository = mapped;
+
+        if (repository != null)
+        {
+            return repository;
+        }
+
+        synchronized (LOCK)
+        {
+            if (mapped == null)
+            {
+                mapped = MappedObjectRepository.open(new File(compiledRepositoryFile));
+                LOGGER.info("Mapped compiled object repository '" + compiledRepositoryFile + "' with "
+                        + mapped.size() + " locators");
+            }
+
+            return mapped;
+        }
+    }
+
+    /**
+     * Load all locator files. When a compiled object repository is used, it is
+     * mapped instead, and when namespaces are loaded on demand, nothing is
+     * loaded. In both cases the returned properties are empty, locators are
+     * then available through {@link #getLocator(String)}.
+     * 
+     * @return - read only properties containing all locators in name/value
+     *         pair
      * @throws IOException
      *             - throw this exception, if locator files are not found
      */
     public static Properties initialize() throws IOException
     {
-        if (!isLoaded)
+        Properties snapshot = props;
+
+        if (snapshot != null)
         {
-            File objRepositoryDir = new File(objectRepositoryDirectory);
+            return snapshot;
+        }
 
-            File[] locatorFiles = objRepositoryDir.listFiles();
-            for (File f : locatorFiles)
+        if (compiledRepositoryFile != null)
+        {
+            mapped();
+        }
+
+        synchronized (LOCK)
+        {
+            if (props == null)
             {
-                if (f.getName().endsWith(".properties") || f.getName().endsWith(".PROPERTIES"))
+                if (isLoadedOnDemand())
                 {
-                    LOGGER.info("Loading locator file: " + f.getName());
+                    props = merge(files.values());
+                    return props;
+                }
 
-                    try
+                for (File f : listLocatorFiles())
+                {
+                    files.put(f.getName(), load(f));
+                }
+
+                props = merge(files.values());
+            }
+
+            return props;
+        }
+    }
+
+    /**
+     * Register a listener which is notified whenever a new snapshot of the
+     * object repository is published.
+     * 
+     * @param listener
+     *            - repository change listener
+     */
+    public static void addChangeListener(RepositoryChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public static void removeChangeListener(RepositoryChangeListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Watch the object repository directory and reload locator files as soon
+     * as they are created, modified or deleted. Useful for long running suites,
+     * where locators can be fixed without restarting the JVM.
+     * 
+     * @throws IOException
+     *             - throw this exception, if the directory can not be watched
+     */
+    public static void enableHotReload() throws IOException
+    {
+        if (isLoadedOnDemand())
+        {
+            throw new IllegalStateException("Hot reload is not supported when locators are loaded on demand!");
+        }
+
+        initialize();
+
+        synchronized (LOCK)
+        {
+            if (watchService != null)
+            {
+                return;
+            }
+
+            final Path dir = new File(objectRepositoryDirectory).toPath();
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+            Thread watcher = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    watch(service);
+                }
+            }, "object-repository-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+
+            watchService = service;
+
+            LOGGER.info("Watching object repository directory '" + dir + "' for changes");
+        }
+    }
+
+    /**
+     * Stop watching the object repository directory.
+     */
+    public static void disableHotReload()
+    {
+        synchronized (LOCK)
+        {
+            if (watchService == null)
+            {
+                return;
+            }
+
+            try
+            {
+                watchService.close();
+            } catch (IOException e)
+            {
+                LOGGER.warn("Unable to close object repository watcher: " + e.getMessage());
+            }
+
+            watchService = null;
+        }
+    }
+
+    private static void watch(WatchService service)
+    {
+        try
+        {
+            while (true)
+            {
+                Set<String> changed = new LinkedHashSet<String>();
+
+                WatchKey key = service.take();
+                boolean overflow = collect(key, changed);
+
+                // Wait for the burst of events of a single save to settle
+                while ((key = service.poll(RELOAD_DELAY_MS, TimeUnit.MILLISECONDS)) != null)
+                {
+                    overflow |= collect(key, changed);
+                }
+
+                if (overflow)
+                {
+                    changed.clear();
+                    for (File f : listLocatorFiles())
                     {
-                        props.load(new FileInputStream(f));
-                    } catch (IOException e)
+                        changed.add(f.getName());
+                    }
+                    synchronized (LOCK)
+                    {
+                        changed.addAll(files.keySet());
+                    }
+                }
+
+                if (!changed.isEmpty())
+                {
+                    reload(changed);
+                }
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e)
+        {
+            // Hot reload was disabled
+        } catch (IOException e)
+        {
+            LOGGER.error("Stopped watching object repository: " + e.getMessage());
+        }
+    }
+
+    private static boolean collect(WatchKey key, Set<String> changed)
+    {
+        boolean overflow = false;
+
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW)
+            {
+                overflow = true;
+                continue;
+            }
+
+            String name = ((Path) event.context()).getFileName().toString();
+            if (isLocatorFile(name))
+            {
+                changed.add(name);
+            }
+        }
+
+        key.reset();
+
+        return overflow;
+    }
+
+    /**
+     * Parse changed files again and publish a new snapshot. A file which can
+     * not be parsed keeps its previously loaded locators.
+     */
+    private static void reload(Set<String> changed)
+    {
+        Properties snapshot;
+
+        synchronized (LOCK)
+        {
+            for (String name : changed)
+            {
+                File f = new File(objectRepositoryDirectory, name);
+
+                if (!f.isFile())
+                {
+                    if (files.remove(name) != null)
                     {
-                        throw new IOException("Unable to load properties file " + f.getName() + "!");
+                        LOGGER.info("Unloaded deleted locator file: " + name);
                     }
+                    continue;
                 }
 
-                isLoaded = true;
+                try
+                {
+                    files.put(name, load(f));
+                } catch (IOException e)
+                {
+                    LOGGER.error(e.getMessage() + " Keeping previously loaded locators.");
+                }
             }
+
+            snapshot = merge(files.values());
+            props = snapshot;
+        }
+
+        LOGGER.info("Reloaded object repository, " + snapshot.size() + " locators");
+
+        for (RepositoryChangeListener listener : listeners)
+        {
+            listener.repositoryChanged(snapshot);
+        }
+    }
+
+    /**
+     * Load and merge all locator files of an object repository directory,
+     * independent of the configured object repository.
+     * 
+     * @param repositoryDir
+     *            - directory containing locator files
+     * @return - read only properties containing all locators in name/value
+     *         pair
+     * @throws IOException
+     *             - throw this exception, if locator files can not be read
+     */
+    public static Properties loadRepository(File repositoryDir) throws IOException
+    {
+        List<Properties> locatorFiles = new ArrayList<Properties>();
+
+        for (File f : listLocatorFiles(repositoryDir))
+        {
+            locatorFiles.add(load(f));
         }
 
-        return props;
+        return merge(locatorFiles);
+    }
+
+    private static File[] listLocatorFiles() throws IOException
+    {
+        return listLocatorFiles(new File(objectRepositoryDirectory));
+    }
+
+    /**
+     * List the locator files of an object repository directory.
+     * 
+     * @param objRepositoryDir
+     *            - directory containing locator files
+     * @return - locator files, in no particular order
+     * @throws IOException
+     *             - throw this exception, if the directory does not exist
+     */
+    public static File[] listLocatorFiles(File objRepositoryDir) throws IOException
+    {
+        File[] locatorFiles = objRepositoryDir.listFiles();
+        if (locatorFiles == null)
+        {
+            throw new IOException("Object repository directory '" + objRepositoryDir + "' not found!");
+        }
+
+        int count = 0;
+        for (File f : locatorFiles)
+        {
+            if (isLocatorFile(f.getName()))
+            {
+                locatorFiles[count++] = f;
+            }
+        }
+
+        File[] result = new File[count];
+        System.arraycopy(locatorFiles, 0, result, 0, count);
+
+        return result;
+    }
+
+    private static boolean isLocatorFile(String name)
+    {
+        return name.endsWith(".properties") || name.endsWith(".PROPERTIES");
+    }
+
+    /**
+     * Load a single locator file.
+     * 
+     * @param f
+     *            - locator file
+     * @return - locators of the file in name/value pair
+     * @throws IOException
+     *             - throw this exception, if the file can not be read
+     */
+    public static Properties load(File f) throws IOException
+    {
+        LOGGER.info("Loading locator file: " + f.getName());
+
+        Properties locators = new Properties();
+
+        try (InputStream in = new FileInputStream(f))
+        {
+            locators.load(in);
+        } catch (IOException e)
+        {
+            throw new IOException("Unable to load properties file " + f.getName() + "!");
+        }
+
+        return locators;
+    }
+
+    static Properties merge(Collection<Properties> locatorFiles)
+    {
+        Snapshot snapshot = new Snapshot();
+
+        for (Properties locators : locatorFiles)
+        {
+            for (String name : locators.stringPropertyNames())
+            {
+                snapshot.add(name, locators.getProperty(name));
+            }
+        }
+
+        snapshot.freeze();
+
+        return snapshot;
+    }
+
+    /**
+     * Properties which can not be modified once published. Besides the
+     * mutators of Properties, the ones added by Java 8 and removals through
+     * the key, value and entry views are rejected. The source level is Java 7,
+     * so the Java 8 methods are overridden without annotation. They are never
+     * called on a Java 7 runtime.
+     */
+    private static final class Snapshot extends Properties
+    {
+        private static final long              serialVersionUID = 1L;
+
+        private boolean                        frozen;
+        private Set<Map.Entry<Object, Object>> readOnlyEntries;
+
+        void add(String name, String value)
+        {
+            super.put(name, value);
+        }
+
+        void freeze()
+        {
+            // Unlike an unmodifiable set, the entries of an unmodifiable map
+            // reject setValue as well
+            readOnlyEntries = Collections.unmodifiableMap(new AbstractMap<Object, Object>()
+            {
+                @Override
+                public Set<Map.Entry<Object, Object>> entrySet()
+                {
+                    return Snapshot.super.entrySet();
+                }
+            }).entrySet();
+
+            frozen = true;
+        }
+
+        @Override
+        public synchronized Object put(Object key, Object value)
+        {
+            checkNotFrozen();
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized Object remove(Object key)
+        {
+            checkNotFrozen();
+            return super.remove(key);
+        }
+
+        @Override
+        public synchronized void putAll(Map<?, ?> t)
+        {
+            checkNotFrozen();
+            super.putAll(t);
+        }
+
+        @Override
+        public synchronized void clear()
+        {
+            checkNotFrozen();
+            super.clear();
+        }
+
+        public synchronized Object putIfAbsent(Object key, Object value)
+        {
+            checkNotFrozen();
+            return super.putIfAbsent(key, value);
+        }
+
+        public synchronized boolean remove(Object key, Object value)
+        {
+            checkNotFrozen();
+            return super.remove(key, value);
+        }
+
+        public synchronized Object replace(Object key, Object value)
+        {
+            checkNotFrozen();
+            return super.replace(key, value);
+        }
+
+        public synchronized boolean replace(Object key, Object oldValue, Object newValue)
+        {
+            checkNotFrozen();
+            return super.replace(key, oldValue, newValue);
+        }
+
+        public synchronized Object computeIfAbsent(Object key,
+                Function<? super Object, ? extends Object> mappingFunction)
+        {
+            checkNotFrozen();
+            return super.computeIfAbsent(key, mappingFunction);
+        }
+
+        public synchronized Object computeIfPresent(Object key,
+                BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction)
+        {
+            checkNotFrozen();
+            return super.computeIfPresent(key, remappingFunction);
+        }
+
+        public synchronized Object compute(Object key,
+                BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction)
+        {
+            checkNotFrozen();
+            return super.compute(key, remappingFunction);
+        }
+
+        public synchronized Object merge(Object key, Object value,
+                BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction)
+        {
+            checkNotFrozen();
+            return super.merge(key, value, remappingFunction);
+        }
+
+        public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ? extends Object> function)
+        {
+            checkNotFrozen();
+            super.replaceAll(function);
+        }
+
+        @Override
+        public Set<Object> keySet()
+        {
+            return frozen ? Collections.unmodifiableSet(super.keySet()) : super.keySet();
+        }
+
+        @Override
+        public Collection<Object> values()
+        {
+            return frozen ? Collections.unmodifiableCollection(super.values()) : super.values();
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet()
+        {
+            return frozen ? readOnlyEntries : super.entrySet();
+        }
+
+        private void checkNotFrozen()
+        {
+            if (frozen)
+            {
+                throw new UnsupportedOperationException("Object repository snapshot is read only!");
+            }
+        }
     }
 }
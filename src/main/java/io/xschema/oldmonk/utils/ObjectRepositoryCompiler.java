@@ -0,0 +1,150 @@
+package io.xschema.oldmonk.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compile all locator files of an object repository directory into a single
+ * binary file, which can be memory mapped by {@link ObjectRepository} instead
+ * of parsing the locator files on every JVM start. Meant to be run at build
+ * time:
+ * 
+ * <pre>
+ * java -cp oldmonk-jar-with-dependencies.jar io.xschema.oldmonk.utils.ObjectRepositoryCompiler src/main/resources target/object-repository.bin
+ * </pre>
+ */
+public class ObjectRepositoryCompiler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObjectRepositoryCompiler.class.getName());
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: ObjectRepositoryCompiler <object repository dir> <output file>");
+            System.exit(1);
+        }
+
+        compile(new File(args[0]), new File(args[1]));
+    }
+
+    /**
+     * Compile all locator files present in the object repository directory.
+     * 
+     * @param repositoryDir
+     *            - directory containing locator files
+     * @param output
+     *            - compiled object repository file
+     * @throws IOException
+     *             - throw this exception, if locator files can not be read or
+     *             output can not be written
+     */
+    public static void compile(File repositoryDir, File output) throws IOException
+    {
+        write(ObjectRepository.loadRepository(repositoryDir), output);
+    }
+
+    /**
+     * Write locators to a compiled object repository file. The file is written
+     * next to the output and then moved in place, so that running JVMs never
+     * map a partially written file.
+     * 
+     * @param locators
+     *            - locators in name/value pair
+     * @param output
+     *            - compiled object repository file
+     * @throws IOException
+     *             - throw this exception, if output can not be written
+     */
+    static void write(Properties locators, File output) throws IOException
+    {
+        List<String> names = new ArrayList<String>(locators.stringPropertyNames());
+        Collections.sort(names);
+
+        int tableSize = Integer.highestOneBit(Math.max(names.size(), 1) * 2 - 1) << 1;
+
+        int[] hashes = new int[tableSize];
+        int[] keyOffsets = new int[tableSize];
+        int[] valueOffsets = new int[tableSize];
+        Arrays.fill(keyOffsets, -1);
+
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        DataOutputStream poolOut = new DataOutputStream(pool);
+
+        for (String name : names)
+        {
+            int hash = MappedObjectRepository.hash(name);
+
+            int slot = hash & (tableSize - 1);
+            while (keyOffsets[slot] >= 0)
+            {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+
+            hashes[slot] = hash;
+            keyOffsets[slot] = writeString(poolOut, name);
+            valueOffsets[slot] = writeString(poolOut, locators.getProperty(name));
+        }
+
+        int tableOffset = MappedObjectRepository.HEADER_SIZE;
+        int poolOffset = tableOffset + tableSize * MappedObjectRepository.SLOT_SIZE;
+
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IOException("Unable to create directory '" + parent + "'!");
+        }
+
+        File temp = new File(output.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+        {
+            out.writeInt(MappedObjectRepository.MAGIC);
+            out.writeInt(MappedObjectRepository.VERSION);
+            out.writeInt(names.size());
+            out.writeInt(tableSize);
+            out.writeInt(tableOffset);
+            out.writeInt(poolOffset);
+            out.writeInt(pool.size());
+
+            for (int i = 0; i < tableSize; i++)
+            {
+                out.writeInt(hashes[i]);
+                out.writeInt(keyOffsets[i]);
+                out.writeInt(valueOffsets[i]);
+            }
+
+            pool.writeTo(out);
+        }
+
+        Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        LOGGER.info("Compiled " + names.size() + " locators into '" + output + "'");
+    }
+
+    private static int writeString(DataOutputStream out, String value) throws IOException
+    {
+        int offset = out.size();
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+
+        return offset;
+    }
+}
@@ -0,0 +1,18 @@
+package io.xschema.oldmonk.utils;
+
+import java.util.Properties;
+
+/**
+ * Listener notified when the object repository is reloaded.
+ */
+public interface RepositoryChangeListener
+{
+    /**
+     * Called after a new snapshot of the object repository has been published.
+     * 
+     * @param snapshot
+     *            - read only properties containing all locators in name/value
+     *            pair
+     */
+    void repositoryChanged(Properties snapshot);
+}
@@ -0,0 +1,263 @@
+package io.xschema.oldmonk.core;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking view of a page object. Every method submits the matching
+ * {@link BasePage} call to an executor and returns at once with a future of
+ * its result, so that independent reads overlap instead of waiting for each
+ * other's round trip:
+ *
+ * <pre>
+ * AsyncPage async = new AsyncPage(homePage);
+ * CompletableFuture&lt;String&gt; title = async.getTitle();
+ * CompletableFuture&lt;String&gt; user = async.getText("username_label");
+ * Assert.assertEquals(title.join() + user.join(), "Home John");
+ * </pre>
+ *
+ * Calls on the same driver session keep their order. Reads submitted one
+ * after another run concurrently, but never before an action submitted
+ * earlier has completed, and an action waits for everything submitted
+ * before it. The futures fail with the exception of the page object call,
+ * wrapped in a {@link java.util.concurrent.CompletionException}.
+ * <p>
+ * Calls run on the threads of the executor, so their time is not charged to
+ * the {@link TimeBudget} of the test. Concurrent reads need a driver which
+ * accepts concurrent commands, as the remote drivers do.
+ */
+public class AsyncPage
+{
+    /**
+     * A call to the page object, which may throw the checked exceptions of
+     * {@link BasePage}.
+     */
+    public interface RemoteCall<T>
+    {
+        T call() throws Exception;
+    }
+
+    private final BasePage         page;
+    private final Executor         executor;
+    private final SessionSequencer sequencer;
+
+    /**
+     * Wrap a page object, running its calls on the shared executor.
+     */
+    public AsyncPage(BasePage page)
+    {
+        this(page, RemoteCallExecutor.shared());
+    }
+
+    public AsyncPage(BasePage page, Executor executor)
+    {
+        this.page = page;
+        this.executor = executor;
+        this.sequencer = SessionSequencer.of(page.driver);
+    }
+
+    /**
+     * @return - the wrapped page object
+     */
+    public BasePage getPage()
+    {
+        return page;
+    }
+
+    /**
+     * Submit a custom call which only reads from the page.
+     */
+    public <T> CompletableFuture<T> read(RemoteCall<T> call)
+    {
+        return sequencer.read(call, executor);
+    }
+
+    /**
+     * Submit a custom call which changes the page or the browser.
+     */
+    public <T> CompletableFuture<T> action(RemoteCall<T> call)
+    {
+        return sequencer.action(call, executor);
+    }
+
+    public CompletableFuture<String> getText(String locator)
+    {
+        return getText(locator, null);
+    }
+
+    public CompletableFuture<String> getText(String locator, String replacement)
+    {
+        return read(() -> page.getText(locator, replacement));
+    }
+
+    public CompletableFuture<String> getAttribute(String locator, String attr)
+    {
+        return getAttribute(locator, null, attr);
+    }
+
+    public CompletableFuture<String> getAttribute(String locator, String replacement, String attr)
+    {
+        return read(() -> page.getAttribute(locator, replacement, attr));
+    }
+
+    public CompletableFuture<String> getValue(String locator)
+    {
+        return getValue(locator, null);
+    }
+
+    public CompletableFuture<String> getValue(String locator, String replacement)
+    {
+        return read(() -> page.getValue(locator, replacement));
+    }
+
+    public CompletableFuture<Boolean> isElementDisplayed(String locator)
+    {
+        return isElementDisplayed(locator, null);
+    }
+
+    public CompletableFuture<Boolean> isElementDisplayed(String locator, String replacement)
+    {
+        return read(() -> page.isElementDisplayed(locator, replacement));
+    }
+
+    public CompletableFuture<Integer> getXpathCount(String locator)
+    {
+        return getXpathCount(locator, null);
+    }
+
+    public CompletableFuture<Integer> getXpathCount(String locator, String replacement)
+    {
+        return read(() -> page.getXpathCount(locator, replacement));
+    }
+
+    public CompletableFuture<String> getPageSource()
+    {
+        return read(page::getPageSource);
+    }
+
+    public CompletableFuture<String> getTitle()
+    {
+        return read(page::getTitle);
+    }
+
+    public CompletableFuture<String> getCurrentUrl()
+    {
+        return read(page::getCurrentUrl);
+    }
+
+    public CompletableFuture<Set<String>> getAllWindowHandles()
+    {
+        return read(page::getAllWindowHandles);
+    }
+
+    public CompletableFuture<String> getCurrentWindowHandle()
+    {
+        return read(page::getCurrentWindowHandle);
+    }
+
+    public CompletableFuture<Void> click(String locator)
+    {
+        return click(locator, null);
+    }
+
+    public CompletableFuture<Void> click(String locator, String replacement)
+    {
+        return action(() -> {
+            page.click(locator, replacement);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> type(String locator, String textToType)
+    {
+        return type(locator, null, textToType);
+    }
+
+    public CompletableFuture<Void> type(String locator, String replacement, String textToType)
+    {
+        return action(() -> {
+            page.type(locator, replacement, textToType);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> clear(String locator)
+    {
+        return clear(locator, null);
+    }
+
+    public CompletableFuture<Void> clear(String locator, String replacement)
+    {
+        return action(() -> {
+            page.clear(locator, replacement);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> selectOptionByText(String locator, String optionText)
+    {
+        return selectOptionByText(locator, null, optionText);
+    }
+
+    public CompletableFuture<Void> selectOptionByText(String locator, String replacement, String optionText)
+    {
+        return action(() -> {
+            page.selectOptionByText(locator, replacement, optionText);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> selectOptionByIndex(String locator, int optionIndex)
+    {
+        return selectOptionByIndex(locator, null, optionIndex);
+    }
+
+    public CompletableFuture<Void> selectOptionByIndex(String locator, String replacement, int optionIndex)
+    {
+        return action(() -> {
+            page.selectOptionByIndex(locator, replacement, optionIndex);
+            return null;
+        });
+    }
+
+    /**
+     * Execute a batch of actions, see {@link ActionBatch#execute()}.
+     */
+    public CompletableFuture<BatchResult> execute(ActionBatch batch)
+    {
+        return action(batch::execute);
+    }
+
+    public CompletableFuture<Void> openUrl(String url)
+    {
+        return action(() -> {
+            page.openUrl(url);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> refresh()
+    {
+        return action(() -> {
+            page.refresh();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> pressBrowserBackButton()
+    {
+        return action(() -> {
+            page.pressBrowserBackButton();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> pressBrowserForwardButton()
+    {
+        return action(() -> {
+            page.pressBrowserForwardButton();
+            return null;
+        });
+    }
+}
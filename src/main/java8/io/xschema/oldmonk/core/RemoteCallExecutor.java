@@ -0,0 +1,80 @@
+package io.xschema.oldmonk.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for remote WebDriver calls. The threads of these executors spend
+ * nearly all of their time waiting for the browser, so the pool is sized by
+ * the number of calls which should overlap instead of by the number of CPUs.
+ * Idle threads are released after a minute and all threads are daemons, so an
+ * executor which is never shut down does not keep the JVM alive.
+ */
+public final class RemoteCallExecutor
+{
+    /**
+     * System property overriding the size of the shared executor.
+     */
+    public static final String           THREADS_PROPERTY = "oldmonk.async.threads";
+
+    private static final AtomicInteger   POOLS            = new AtomicInteger();
+
+    private static final ExecutorService SHARED           = create(Integer.getInteger(THREADS_PROPERTY,
+            Math.max(16, 4 * Runtime.getRuntime().availableProcessors())));
+
+    private RemoteCallExecutor()
+    {}
+
+    /**
+     * @return - executor shared by all asynchronous pages not given one
+     */
+    public static ExecutorService shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Create an executor running up to the given number of remote calls at
+     * the same time. Further calls are queued.
+     *
+     * @param threads
+     *            - maximum number of concurrent calls
+     * @return - new executor, to be shut down by the caller
+     */
+    public static ExecutorService create(int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new RemoteCallThreadFactory(POOLS.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    private static final class RemoteCallThreadFactory implements ThreadFactory
+    {
+        private final int           pool;
+        private final AtomicInteger threads = new AtomicInteger();
+
+        RemoteCallThreadFactory(int pool)
+        {
+            this.pool = pool;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "oldmonk-remote-" + pool + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
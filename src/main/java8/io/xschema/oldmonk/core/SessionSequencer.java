@@ -0,0 +1,131 @@
+package io.xschema.oldmonk.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Orders the asynchronous calls made on a single WebDriver session, shared by
+ * all asynchronous pages using the same driver. Calls run in the order they
+ * were submitted, except that consecutive reads overlap:
+ * <ul>
+ * <li>a read starts once all actions submitted before it have completed</li>
+ * <li>an action starts once all reads and actions submitted before it have
+ * completed</li>
+ * </ul>
+ * A failed call does not stop the calls submitted after it, its failure is
+ * only reported through its own future. Calls must be submitted by the owner
+ * of the session, the threads running them act on its behalf.
+ */
+final class SessionSequencer
+{
+    private static final Map<WebDriver, SessionSequencer> SEQUENCERS = new WeakHashMap<WebDriver, SessionSequencer>();
+
+    static
+    {
+        // The sequencer references the session state and with it the driver
+        DriverRegistry.addListener(new DriverRegistry.Listener()
+        {
+            @Override
+            public void registered(WebDriver driver)
+            {
+            }
+
+            @Override
+            public void unregistered(WebDriver driver)
+            {
+                synchronized (SEQUENCERS)
+                {
+                    SEQUENCERS.remove(driver);
+                }
+            }
+        });
+    }
+
+    /*
+     * Completes when the last action has completed, successfully or not
+     */
+    private CompletableFuture<Void>                       lastAction = CompletableFuture.completedFuture(null);
+
+    /*
+     * Reads submitted since the last action
+     */
+    private final List<CompletableFuture<?>>              reads      = new ArrayList<CompletableFuture<?>>();
+
+    private final SessionState                            session;
+
+    private SessionSequencer(SessionState session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Return the sequencer of a driver session, creating it on first use.
+     */
+    static SessionSequencer of(WebDriver driver)
+    {
+        synchronized (SEQUENCERS)
+        {
+            SessionSequencer sequencer = SEQUENCERS.get(driver);
+
+            // The session state may have been discarded since
+            if (sequencer == null || sequencer.session != SessionState.of(driver))
+            {
+                sequencer = new SessionSequencer(SessionState.of(driver));
+                SEQUENCERS.put(driver, sequencer);
+            }
+
+            return sequencer;
+        }
+    }
+
+    synchronized <T> CompletableFuture<T> read(AsyncPage.RemoteCall<T> call, Executor executor)
+    {
+        session.checkThread();
+        reads.removeIf(CompletableFuture::isDone);
+
+        CompletableFuture<T> read = lastAction.thenApplyAsync(ignored -> invoke(call), executor);
+        reads.add(read);
+
+        return read;
+    }
+
+    synchronized <T> CompletableFuture<T> action(AsyncPage.RemoteCall<T> call, Executor executor)
+    {
+        session.checkThread();
+        reads.add(lastAction);
+
+        CompletableFuture<T> action = CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[reads.size()]))
+                .handle((ignored, failure) -> (Void) null).thenApplyAsync(ignored -> invoke(call), executor);
+
+        reads.clear();
+        lastAction = action.handle((ignored, failure) -> (Void) null);
+
+        return action;
+    }
+
+    private <T> T invoke(AsyncPage.RemoteCall<T> call)
+    {
+        session.beginDelegation();
+
+        try
+        {
+            return call.call();
+        } catch (RuntimeException e)
+        {
+            throw e;
+        } catch (Exception e)
+        {
+            throw new CompletionException(e);
+        } finally
+        {
+            SessionState.endDelegation();
+        }
+    }
+}
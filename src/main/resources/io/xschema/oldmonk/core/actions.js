@@ -0,0 +1,105 @@
+/*
+ * Element actions which do not depend on real input events. Like WebDriver,
+ * they refuse elements which are not displayed or not editable, and fire the
+ * events a user change would fire.
+ */
+var oldmonkActions = (function () {
+    var fire = function (element, type) {
+        var event = document.createEvent('HTMLEvents');
+        event.initEvent(type, true, true);
+        element.dispatchEvent(event);
+    };
+
+    var checkEditable = function (element) {
+        if (!oldmonkIsDisplayed(element)) {
+            throw new Error('Element is not displayed');
+        }
+        if (element.disabled || element.readOnly) {
+            throw new Error('Element is disabled or read only');
+        }
+    };
+
+    var setValue = function (element, text) {
+        checkEditable(element);
+        if (element.value !== text) {
+            element.value = text;
+            fire(element, 'input');
+            fire(element, 'change');
+        }
+    };
+
+    var select = function (element, matches, description) {
+        if (element.tagName.toLowerCase() !== 'select') {
+            throw new Error('Element should have been "select" but was "' + element.tagName.toLowerCase() + '"');
+        }
+        checkEditable(element);
+
+        var changed = false;
+        var found = false;
+
+        for (var i = 0; i < element.options.length; i++) {
+            var option = element.options[i];
+            if (matches(option, i)) {
+                found = true;
+                if (!option.selected) {
+                    option.selected = true;
+                    changed = true;
+                }
+                if (!element.multiple) {
+                    break;
+                }
+            }
+        }
+
+        if (!found) {
+            throw new Error('Cannot locate option with ' + description);
+        }
+        if (changed) {
+            fire(element, 'input');
+            fire(element, 'change');
+        }
+    };
+
+    var selectByText = function (element, text) {
+        select(element, function (option) {
+            return option.text.replace(/\s+/g, ' ').trim() === text;
+        }, 'text: ' + text);
+    };
+
+    var setChecked = function (element, checked) {
+        checkEditable(element);
+        if (element.checked !== checked) {
+            element.checked = checked;
+            fire(element, 'input');
+            fire(element, 'change');
+        }
+    };
+
+    return {
+        CLEAR: function (element) {
+            setValue(element, '');
+        },
+        SET_VALUE: setValue,
+        SELECT_BY_TEXT: selectByText,
+        SELECT_BY_INDEX: function (element, index) {
+            select(element, function (option, i) {
+                return i === Number(index);
+            }, 'index: ' + index);
+        },
+        /*
+         * Set a form field of any kind: the visible option text of a select,
+         * 'true' or 'false' for a checkbox or radio button, else the value.
+         */
+        FILL: function (element, text) {
+            var type = (element.type || '').toLowerCase();
+
+            if (element.tagName.toLowerCase() === 'select') {
+                selectByText(element, text);
+            } else if (type === 'checkbox' || type === 'radio') {
+                setChecked(element, text === 'true');
+            } else {
+                setValue(element, text);
+            }
+        }
+    };
+})();
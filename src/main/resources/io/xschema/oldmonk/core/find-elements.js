@@ -0,0 +1,17 @@
+/*
+ * arguments[0]: array of [strategy, value] pairs. Returns one entry per pair:
+ * the element, null when nothing matches, or the error message when the
+ * locator could not be evaluated.
+ */
+var locators = arguments[0];
+var result = [];
+
+for (var i = 0; i < locators.length; i++) {
+    try {
+        result.push(oldmonkLocate(locators[i][0], locators[i][1]));
+    } catch (e) {
+        result.push(String(e && e.message || e));
+    }
+}
+
+return result;
@@ -0,0 +1,41 @@
+/*
+ * Find the first element matching an object repository locator, the same way
+ * WebDriver does for the strategy. Returns null when nothing matches. LINK_TEXT
+ * and PARTIAL_LINK_TEXT depend on rendered text and are always resolved by
+ * WebDriver itself.
+ */
+var oldmonkLocate = function (strategy, value, root) {
+    root = root || document;
+    var doc = root.ownerDocument || root;
+
+    switch (strategy) {
+        case 'ID':
+            return root === doc ? doc.getElementById(value)
+                : root.querySelector('[id="' + value.replace(/(["\\])/g, '\\$1') + '"]');
+        case 'NAME':
+            return root.querySelector('[name="' + value.replace(/(["\\])/g, '\\$1') + '"]');
+        case 'CLASS_NAME':
+            return root.getElementsByClassName(value)[0] || null;
+        case 'TAG_NAME':
+            return root.getElementsByTagName(value)[0] || null;
+        case 'CSS_SELECTOR':
+            return root.querySelector(value);
+        case 'XPATH':
+            var node = doc.evaluate(value, root, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;
+            return node && node.nodeType === 1 ? node : null;
+        default:
+            throw new Error('Locator strategy ' + strategy + ' can not be resolved by script');
+    }
+};
+
+/*
+ * Whether an element is rendered and not hidden, close to what WebDriver
+ * considers displayed.
+ */
+var oldmonkIsDisplayed = function (element) {
+    if (element.getClientRects().length === 0) {
+        return false;
+    }
+    var style = window.getComputedStyle(element);
+    return style.visibility !== 'hidden' && style.opacity !== '0';
+};
@@ -0,0 +1,28 @@
+/*
+ * arguments[0]: array of steps [strategy, value, action, argument], where
+ * action is one of oldmonkActions. arguments[1]: whether to stop at the first
+ * step failing. Runs the steps in order and returns the failed steps as
+ * [index of the step, error message] pairs.
+ */
+var steps = arguments[0];
+var stopOnError = arguments[1];
+var failures = [];
+
+for (var i = 0; i < steps.length; i++) {
+    var step = steps[i];
+
+    try {
+        var element = oldmonkLocate(step[0], step[1]);
+        if (!element) {
+            throw new Error('Unable to locate element: ' + step[0] + ',' + step[1]);
+        }
+        oldmonkActions[step[2]](element, step[3]);
+    } catch (e) {
+        failures.push([i, String(e && e.message || e)]);
+        if (stopOnError) {
+            break;
+        }
+    }
+}
+
+return failures;
@@ -0,0 +1,82 @@
+/*
+ * arguments: strategy, value, visible, timeout in ms, callback. Calls back
+ * with the element once it is present (and visible if requested), with null
+ * when the timeout fires first, or with the error message when the locator
+ * could not be evaluated.
+ *
+ * A single MutationObserver per page notifies all pending waits whenever the
+ * DOM changes. A slow fallback check catches changes which do not mutate the
+ * DOM, e.g. a stylesheet being applied.
+ */
+var strategy = arguments[0];
+var value = arguments[1];
+var visible = arguments[2];
+var timeout = arguments[3];
+var callback = arguments[arguments.length - 1];
+
+var check = function () {
+    var element = oldmonkLocate(strategy, value);
+    return element && (!visible || oldmonkIsDisplayed(element)) ? element : null;
+};
+
+var found;
+try {
+    found = check();
+} catch (e) {
+    callback(String(e && e.message || e));
+    return;
+}
+
+if (found) {
+    callback(found);
+    return;
+}
+
+var registry = window.oldmonkWaits;
+if (!registry) {
+    registry = window.oldmonkWaits = {
+        waiters: [],
+        notify: function () {
+            var waiters = registry.waiters.slice();
+            for (var i = 0; i < waiters.length; i++) {
+                waiters[i]();
+            }
+        }
+    };
+    new MutationObserver(registry.notify).observe(document.documentElement || document,
+        { childList: true, subtree: true, attributes: true, characterData: true });
+}
+
+var done = false;
+var timer;
+var fallback;
+
+var finish = function (result) {
+    if (done) {
+        return;
+    }
+    done = true;
+    clearTimeout(timer);
+    clearInterval(fallback);
+
+    var index = registry.waiters.indexOf(waiter);
+    if (index >= 0) {
+        registry.waiters.splice(index, 1);
+    }
+    callback(result);
+};
+
+var waiter = function () {
+    try {
+        var element = check();
+        if (element) {
+            finish(element);
+        }
+    } catch (e) {
+        finish(String(e && e.message || e));
+    }
+};
+
+registry.waiters.push(waiter);
+timer = setTimeout(function () { finish(null); }, timeout);
+fallback = setInterval(waiter, 250);
@@ -0,0 +1,94 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.utils.ObjectRepository;
+
+/**
+ * Reads after waiting for an element which a script of the page adds, with
+ * the page changed by the fake WebDriver server.
+ */
+public class BasePageWaitTest
+{
+    private static final String PAGE   = "http://example.test/status.html";
+
+    private static final String BEFORE = "<html><head><title>Loading</title></head>"
+            + "<body><p id='message'>loading</p></body></html>";
+
+    private static final String AFTER  = "<html><head><title>Done</title></head>"
+            + "<body><p id='message'>done</p><div id='result'>42</div></body></html>";
+
+    private FakeWebDriverServer server;
+    private WebDriver           driver;
+    private BasePage            page;
+
+    @BeforeClass
+    public void useTestRepository() throws Exception
+    {
+        ObjectRepository.setRepositoryDirectory(new File(getClass().getResource("/locators").toURI()).getPath());
+    }
+
+    @BeforeMethod
+    public void openPage() throws Exception
+    {
+        server = new FakeWebDriverServer().addPage(PAGE, BEFORE);
+        URL url = server.start();
+
+        driver = new RemoteWebDriver(url, DesiredCapabilities.chrome());
+        driver.get(PAGE);
+
+        page = new BasePage(driver);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void closePage()
+    {
+        BasePage.resetSessionState(driver);
+        driver.quit();
+        server.stop();
+    }
+
+    @Test
+    public void memoizedReadsSeeThePageTheWaitEndedOn() throws Exception
+    {
+        page.setPageReadCacheEnabled(true);
+        assertEquals(page.getTitle(), "Loading");
+
+        server.changePage(PAGE, AFTER);
+        assertEquals(page.getTitle(), "Loading", "memoized until the page changes");
+
+        page.waitForElementToBePresent("result");
+
+        assertEquals(page.getTitle(), "Done");
+        assertTrue(page.getPageSource().contains("id='result'"), page.getPageSource());
+    }
+
+    @Test
+    public void domSnapshotIsTakenAgainAfterTheWait() throws Exception
+    {
+        page.setDomSnapshotEnabled(true);
+        assertEquals(page.getText("message"), "loading");
+        assertEquals(page.getXpathCount("result"), 0);
+
+        server.changePage(PAGE, AFTER);
+        assertEquals(page.getText("message"), "loading", "read from the snapshot until the page changes");
+
+        page.waitForElementToBePresent("result", 5);
+
+        assertEquals(page.getText("message"), "done");
+        assertEquals(page.getText("result"), "42");
+        assertEquals(page.getXpathCount("result"), 1);
+    }
+}
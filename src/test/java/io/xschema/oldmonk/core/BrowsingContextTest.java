@@ -0,0 +1,158 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriver.TargetLocator;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Switches the browsing context tracker issues or skips, with a driver
+ * recording the switches.
+ */
+public class BrowsingContextTest
+{
+    private final List<String> switches = new ArrayList<String>();
+
+    private WebDriver          driver;
+    private BrowsingContext    context;
+
+    @BeforeMethod
+    public void createContext()
+    {
+        switches.clear();
+        driver = recordingDriver();
+        context = new BrowsingContext();
+        context.setEnabled(true);
+    }
+
+    @Test
+    public void skipsSwitchingToTopLevelAndBackIntoSameFrame()
+    {
+        assertTrue(context.switchToWindow(driver, "main"));
+        assertTrue(context.switchToFrame(driver, "content"));
+
+        assertFalse(context.switchToTopLevel(driver));
+        assertFalse(context.switchToFrame(driver, "content"));
+
+        assertEquals(switches, Arrays.asList("window main", "frame content"));
+    }
+
+    @Test
+    public void issuesDeferredTopLevelSwitchBeforeOtherFrame()
+    {
+        context.switchToWindow(driver, "main");
+        context.switchToFrame(driver, "content");
+        context.switchToTopLevel(driver);
+
+        assertTrue(context.switchToFrame(driver, 1));
+
+        assertEquals(switches, Arrays.asList("window main", "frame content", "defaultContent", "frame 1"));
+    }
+
+    @Test
+    public void issuesDeferredTopLevelSwitchBeforeCommand()
+    {
+        context.switchToWindow(driver, "main");
+        context.switchToFrame(driver, "content");
+        context.switchToTopLevel(driver);
+
+        assertTrue(context.apply(driver));
+        assertFalse(context.apply(driver), "nothing pending");
+        assertFalse(context.switchToTopLevel(driver), "already at the top level");
+
+        assertEquals(switches, Arrays.asList("window main", "frame content", "defaultContent"));
+    }
+
+    @Test
+    public void skipsSwitchToCurrentWindow()
+    {
+        context.switchToWindow(driver, "main");
+
+        assertFalse(context.switchToWindow(driver, "main"));
+        assertTrue(context.switchToWindow(driver, "popup"));
+
+        assertEquals(switches, Arrays.asList("window main", "window popup"));
+    }
+
+    @Test
+    public void switchesToTopLevelOnceContextIsUnknown()
+    {
+        context.switchToWindow(driver, "main");
+        context.reset();
+
+        context.switchToTopLevel(driver);
+        assertTrue(context.apply(driver));
+
+        context.navigated();
+        context.switchToTopLevel(driver);
+        assertFalse(context.apply(driver), "a navigation selects the top level");
+
+        assertEquals(switches, Arrays.asList("window main", "defaultContent"));
+    }
+
+    @Test
+    public void switchesToWindowAgainAfterItWasClosed()
+    {
+        context.switchToWindow(driver, "main");
+        context.windowClosed();
+
+        assertTrue(context.switchToWindow(driver, "main"));
+
+        assertEquals(switches, Arrays.asList("window main", "window main"));
+    }
+
+    @Test
+    public void issuesEverySwitchWhenDisabled()
+    {
+        context.setEnabled(false);
+
+        context.switchToWindow(driver, "main");
+        context.switchToWindow(driver, "main");
+        context.switchToFrame(driver, "content");
+        assertTrue(context.switchToTopLevel(driver));
+        context.switchToFrame(driver, "content");
+
+        assertEquals(switches, Arrays.asList("window main", "window main", "frame content", "defaultContent",
+                "frame content"));
+    }
+
+    private WebDriver recordingDriver()
+    {
+        final TargetLocator locator = (TargetLocator) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { TargetLocator.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        switches.add(method.getName() + (args == null ? "" : " " + args[0]));
+                        return null;
+                    }
+                });
+
+        return (WebDriver) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { WebDriver.class },
+                new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("switchTo".equals(method.getName()))
+                        {
+                            return locator;
+                        }
+
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,127 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+
+import io.xschema.oldmonk.core.DomSnapshot.CssToXPath;
+import io.xschema.oldmonk.core.DomSnapshot.UnsupportedQueryException;
+
+/**
+ * CSS selectors converted to XPath, checked by the elements they select in a
+ * DOM snapshot.
+ */
+public class CssToXPathTest
+{
+    private static final String PAGE = "<html><body>"
+            + "<form id='login' class='form  wide'>"
+            + "<input id='user' name='user' type='text' lang='en-US'>"
+            + "<input id='pass' name='pass' type='password' data-hint='Pass word'>"
+            + "<button id='submit' class='btn primary'>Sign in</button>"
+            + "</form>"
+            + "<ul id='menu'>"
+            + "<li id='m1' class='item'><a id='home' href='/home'>Home</a></li>"
+            + "<li id='m2' class='item active'><a id='mail' href='/mail/inbox'>Mail</a></li>"
+            + "<li id='m3' class='item'><a id='doc' href='/docs/guide.pdf'>Guide</a></li>"
+            + "</ul>"
+            + "</body></html>";
+
+    private DomSnapshot snapshot;
+
+    @BeforeClass
+    public void parsePage() throws Exception
+    {
+        snapshot = DomSnapshot.parse(PAGE);
+    }
+
+    @DataProvider
+    public Object[][] supported()
+    {
+        return new Object[][] {
+                { "input", "user pass" },
+                { "*#submit", "submit" },
+                { "#login", "login" },
+                { ".item", "m1 m2 m3" },
+                { "li.item.active", "m2" },
+                { ".form", "login" },
+                { "[name]", "user pass" },
+                { "input[type=password]", "pass" },
+                { "input[type='text']", "user" },
+                { "[data-hint~=word]", "pass" },
+                { "[lang|=en]", "user" },
+                { "a[href^='/mail']", "mail" },
+                { "a[href$=\".pdf\"]", "doc" },
+                { "a[href*=ocs]", "doc" },
+                { "ul a", "home mail doc" },
+                { "#menu > li > a", "home mail doc" },
+                { "form > a", "" },
+                { "#m1 + li", "m2" },
+                { "#m1 ~ li", "m2 m3" },
+                { "li:first-child", "m1" },
+                { "li:last-child a", "doc" },
+                { "li:nth-child(2)", "m2" },
+                { "input:first-child", "user" },
+                { "#user, #submit", "user submit" },
+                { "  #home ,#mail  ", "home mail" } };
+    }
+
+    @DataProvider
+    public Object[][] unsupported()
+    {
+        return new Object[][] {
+                { "a:hover" },
+                { "li:nth-child(2n+1)" },
+                { "li:not(.active)" },
+                { "a::before" },
+                { "form >" },
+                { "[name" },
+                { "" } };
+    }
+
+    @Test(dataProvider = "supported")
+    public void selectsSameElementsAsBrowser(String selector, String ids) throws Exception
+    {
+        assertEquals(ids(snapshot.select(Locator.of(LocatorStrategy.CSS_SELECTOR, selector))), ids, selector);
+    }
+
+    @Test(dataProvider = "unsupported")
+    public void rejectsSelectorItCanNotConvert(String selector)
+    {
+        try
+        {
+            fail(selector + " converted to " + CssToXPath.convert(selector));
+        } catch (UnsupportedQueryException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void selectsOnlyDescendantsOfContextElement() throws Exception
+    {
+        Element menu = snapshot.select(Locator.of(LocatorStrategy.ID, "menu")).get(0);
+
+        assertEquals(ids(snapshot.select(Locator.of(LocatorStrategy.CSS_SELECTOR, "a"), menu)), "home mail doc");
+        assertEquals(ids(snapshot.select(Locator.of(LocatorStrategy.CSS_SELECTOR, "ul a"), menu)), "");
+        assertEquals(ids(snapshot.select(Locator.of(LocatorStrategy.CSS_SELECTOR, "li.active > a, #user"), menu)),
+                "mail");
+    }
+
+    private static String ids(List<Element> elements)
+    {
+        StringBuilder ids = new StringBuilder();
+
+        for (Element element : elements)
+        {
+            ids.append(ids.length() == 0 ? "" : " ").append(element.getAttribute("id"));
+        }
+
+        return ids.toString();
+    }
+}
@@ -0,0 +1,917 @@
+package io.xschema.oldmonk.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import io.xschema.oldmonk.core.DomSnapshot.UnsupportedQueryException;
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+
+/**
+ * Browser session of the {@link FakeWebDriverServer}, answering the commands
+ * of the WebDriver JSON wire protocol from the markup of the current page.
+ * The DOM itself is never changed: values typed into fields, selected options
+ * and checked boxes are kept aside, and clicking a link or submitting a form
+ * loads the target page. The scripts of the framework, to find elements, wait
+ * for them and run batches of actions, are emulated; other scripts return
+ * null.
+ */
+final class FakeSession
+{
+    static final int                         NO_SUCH_ELEMENT     = 7;
+    static final int                         NO_SUCH_FRAME       = 8;
+    static final int                         UNKNOWN_COMMAND     = 9;
+    static final int                         STALE_ELEMENT       = 10;
+    static final int                         ELEMENT_NOT_VISIBLE = 11;
+    static final int                         INVALID_STATE       = 12;
+    static final int                         UNKNOWN_ERROR       = 13;
+    static final int                         NO_SUCH_WINDOW      = 23;
+    static final int                         INVALID_SELECTOR    = 32;
+
+    static final String                      NOT_FOUND_PAGE      = "<html><head><title>Not Found</title></head>"
+            + "<body><h1>Not Found</h1></body></html>";
+
+    /*
+     * A transparent PNG image of one pixel
+     */
+    private static final String              SCREENSHOT          = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAA"
+            + "DUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg==";
+
+    private final String                     id;
+    private final String                     window;
+    private final Map<String, Object>        capabilities;
+    private final Map<String, String>        pages;
+
+    private String                           url;
+    private String                           source;
+    private DomSnapshot                      dom;
+    private boolean                          windowClosed;
+
+    private final List<String>               history             = new ArrayList<String>();
+    private int                              historyIndex        = -1;
+
+    /*
+     * Elements handed out to the client, until the next page is loaded
+     */
+    private final Map<String, Element>       elements            = new HashMap<String, Element>();
+    private final Map<Element, String>       elementIds          = new IdentityHashMap<Element, String>();
+    private int                              elementCount;
+
+    /*
+     * Form state changed by the client
+     */
+    private final Map<Element, String>       values              = new IdentityHashMap<Element, String>();
+    private final Map<Element, Boolean>      selected            = new IdentityHashMap<Element, Boolean>();
+
+    private final Map<String, Map<?, ?>>     cookies             = new LinkedHashMap<String, Map<?, ?>>();
+
+    private long                             implicitWaitMillis;
+
+    FakeSession(String id, Map<String, Object> capabilities, Map<String, String> pages) throws WireException
+    {
+        this.id = id;
+        this.window = "window-" + id;
+        this.capabilities = capabilities;
+        this.pages = pages;
+
+        load("about:blank");
+    }
+
+    String getId()
+    {
+        return id;
+    }
+
+    Map<String, Object> getCapabilities()
+    {
+        return capabilities;
+    }
+
+    /**
+     * Load the document of the given url again if the session shows it,
+     * keeping the history. Elements found before are stale afterwards.
+     *
+     * @param target
+     *            - absolute url of the changed page
+     */
+    synchronized void reload(String target)
+    {
+        if (!target.equals(url))
+        {
+            return;
+        }
+
+        try
+        {
+            load(target);
+        } catch (WireException e)
+        {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Execute a command of the session.
+     *
+     * @param method
+     *            - HTTP method
+     * @param path
+     *            - path segments following the session id
+     * @param body
+     *            - parameters of the command
+     * @return - value of the response
+     * @throws WireException
+     *             - throw this exception with the status of a failed command
+     */
+    synchronized Object execute(String method, List<String> path, Map<?, ?> body) throws WireException
+    {
+        String command = path.isEmpty() ? "" : path.get(0);
+
+        if (path.size() > 1 && "element".equals(command) && !"active".equals(path.get(1)))
+        {
+            return executeElement(method, element(path.get(1)), path.subList(2, path.size()), body);
+        }
+
+        switch (path.size() + " " + method + " " + command)
+        {
+            case "1 GET url":
+                return url;
+            case "1 POST url":
+                navigate(resolve(string(body, "url")));
+                return null;
+            case "1 GET title":
+                List<Element> titles = select(null, "tag name", "title");
+                return titles.isEmpty() ? "" : DomSnapshot.text(titles.get(0));
+            case "1 GET source":
+                return source;
+            case "1 POST back":
+                move(-1);
+                return null;
+            case "1 POST forward":
+                move(1);
+                return null;
+            case "1 POST refresh":
+                load(url);
+                return null;
+            case "1 POST element":
+                return find(null, body, false);
+            case "2 POST element":
+                List<Element> bodies = select(null, "tag name", "body");
+                return bodies.isEmpty() ? null : reference(bodies.get(0));
+            case "1 POST elements":
+                return find(null, body, true);
+            case "1 POST execute":
+                return executeScript(string(body, "script"), list(body, "args"), false);
+            case "1 POST execute_async":
+                return executeScript(string(body, "script"), list(body, "args"), true);
+            case "1 POST timeouts":
+                if ("implicit".equals(body.get("type")))
+                {
+                    implicitWaitMillis = number(body, "ms").longValue();
+                }
+                return null;
+            case "2 POST timeouts":
+                if ("implicit_wait".equals(path.get(1)))
+                {
+                    implicitWaitMillis = number(body, "ms").longValue();
+                }
+                return null;
+            case "1 GET window_handle":
+                checkWindow();
+                return window;
+            case "1 GET window_handles":
+                return windowClosed ? new ArrayList<Object>() : Collections.singletonList(window);
+            case "1 POST window":
+                if (windowClosed || !window.equals(body.get("name")))
+                {
+                    throw new WireException(NO_SUCH_WINDOW, "No window '" + body.get("name") + "'");
+                }
+                return null;
+            case "1 DELETE window":
+                checkWindow();
+                windowClosed = true;
+                return null;
+            case "1 POST frame":
+                if (body.get("id") != null)
+                {
+                    throw new WireException(NO_SUCH_FRAME, "Frames are not supported: " + body.get("id"));
+                }
+                return null;
+            case "1 GET cookie":
+                return new ArrayList<Map<?, ?>>(cookies.values());
+            case "1 POST cookie":
+                Map<?, ?> cookie = (Map<?, ?>) body.get("cookie");
+                cookies.put(String.valueOf(cookie.get("name")), cookie);
+                return null;
+            case "1 DELETE cookie":
+                cookies.clear();
+                return null;
+            case "2 DELETE cookie":
+                cookies.remove(path.get(1));
+                return null;
+            case "1 GET screenshot":
+                return SCREENSHOT;
+            default:
+                break;
+        }
+
+        if ("window".equals(command) || "frame".equals(command) || "keys".equals(command)
+                || "moveto".equals(command) || "click".equals(command) || "buttondown".equals(command)
+                || "buttonup".equals(command) || "doubleclick".equals(command))
+        {
+            // Window geometry, parent frame and mouse or keyboard input
+            return path.size() > 2 && "GET".equals(method) ? geometry(path.get(2)) : null;
+        }
+
+        throw new WireException(UNKNOWN_COMMAND, "Unknown command " + method + " " + path);
+    }
+
+    private Object executeElement(String method, Element element, List<String> path, Map<?, ?> body)
+            throws WireException
+    {
+        String command = path.isEmpty() ? "" : path.get(0);
+
+        switch (path.size() + " " + method + " " + command)
+        {
+            case "1 POST element":
+                return find(element, body, false);
+            case "1 POST elements":
+                return find(element, body, true);
+            case "1 POST click":
+                click(element);
+                return null;
+            case "1 POST submit":
+                submit(element);
+                return null;
+            case "1 POST value":
+                checkEditable(element);
+                StringBuilder text = new StringBuilder(value(element));
+                for (Object key : list(body, "value"))
+                {
+                    text.append(key);
+                }
+                values.put(element, text.toString());
+                return null;
+            case "1 POST clear":
+                checkEditable(element);
+                values.put(element, "");
+                return null;
+            case "1 GET text":
+                return isDisplayed(element) ? DomSnapshot.text(element) : "";
+            case "1 GET name":
+                return element.getTagName();
+            case "2 GET attribute":
+                return attribute(element, path.get(1));
+            case "1 GET selected":
+                return isSelected(element);
+            case "1 GET enabled":
+                return !element.hasAttribute("disabled");
+            case "1 GET displayed":
+                return isDisplayed(element);
+            case "2 GET css":
+                return css(element, path.get(1));
+            case "2 GET equals":
+                return element == element(path.get(1));
+            case "1 GET location":
+            case "1 GET location_in_view":
+            case "1 GET size":
+                return geometry(command);
+            default:
+                throw new WireException(UNKNOWN_COMMAND, "Unknown element command " + method + " " + path);
+        }
+    }
+
+    /*
+     * Navigation
+     */
+
+    private void navigate(String target) throws WireException
+    {
+        load(target);
+
+        while (history.size() > historyIndex + 1)
+        {
+            history.remove(history.size() - 1);
+        }
+
+        history.add(target);
+        historyIndex++;
+    }
+
+    private void move(int offset) throws WireException
+    {
+        int index = historyIndex + offset;
+
+        if (index >= 0 && index < history.size())
+        {
+            load(history.get(index));
+            historyIndex = index;
+        }
+    }
+
+    private void load(String target) throws WireException
+    {
+        String page = pages.get(target);
+
+        if (page == null)
+        {
+            page = "about:blank".equals(target) ? "<html><head></head><body></body></html>" : NOT_FOUND_PAGE;
+        }
+
+        try
+        {
+            dom = DomSnapshot.parse(page);
+        } catch (SAXException | IOException e)
+        {
+            throw new WireException(UNKNOWN_ERROR, "Unable to parse page '" + target + "': " + e.getMessage());
+        }
+
+        url = target;
+        source = page;
+        windowClosed = false;
+
+        elements.clear();
+        elementIds.clear();
+        values.clear();
+        selected.clear();
+    }
+
+    private String resolve(String target)
+    {
+        try
+        {
+            return "about:blank".equals(url) ? target : new URI(url).resolve(target.trim()).toString();
+        } catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return target;
+        }
+    }
+
+    private void checkWindow() throws WireException
+    {
+        if (windowClosed)
+        {
+            throw new WireException(NO_SUCH_WINDOW, "The window was closed");
+        }
+    }
+
+    /*
+     * Elements
+     */
+
+    private Object find(Element context, Map<?, ?> body, boolean all) throws WireException
+    {
+        List<Element> found = select(context, string(body, "using"), string(body, "value"));
+
+        if (found.isEmpty() && implicitWaitMillis > 0)
+        {
+            // The page never changes, so the implicit wait always runs out
+            sleep(implicitWaitMillis);
+        }
+
+        if (all)
+        {
+            List<Object> references = new ArrayList<Object>(found.size());
+
+            for (Element element : found)
+            {
+                references.add(reference(element));
+            }
+
+            return references;
+        }
+
+        if (found.isEmpty())
+        {
+            throw new WireException(NO_SUCH_ELEMENT,
+                    "Unable to locate element: " + body.get("using") + "," + body.get("value"));
+        }
+
+        return reference(found.get(0));
+    }
+
+    /**
+     * @param using
+     *            - locator strategy, as named by the wire protocol or by the
+     *            object repository
+     */
+    private List<Element> select(Element context, String using, String value) throws WireException
+    {
+        try
+        {
+            LocatorStrategy strategy = LocatorStrategy.valueOf(using.trim().toUpperCase(Locale.ENGLISH)
+                    .replace(' ', '_'));
+
+            return dom.select(Locator.of(strategy, value), context);
+        } catch (IllegalArgumentException | InvalidLocatorStrategyException | UnsupportedQueryException e)
+        {
+            throw new WireException(INVALID_SELECTOR, "Invalid locator " + using + "," + value + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private Map<String, String> reference(Element element)
+    {
+        String elementId = elementIds.get(element);
+
+        if (elementId == null)
+        {
+            elementId = id + "-" + (++elementCount);
+            elementIds.put(element, elementId);
+            elements.put(elementId, element);
+        }
+
+        return Collections.singletonMap("ELEMENT", elementId);
+    }
+
+    private Element element(String elementId) throws WireException
+    {
+        Element element = elements.get(elementId);
+
+        if (element == null)
+        {
+            throw new WireException(STALE_ELEMENT, "Element " + elementId + " is not attached to the page");
+        }
+
+        return element;
+    }
+
+    private String attribute(Element element, String name)
+    {
+        String lowerCase = name.toLowerCase(Locale.ENGLISH);
+
+        switch (lowerCase)
+        {
+            case "value":
+                return value(element);
+            case "checked":
+            case "selected":
+                return isSelected(element) ? "true" : null;
+            case "disabled":
+            case "readonly":
+            case "multiple":
+            case "required":
+            case "hidden":
+                return element.hasAttribute(lowerCase) ? "true" : null;
+            default:
+                return DomSnapshot.attribute(element, lowerCase);
+        }
+    }
+
+    private String value(Element element)
+    {
+        String value = values.get(element);
+
+        if (value != null)
+        {
+            return value;
+        }
+
+        if (element.hasAttribute("value"))
+        {
+            return element.getAttribute("value");
+        }
+
+        String tag = element.getTagName();
+        return "textarea".equals(tag) || "option".equals(tag) ? element.getTextContent() : "";
+    }
+
+    private boolean isSelected(Element element)
+    {
+        Boolean state = selected.get(element);
+
+        if (state != null)
+        {
+            return state;
+        }
+
+        return element.hasAttribute("option".equals(element.getTagName()) ? "selected" : "checked");
+    }
+
+    private boolean isDisplayed(Element element)
+    {
+        for (Node node = element; node instanceof Element; node = node.getParentNode())
+        {
+            Element ancestor = (Element) node;
+            String tag = ancestor.getTagName();
+            String style = ancestor.getAttribute("style").replace(" ", "").toLowerCase(Locale.ENGLISH);
+
+            if ("head".equals(tag) || "script".equals(tag) || "style".equals(tag) || "title".equals(tag)
+                    || ancestor.hasAttribute("hidden") || style.contains("display:none")
+                    || style.contains("visibility:hidden")
+                    || "input".equals(tag) && "hidden".equalsIgnoreCase(ancestor.getAttribute("type")))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String css(Element element, String property)
+    {
+        for (String declaration : element.getAttribute("style").split(";"))
+        {
+            int colon = declaration.indexOf(':');
+
+            if (colon > 0 && declaration.substring(0, colon).trim().equalsIgnoreCase(property))
+            {
+                return declaration.substring(colon + 1).trim();
+            }
+        }
+
+        return "";
+    }
+
+    private static Map<String, Object> geometry(String command)
+    {
+        Map<String, Object> geometry = new LinkedHashMap<String, Object>();
+
+        if ("size".equals(command))
+        {
+            geometry.put("width", 100);
+            geometry.put("height", 20);
+        } else
+        {
+            geometry.put("x", 0);
+            geometry.put("y", 0);
+        }
+
+        return geometry;
+    }
+
+    /*
+     * Actions
+     */
+
+    private void checkDisplayed(Element element) throws WireException
+    {
+        if (!isDisplayed(element))
+        {
+            throw new WireException(ELEMENT_NOT_VISIBLE, "Element is not displayed");
+        }
+    }
+
+    private void checkEditable(Element element) throws WireException
+    {
+        checkDisplayed(element);
+
+        if (element.hasAttribute("disabled") || element.hasAttribute("readonly"))
+        {
+            throw new WireException(INVALID_STATE, "Element is disabled or read only");
+        }
+    }
+
+    private void click(Element element) throws WireException
+    {
+        checkDisplayed(element);
+
+        String tag = element.getTagName();
+        String type = element.getAttribute("type").toLowerCase(Locale.ENGLISH);
+
+        if ("option".equals(tag))
+        {
+            select(element);
+        } else if ("input".equals(tag) && "checkbox".equals(type))
+        {
+            selected.put(element, !isSelected(element));
+        } else if ("input".equals(tag) && "radio".equals(type))
+        {
+            check(element);
+        } else if ("input".equals(tag) && ("submit".equals(type) || "image".equals(type))
+                || "button".equals(tag) && ("submit".equals(type) || type.isEmpty()))
+        {
+            submit(element);
+        } else
+        {
+            Element link = ancestor(element, "a");
+
+            if (link != null && link.hasAttribute("href") && !link.getAttribute("href").startsWith("#")
+                    && !link.getAttribute("href").startsWith("javascript:"))
+            {
+                navigate(resolve(link.getAttribute("href")));
+            }
+        }
+    }
+
+    private void submit(Element element) throws WireException
+    {
+        Element form = ancestor(element, "form");
+
+        if (form != null)
+        {
+            String action = form.getAttribute("action");
+            navigate(action.isEmpty() ? url : resolve(action));
+        }
+    }
+
+    private void select(Element option)
+    {
+        Element list = ancestor(option, "select");
+
+        if (list != null && !list.hasAttribute("multiple"))
+        {
+            for (Element other : children(list, "option"))
+            {
+                selected.put(other, false);
+            }
+        }
+
+        selected.put(option, true);
+    }
+
+    private void check(Element radio) throws WireException
+    {
+        String name = radio.getAttribute("name");
+
+        if (!name.isEmpty())
+        {
+            for (Element other : select(null, "xpath", "//input[@name=" + DomSnapshot.literal(name) + "]"))
+            {
+                selected.put(other, false);
+            }
+        }
+
+        selected.put(radio, true);
+    }
+
+    private static Element ancestor(Element element, String tag)
+    {
+        for (Node node = element; node instanceof Element; node = node.getParentNode())
+        {
+            if (tag.equals(((Element) node).getTagName()))
+            {
+                return (Element) node;
+            }
+        }
+
+        return null;
+    }
+
+    private static List<Element> children(Element parent, String tag)
+    {
+        List<Element> children = new ArrayList<Element>();
+        collect(parent, tag, children);
+        return children;
+    }
+
+    private static void collect(Node node, String tag, List<Element> found)
+    {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child instanceof Element && tag.equals(((Element) child).getTagName()))
+            {
+                found.add((Element) child);
+            }
+
+            collect(child, tag, found);
+        }
+    }
+
+    /*
+     * Scripts
+     */
+
+    private Object executeScript(String script, List<?> args, boolean async) throws WireException
+    {
+        if (Scripts.FIND_ELEMENTS.equals(script))
+        {
+            List<Object> results = new ArrayList<Object>();
+
+            for (Object locator : (List<?>) args.get(0))
+            {
+                results.add(locate((List<?>) locator));
+            }
+
+            return results;
+        }
+
+        if (async && Scripts.WAIT_FOR_ELEMENT.equals(script))
+        {
+            Object found = locate(args);
+
+            if (found instanceof Map && Boolean.TRUE.equals(args.get(2))
+                    && !isDisplayed(element((String) ((Map<?, ?>) found).get("ELEMENT"))))
+            {
+                found = null;
+            }
+
+            if (found == null)
+            {
+                // The page never changes, so the wait always times out
+                sleep(((Number) args.get(3)).longValue());
+            }
+
+            return found;
+        }
+
+        if (Scripts.RUN_ACTIONS.equals(script))
+        {
+            return runActions((List<?>) args.get(0), Boolean.TRUE.equals(args.get(1)));
+        }
+
+        if (script.contains("document.readyState"))
+        {
+            return "complete";
+        }
+
+        return null;
+    }
+
+    /**
+     * Locate the first element of a [strategy, value] pair, as the locate
+     * script does.
+     *
+     * @return - the element reference, null if nothing matches, or the error
+     *         message
+     */
+    private Object locate(List<?> locator)
+    {
+        try
+        {
+            List<Element> found = select(null, (String) locator.get(0), (String) locator.get(1));
+            return found.isEmpty() ? null : reference(found.get(0));
+        } catch (WireException e)
+        {
+            return e.getMessage();
+        }
+    }
+
+    private List<Object> runActions(List<?> steps, boolean stopOnError)
+    {
+        List<Object> failures = new ArrayList<Object>();
+
+        for (int i = 0; i < steps.size(); i++)
+        {
+            List<?> step = (List<?>) steps.get(i);
+
+            try
+            {
+                List<Element> found = select(null, (String) step.get(0), (String) step.get(1));
+
+                if (found.isEmpty())
+                {
+                    throw new WireException(NO_SUCH_ELEMENT, "Unable to locate element: " + step.get(0) + ","
+                            + step.get(1));
+                }
+
+                runAction(found.get(0), (String) step.get(2), (String) step.get(3));
+            } catch (WireException e)
+            {
+                failures.add(Arrays.<Object> asList(i, e.getMessage()));
+
+                if (stopOnError)
+                {
+                    break;
+                }
+            }
+        }
+
+        return failures;
+    }
+
+    private void runAction(Element element, String action, String argument) throws WireException
+    {
+        String type = element.getAttribute("type").toLowerCase(Locale.ENGLISH);
+        boolean list = "select".equals(element.getTagName());
+
+        checkEditable(element);
+
+        if ("CLEAR".equals(action))
+        {
+            values.put(element, "");
+        } else if ("SELECT_BY_TEXT".equals(action) || "FILL".equals(action) && list)
+        {
+            selectOption(element, argument, -1);
+        } else if ("SELECT_BY_INDEX".equals(action))
+        {
+            selectOption(element, null, Integer.parseInt(argument));
+        } else if ("FILL".equals(action) && ("checkbox".equals(type) || "radio".equals(type)))
+        {
+            if ("radio".equals(type) && "true".equals(argument))
+            {
+                check(element);
+            } else
+            {
+                selected.put(element, "true".equals(argument));
+            }
+        } else if ("SET_VALUE".equals(action) || "FILL".equals(action))
+        {
+            values.put(element, argument);
+        } else
+        {
+            throw new WireException(UNKNOWN_ERROR, "Unknown action " + action);
+        }
+    }
+
+    private void selectOption(Element list, String text, int index) throws WireException
+    {
+        if (!"select".equals(list.getTagName()))
+        {
+            throw new WireException(UNKNOWN_ERROR, "Element should have been \"select\" but was \""
+                    + list.getTagName() + "\"");
+        }
+
+        List<Element> options = children(list, "option");
+
+        for (int i = 0; i < options.size(); i++)
+        {
+            Element option = options.get(i);
+
+            if (text == null ? i == index : DomSnapshot.text(option).equals(text))
+            {
+                select(option);
+                return;
+            }
+        }
+
+        throw new WireException(NO_SUCH_ELEMENT, "Cannot locate option with "
+                + (text == null ? "index: " + index : "text: " + text));
+    }
+
+    /*
+     * Parameters
+     */
+
+    private static String string(Map<?, ?> body, String name) throws WireException
+    {
+        Object value = body.get(name);
+
+        if (!(value instanceof String))
+        {
+            throw new WireException(UNKNOWN_ERROR, "Missing parameter '" + name + "'");
+        }
+
+        return (String) value;
+    }
+
+    private static Number number(Map<?, ?> body, String name) throws WireException
+    {
+        Object value = body.get(name);
+
+        if (!(value instanceof Number))
+        {
+            throw new WireException(UNKNOWN_ERROR, "Missing parameter '" + name + "'");
+        }
+
+        return (Number) value;
+    }
+
+    private static List<?> list(Map<?, ?> body, String name) throws WireException
+    {
+        Object value = body.get(name);
+
+        if (!(value instanceof List))
+        {
+            throw new WireException(UNKNOWN_ERROR, "Missing parameter '" + name + "'");
+        }
+
+        return (List<?>) value;
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A failed command, with its status code of the wire protocol.
+     */
+    static final class WireException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int         status;
+
+        WireException(int status, String message)
+        {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus()
+        {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package io.xschema.oldmonk.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.xschema.oldmonk.core.FakeSession.WireException;
+
+/**
+ * Local HTTP server speaking enough of the WebDriver JSON wire protocol to
+ * run page objects without a browser, e.g. to measure the overhead of the
+ * framework or to load test it. Pages are served from memory and every
+ * command can be delayed to simulate the latency of a browser:
+ *
+ * <pre>
+ * FakeWebDriverServer server = new FakeWebDriverServer();
+ * server.addPage("http://app.test/login", loginHtml);
+ * server.setLatency(5, TimeUnit.MILLISECONDS);
+ * URL hub = server.start();
+ *
+ * WebDriver driver = new WebDriverFactory().createDriver(hub, caps);
+ * </pre>
+ *
+ * Pages are parsed once per navigation and never change: there is no
+ * script engine and no layout. Elements are displayed unless hidden by
+ * their markup, links and submit buttons load their target, and form fields
+ * keep the values typed into them. Navigating to a page which was not added
+ * loads a 'Not Found' page. Frames are not supported, and each session has a
+ * single window.
+ * <p>
+ * The JDK HTTP server does not disable Nagle's algorithm by default, so small
+ * responses may wait for delayed acknowledgements. Run benchmarks with
+ * '-Dsun.net.httpserver.nodelay=true' to measure the framework rather than
+ * the TCP stack.
+ */
+public class FakeWebDriverServer
+{
+    private static final Logger            LOGGER       = LoggerFactory.getLogger(FakeWebDriverServer.class.getName());
+
+    public static final String             CONTEXT_PATH = "/wd/hub";
+
+    private static final int               NO_SESSION   = 6;
+
+    private static final Gson              GSON         = new GsonBuilder().serializeNulls().create();
+
+    private final Map<String, String>      pages        = new ConcurrentHashMap<String, String>();
+    private final Map<String, FakeSession> sessions     = new ConcurrentHashMap<String, FakeSession>();
+
+    private volatile long                  latencyNanos;
+
+    private final AtomicLong               commands     = new AtomicLong();
+    private final AtomicLong               sessionCount = new AtomicLong();
+
+    private HttpServer                     server;
+    private ExecutorService                executor;
+
+    /**
+     * Serve a page at the given url.
+     *
+     * @param url
+     *            - absolute url of the page
+     * @param html
+     *            - page source
+     * @return - this server
+     */
+    public FakeWebDriverServer addPage(String url, String html)
+    {
+        pages.put(url, html);
+        return this;
+    }
+
+    /**
+     * Replace the page served at the given url, including the document of
+     * every session currently showing it, as a script of the page would.
+     *
+     * @param url
+     *            - absolute url of the page
+     * @param html
+     *            - new page source
+     */
+    public void changePage(String url, String html)
+    {
+        pages.put(url, html);
+
+        for (FakeSession session : sessions.values())
+        {
+            session.reload(url);
+        }
+    }
+
+    /**
+     * Delay the response to every command by the given time, none by default.
+     */
+    public void setLatency(long latency, TimeUnit unit)
+    {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Start the server on a free port of the loopback interface.
+     *
+     * @return - the url to create remote drivers with
+     */
+    public URL start() throws IOException
+    {
+        return start(0);
+    }
+
+    /**
+     * Start the server on the given port of the loopback interface.
+     *
+     * @return - the url to create remote drivers with
+     */
+    public synchronized URL start(int port) throws IOException
+    {
+        if (server != null)
+        {
+            throw new IllegalStateException("Server is already running at " + getUrl());
+        }
+
+        executor = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "oldmonk-fake-webdriver-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(CONTEXT_PATH, new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                FakeWebDriverServer.this.handle(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        LOGGER.info("Fake WebDriver server listening at " + getUrl());
+
+        return getUrl();
+    }
+
+    /**
+     * Stop the server and forget all sessions.
+     */
+    public synchronized void stop()
+    {
+        if (server == null)
+        {
+            return;
+        }
+
+        server.stop(0);
+        executor.shutdownNow();
+        sessions.clear();
+
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * @return - the url to create remote drivers with
+     */
+    public synchronized URL getUrl()
+    {
+        if (server == null)
+        {
+            throw new IllegalStateException("Server is not running");
+        }
+
+        try
+        {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(),
+                    CONTEXT_PATH);
+        } catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return - commands served since the server was created
+     */
+    public long getCommandCount()
+    {
+        return commands.get();
+    }
+
+    /**
+     * @return - sessions created since the server was created
+     */
+    public long getSessionCount()
+    {
+        return sessionCount.get();
+    }
+
+    /**
+     * @return - sessions not quit yet
+     */
+    public int getOpenSessionCount()
+    {
+        return sessions.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String method = exchange.getRequestMethod();
+        List<String> path = new ArrayList<String>();
+
+        for (String segment : exchange.getRequestURI().getPath().substring(CONTEXT_PATH.length()).split("/"))
+        {
+            if (!segment.isEmpty())
+            {
+                path.add(segment);
+            }
+        }
+
+        String sessionId = path.size() > 1 && "session".equals(path.get(0)) ? path.get(1) : null;
+
+        try
+        {
+            Map<?, ?> body = body(exchange);
+            commands.incrementAndGet();
+
+            if (latencyNanos > 0)
+            {
+                TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            }
+
+            Object value = dispatch(method, path, body);
+
+            if (sessionId == null && value instanceof FakeSession)
+            {
+                sessionId = ((FakeSession) value).getId();
+                value = ((FakeSession) value).getCapabilities();
+            }
+
+            respond(exchange, 200, sessionId, 0, value);
+        } catch (WireException e)
+        {
+            respond(exchange, e.getStatus() == FakeSession.UNKNOWN_COMMAND ? 404 : 500, sessionId, e.getStatus(),
+                    Collections.singletonMap("message", e.getMessage()));
+        } catch (RuntimeException | InterruptedException e)
+        {
+            LOGGER.debug("Fake WebDriver command " + method + " " + path + " failed", e);
+            respond(exchange, 500, sessionId, FakeSession.UNKNOWN_ERROR,
+                    Collections.singletonMap("message", String.valueOf(e)));
+        } finally
+        {
+            exchange.close();
+        }
+    }
+
+    private Object dispatch(String method, List<String> path, Map<?, ?> body) throws WireException
+    {
+        String resource = path.isEmpty() ? "" : path.get(0);
+
+        if ("GET".equals(method) && "status".equals(resource) && path.size() == 1)
+        {
+            return Collections.singletonMap("build", Collections.singletonMap("version", "fake"));
+        }
+
+        if ("GET".equals(method) && "sessions".equals(resource) && path.size() == 1)
+        {
+            List<Object> open = new ArrayList<Object>();
+
+            for (FakeSession session : sessions.values())
+            {
+                Map<String, Object> entry = new LinkedHashMap<String, Object>();
+                entry.put("id", session.getId());
+                entry.put("capabilities", session.getCapabilities());
+                open.add(entry);
+            }
+
+            return open;
+        }
+
+        if (!"session".equals(resource))
+        {
+            throw new WireException(FakeSession.UNKNOWN_COMMAND, "Unknown command " + method + " " + path);
+        }
+
+        if (path.size() == 1 && "POST".equals(method))
+        {
+            return newSession(body);
+        }
+
+        FakeSession session = path.size() > 1 ? sessions.get(path.get(1)) : null;
+
+        if (session == null)
+        {
+            throw new WireException(NO_SESSION, "No active session " + (path.size() > 1 ? path.get(1) : ""));
+        }
+
+        if (path.size() == 2 && "DELETE".equals(method))
+        {
+            sessions.remove(session.getId());
+            return null;
+        }
+
+        if (path.size() == 2 && "GET".equals(method))
+        {
+            return session.getCapabilities();
+        }
+
+        return session.execute(method, path.subList(2, path.size()), body);
+    }
+
+    private FakeSession newSession(Map<?, ?> body) throws WireException
+    {
+        Map<String, Object> capabilities = new LinkedHashMap<String, Object>();
+        Object desired = body.get("desiredCapabilities");
+
+        if (desired instanceof Map)
+        {
+            for (Map.Entry<?, ?> capability : ((Map<?, ?>) desired).entrySet())
+            {
+                capabilities.put(String.valueOf(capability.getKey()), capability.getValue());
+            }
+        }
+
+        if (!capabilities.containsKey("browserName"))
+        {
+            capabilities.put("browserName", "fake");
+        }
+
+        for (String supported : Arrays.asList("javascriptEnabled", "takesScreenshot", "cssSelectorsEnabled"))
+        {
+            capabilities.put(supported, true);
+        }
+
+        FakeSession session = new FakeSession(UUID.randomUUID().toString(), capabilities, pages);
+        sessions.put(session.getId(), session);
+        sessionCount.incrementAndGet();
+
+        return session;
+    }
+
+    private static Map<?, ?> body(HttpExchange exchange) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        try (InputStream in = exchange.getRequestBody())
+        {
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                content.write(buffer, 0, read);
+            }
+        }
+
+        String text = new String(content.toByteArray(), StandardCharsets.UTF_8).trim();
+        Map<?, ?> body = text.isEmpty() ? null : GSON.fromJson(text, Map.class);
+
+        return body == null ? Collections.emptyMap() : body;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String sessionId, int status, Object value)
+            throws IOException
+    {
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("sessionId", sessionId);
+        response.put("status", status);
+        response.put("value", value);
+
+        byte[] bytes = GSON.toJson(response).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+}
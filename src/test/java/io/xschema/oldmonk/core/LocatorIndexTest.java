@@ -0,0 +1,53 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Properties;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Caching of template instantiations by the locator index.
+ */
+public class LocatorIndexTest
+{
+    private LocatorIndex    index;
+    private LocatorTemplate template;
+
+    @BeforeMethod
+    public void compile()
+    {
+        Properties props = new Properties();
+        props.setProperty("cell", "XPATH,//tr[@id='$row']/td[@class='${column}']");
+
+        index = LocatorIndex.compile(props, 16);
+        template = index.getTemplate("cell");
+        assertNotNull(template);
+    }
+
+    @Test
+    public void reusesInstantiationWithEqualArguments() throws Exception
+    {
+        Locator first = index.instantiate(template, new String[] { "r1", "name" });
+
+        assertSame(index.instantiate(template, new String[] { "r1", "name" }), first);
+        assertEquals(first.getValue(), "//tr[@id='r1']/td[@class='name']");
+    }
+
+    @Test
+    public void keepsCachedKeyWhenCallerReusesArguments() throws Exception
+    {
+        String[] arguments = { "r1", "name" };
+        Locator first = index.instantiate(template, arguments);
+
+        arguments[0] = "r2";
+        Locator second = index.instantiate(template, arguments);
+
+        assertEquals(second.getValue(), "//tr[@id='r2']/td[@class='name']");
+        assertSame(index.instantiate(template, new String[] { "r1", "name" }), first);
+        assertSame(index.instantiate(template, new String[] { "r2", "name" }), second);
+    }
+}
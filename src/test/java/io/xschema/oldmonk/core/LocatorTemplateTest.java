@@ -0,0 +1,124 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Parsing parameterized locators into templates and building locators from
+ * them.
+ */
+public class LocatorTemplateTest
+{
+    @DataProvider
+    public Object[][] withoutPlaceholders()
+    {
+        return new Object[][] {
+                { "ID,login" },
+                { "CSS_SELECTOR,a[href$='.pdf']" },
+                { "XPATH,//span[text()='$5']" },
+                { "XPATH,//span[text()='${}']" },
+                { "XPATH,//span[text()='${price']" },
+                { "XPATH,//span[text()='$']" } };
+    }
+
+    @Test(dataProvider = "withoutPlaceholders")
+    public void parsesLocatorWithoutPlaceholdersToNull(String definition) throws Exception
+    {
+        assertNull(LocatorTemplate.parse(Locator.parse(definition)));
+    }
+
+    @Test
+    public void fillsPlaceholdersInOrderOfFirstAppearance() throws Exception
+    {
+        LocatorTemplate template = template("CSS_SELECTOR,#${form} input[name='$field'], #${form}_$field");
+
+        assertEquals(template.getParameterNames(), new String[] { "form", "field" });
+
+        Locator locator = template.instantiate(new String[] { "login", "user" });
+        assertEquals(locator.getStrategy(), LocatorStrategy.CSS_SELECTOR);
+        assertEquals(locator.getValue(), "#login input[name='user'], #login_user");
+    }
+
+    @Test
+    public void endsPlaceholderNameAtFirstNonNameCharacter() throws Exception
+    {
+        LocatorTemplate template = template("XPATH,//tr[$row_1]/td[${col}2]/a[@href$='.pdf']");
+
+        assertEquals(template.getParameterNames(), new String[] { "row_1", "col" });
+        assertEquals(template.instantiate(new String[] { "3", "4" }).getValue(), "//tr[3]/td[42]/a[@href$='.pdf']");
+    }
+
+    @Test
+    public void samplesEveryPlaceholderWithTheSameValue() throws Exception
+    {
+        assertEquals(template("XPATH,//tr[@id='$row']/td[@class='${column}']").sample("x"),
+                "//tr[@id='x']/td[@class='x']");
+    }
+
+    @Test
+    public void ordersNamedArguments() throws Exception
+    {
+        LocatorTemplate template = template("XPATH,//tr[@id='$row']/td[@class='${column}']");
+
+        Map<String, String> arguments = new HashMap<String, String>();
+        arguments.put("column", "name");
+        arguments.put("row", "r1");
+        arguments.put("unused", "x");
+
+        assertEquals(template.arguments(arguments), new String[] { "r1", "name" });
+
+        arguments.remove("row");
+        try
+        {
+            template.arguments(arguments);
+            fail("missing argument accepted");
+        } catch (IllegalArgumentException e)
+        {
+            assertEquals(e.getMessage(), "No replacement value passed for placeholder 'row' of locator "
+                    + "'XPATH,//tr[@id='$row']/td[@class='${column}']'!");
+        }
+    }
+
+    @Test
+    public void rejectsWrongArguments() throws Exception
+    {
+        LocatorTemplate template = template("XPATH,//a[text()='$value']");
+
+        for (String[] arguments : new String[][] { {}, { "a", "b" }, { null } })
+        {
+            try
+            {
+                template.instantiate(arguments);
+                fail("arguments accepted: " + arguments.length);
+            } catch (IllegalArgumentException e)
+            {
+                assertNotNull(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void returnsCopyOfParameterNames() throws Exception
+    {
+        LocatorTemplate template = template("XPATH,//a[text()='$value']");
+
+        template.getParameterNames()[0] = "changed";
+
+        assertEquals(template.getParameterNames(), new String[] { "value" });
+    }
+
+    private static LocatorTemplate template(String definition) throws Exception
+    {
+        LocatorTemplate template = LocatorTemplate.parse(Locator.parse(definition));
+        assertNotNull(template, definition);
+        return template;
+    }
+}
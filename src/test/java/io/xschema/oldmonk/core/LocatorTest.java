@@ -0,0 +1,68 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.openqa.selenium.By;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.exception.InvalidLocatorStrategyException;
+
+/**
+ * Parsing object repository entries into locators.
+ */
+public class LocatorTest
+{
+    @DataProvider
+    public Object[][] valid()
+    {
+        return new Object[][] {
+                { "ID,login", LocatorStrategy.ID, "login", By.id("login") },
+                { "NAME,email", LocatorStrategy.NAME, "email", By.name("email") },
+                { "XPATH,//a[contains(@class,'mail')]", LocatorStrategy.XPATH, "//a[contains(@class,'mail')]",
+                        By.xpath("//a[contains(@class,'mail')]") },
+                { "CSS_SELECTOR,h1, h2", LocatorStrategy.CSS_SELECTOR, "h1, h2", By.cssSelector("h1, h2") },
+                { " TAG_NAME ,form", LocatorStrategy.TAG_NAME, "form", By.tagName("form") },
+                { "CLASS_NAME,menu", LocatorStrategy.CLASS_NAME, "menu", By.className("menu") },
+                { "LINK_TEXT, Sign in", LocatorStrategy.LINK_TEXT, " Sign in", By.linkText(" Sign in") },
+                { "PARTIAL_LINK_TEXT,Sign", LocatorStrategy.PARTIAL_LINK_TEXT, "Sign", By.partialLinkText("Sign") } };
+    }
+
+    @DataProvider
+    public Object[][] malformed()
+    {
+        return new Object[][] {
+                { "login", "Expected 'LOCATOR_STRATEGY,locator' but found 'login'" },
+                { "ID,", "Locator value can not be empty in 'ID,'" },
+                { "JQUERY,div.a", "Unknown locator strategy 'JQUERY'" },
+                { "id,login", "Unknown locator strategy 'id'" },
+                { ",login", "Unknown locator strategy ''" } };
+    }
+
+    @Test(dataProvider = "valid")
+    public void splitsStrategyAtFirstComma(String definition, LocatorStrategy strategy, String value, By by)
+            throws Exception
+    {
+        Locator locator = Locator.parse(definition);
+
+        assertEquals(locator.getStrategy(), strategy);
+        assertEquals(locator.getValue(), value);
+        assertEquals(locator.getBy(), by);
+        assertEquals(Locator.parse(locator.toString()).getValue(), value, "parsed again from its string form");
+    }
+
+    @Test(dataProvider = "malformed")
+    public void rejectsMalformedDefinition(String definition, String message)
+    {
+        try
+        {
+            Locator.parse(definition);
+            fail("'" + definition + "' parsed");
+        } catch (InvalidLocatorStrategyException e)
+        {
+            assertTrue(e.getMessage().contains(message), e.getMessage());
+        }
+    }
+}
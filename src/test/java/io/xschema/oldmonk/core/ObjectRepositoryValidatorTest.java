@@ -0,0 +1,89 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.exception.ObjectRepositoryValidationException;
+
+/**
+ * Fatal problems and warnings reported by the object repository validator.
+ */
+public class ObjectRepositoryValidatorTest
+{
+    private File dir;
+
+    @BeforeMethod
+    public void createRepository() throws IOException
+    {
+        dir = Files.createTempDirectory("oldmonk-validator").toFile();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteRepository()
+    {
+        for (File f : dir.listFiles())
+        {
+            f.delete();
+        }
+
+        dir.delete();
+    }
+
+    @Test
+    public void acceptsSelectorsTheCssParserDoesNotKnow() throws Exception
+    {
+        write("modern.properties",
+                "negation=CSS_SELECTOR,div:not(.a, .b)",
+                "relational=CSS_SELECTOR,a:has(> img)",
+                "caseInsensitive=CSS_SELECTOR,input[type=checkbox i]",
+                "plain=CSS_SELECTOR,#${form} input[name='${field}']");
+
+        assertEquals(ObjectRepositoryValidator.validate(dir), 4);
+    }
+
+    @Test
+    public void failsOnMalformedXPathAndStrategy() throws Exception
+    {
+        write("broken.properties",
+                "xpath=XPATH,//div[@id='a'",
+                "strategy=JQUERY,div.a",
+                "css=CSS_SELECTOR,div:not(.a, .b)",
+                "valid=ID,login");
+
+        try
+        {
+            ObjectRepositoryValidator.validate(dir);
+            fail("malformed locators are not reported");
+        } catch (ObjectRepositoryValidationException e)
+        {
+            List<String> problems = e.getProblems();
+
+            assertEquals(problems.size(), 2, problems.toString());
+            assertTrue(problems.get(0).startsWith("broken.properties: strategy - "), problems.get(0));
+            assertTrue(problems.get(1).startsWith("broken.properties: xpath - Invalid XPath"), problems.get(1));
+        }
+    }
+
+    private void write(String name, String... lines) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+
+        for (String line : lines)
+        {
+            content.append(line).append('\n');
+        }
+
+        Files.write(new File(dir, name).toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
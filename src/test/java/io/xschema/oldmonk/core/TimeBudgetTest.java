@@ -0,0 +1,108 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.core.TimeBudget.Category;
+
+/**
+ * Charging nested activities of a test to its time budget.
+ */
+public class TimeBudgetTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void finishBudget()
+    {
+        TimeBudget.finish();
+    }
+
+    @Test
+    public void chargesInnermostActivityOnly() throws Exception
+    {
+        TimeBudget budget = TimeBudget.start("nested", 0);
+
+        assertTrue(TimeBudget.begin(Category.COMMAND));
+        Thread.sleep(20);
+
+        assertTrue(TimeBudget.begin(Category.WAIT));
+        Thread.sleep(300);
+        TimeBudget.end();
+
+        Thread.sleep(20);
+        TimeBudget.end();
+
+        assertSame(TimeBudget.finish(), budget);
+
+        assertTrue(budget.getWaitMillis() >= 300, budget.toString());
+        assertTrue(budget.getCommandMillis() >= 40, budget.toString());
+        assertTrue(budget.getCommandMillis() < 300, "wait not charged to the command: " + budget);
+        assertTrue(budget.getWallMillis() >= budget.getWaitMillis() + budget.getCommandMillis(), budget.toString());
+        assertFalse(budget.isExceeded(), "no limit");
+    }
+
+    @Test
+    public void growsNestingBeyondInitialDepth() throws Exception
+    {
+        TimeBudget budget = TimeBudget.start("deep", 0);
+
+        for (int i = 0; i < 10; i++)
+        {
+            TimeBudget.begin(i % 2 == 0 ? Category.COMMAND : Category.WAIT);
+        }
+
+        Thread.sleep(50);
+
+        for (int i = 0; i < 10; i++)
+        {
+            TimeBudget.end();
+        }
+
+        // The innermost activity is a wait, the others took no time
+        assertTrue(budget.getWaitMillis() >= 50, budget.toString());
+        assertTrue(budget.getCommandMillis() < 50, budget.toString());
+    }
+
+    @Test
+    public void exceedsBudgetByWaitingOnly() throws Exception
+    {
+        TimeBudget budget = TimeBudget.start("slow", 50);
+
+        TimeBudget.begin(Category.COMMAND);
+        Thread.sleep(80);
+        TimeBudget.end();
+        assertFalse(budget.isExceeded(), "commands do not count against the budget");
+
+        TimeBudget.begin(Category.WAIT);
+        Thread.sleep(80);
+        TimeBudget.end();
+        assertTrue(budget.isExceeded(), budget.toString());
+        assertTrue(budget.toString().endsWith("exceeded budget of 50 ms"), budget.toString());
+    }
+
+    @Test
+    public void ignoresActivitiesWithoutBudget()
+    {
+        assertNull(TimeBudget.current());
+        assertFalse(TimeBudget.begin(Category.WAIT));
+        TimeBudget.end();
+        assertNull(TimeBudget.finish());
+    }
+
+    @Test
+    public void ignoresUnmatchedEnd()
+    {
+        TimeBudget budget = TimeBudget.start("unmatched", 0);
+
+        TimeBudget.end();
+
+        assertEquals(budget.getWaitMillis(), 0);
+        assertEquals(budget.getCommandMillis(), 0);
+        assertSame(TimeBudget.current(), budget);
+    }
+}
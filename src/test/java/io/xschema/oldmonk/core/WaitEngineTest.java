@@ -0,0 +1,146 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+
+/**
+ * Poll intervals and timeouts of the wait engine, with conditions which do
+ * not need a browser.
+ */
+public class WaitEngineTest
+{
+    private final WaitEngine engine = WaitEngine.getDefault().withTimeout(2, TimeUnit.SECONDS)
+            .withFirstPoll(50, TimeUnit.MILLISECONDS).withMaxPoll(500, TimeUnit.MILLISECONDS).withBackoff(1.5);
+
+    @Test
+    public void growsPollIntervalUpToMaximum()
+    {
+        long[] expected = { 50, 75, 113, 170, 255, 383, 500, 500 };
+        long interval = engine.getFirstPollMillis();
+
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(interval, expected[i], "interval " + i);
+            interval = engine.nextPoll(interval);
+        }
+    }
+
+    @Test
+    public void keepsPollIntervalWithoutBackoff()
+    {
+        WaitEngine fixed = engine.withBackoff(1);
+
+        assertEquals(fixed.nextPoll(50), 50);
+        assertEquals(fixed.nextPoll(fixed.nextPoll(50)), 50);
+    }
+
+    @Test
+    public void keepsPollSettingsConsistent()
+    {
+        WaitEngine slowFirst = engine.withFirstPoll(800, TimeUnit.MILLISECONDS);
+        assertEquals(slowFirst.getMaxPollMillis(), 800);
+
+        WaitEngine fastMax = engine.withMaxPoll(20, TimeUnit.MILLISECONDS);
+        assertEquals(fastMax.getFirstPollMillis(), 20);
+
+        try
+        {
+            engine.withBackoff(0.5);
+            fail("shrinking poll interval accepted");
+        } catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage().startsWith("Invalid wait settings"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void checksRightAwayThenSleepsGrowingIntervals()
+    {
+        final List<Long> checks = new ArrayList<Long>();
+
+        String value = engine.until(null, "fifth check", new Function<WebDriver, String>()
+        {
+            @Override
+            public String apply(WebDriver driver)
+            {
+                checks.add(System.nanoTime());
+                return checks.size() < 5 ? null : "done";
+            }
+        });
+
+        assertEquals(value, "done");
+        assertEquals(checks.size(), 5);
+
+        long interval = engine.getFirstPollMillis();
+        for (int i = 1; i < checks.size(); i++)
+        {
+            long slept = TimeUnit.NANOSECONDS.toMillis(checks.get(i) - checks.get(i - 1));
+
+            assertTrue(slept >= interval - 1, "slept " + slept + " ms before check " + i + ", expected " + interval);
+            interval = engine.nextPoll(interval);
+        }
+    }
+
+    @Test
+    public void timesOutWithLastMissingElement()
+    {
+        final NoSuchElementException missing = new NoSuchElementException("no result");
+        long start = System.nanoTime();
+
+        try
+        {
+            engine.withTimeout(300, TimeUnit.MILLISECONDS).until(null, "result", new Function<WebDriver, Object>()
+            {
+                @Override
+                public Object apply(WebDriver driver)
+                {
+                    throw missing;
+                }
+            });
+            fail("wait for a missing element did not time out");
+        } catch (TimeoutException e)
+        {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(e.getMessage().startsWith("Timed out after 300 ms waiting for 'result'"), e.getMessage());
+            assertSame(e.getCause(), missing);
+            assertTrue(waited >= 299, "waited " + waited + " ms");
+        }
+    }
+
+    @Test
+    public void checksOnceWithoutTimeout()
+    {
+        final int[] checks = { 0 };
+
+        try
+        {
+            engine.withTimeout(0, TimeUnit.MILLISECONDS).until(null, "flag", new Function<WebDriver, Boolean>()
+            {
+                @Override
+                public Boolean apply(WebDriver driver)
+                {
+                    checks[0]++;
+                    return Boolean.FALSE;
+                }
+            });
+            fail("false condition did not time out");
+        } catch (TimeoutException e)
+        {
+            assertEquals(checks[0], 1);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.xschema.oldmonk.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.core.XPathOptimizer.NotRewritableException;
+import io.xschema.oldmonk.utils.ObjectRepository;
+
+/**
+ * XPath expressions the optimizer rewrites, the ones it must leave alone, and
+ * optimized copies of an object repository.
+ */
+public class XPathOptimizerTest
+{
+    private File repositoryDir;
+    private File outputDir;
+
+    @BeforeMethod
+    public void createDirectories() throws IOException
+    {
+        repositoryDir = Files.createTempDirectory("oldmonk-repository").toFile();
+        outputDir = new File(Files.createTempDirectory("oldmonk-optimized").toFile(), "out");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDirectories()
+    {
+        delete(repositoryDir);
+        delete(outputDir.getParentFile());
+    }
+
+    @DataProvider
+    public Object[][] rewritable()
+    {
+        return new Object[][] {
+                { "//*[@id='login']", "ID,login" },
+                { "//*[@name='email']", "NAME,email" },
+                { "//form", "TAG_NAME,form" },
+                { "//input[@id='q']", "CSS_SELECTOR,input[id=\"q\"]" },
+                { "//div[@class='menu']//a[@href]", "CSS_SELECTOR,div[class=\"menu\"] a[href]" },
+                { "//ul[contains(@class,'nav')]/li", "CSS_SELECTOR,ul[class*=\"nav\"] > li" },
+                { "//a[starts-with(@href,'/mail')]", "CSS_SELECTOR,a[href^=\"/mail\"]" },
+                { "//input[@name='user' and @required]", "CSS_SELECTOR,input[name=\"user\"][required]" },
+                { "//table//tr/td", "CSS_SELECTOR,table tr > td" },
+                { "//*[@data-test=\"it's\"]", "CSS_SELECTOR,[data-test=\"it's\"]" } };
+    }
+
+    @DataProvider
+    public Object[][] notRewritable()
+    {
+        return new Object[][] {
+                { "//ul/li[2]" },
+                { "(//a)[1]" },
+                { "//li[last()]" },
+                { "//a[text()='Sign in']" },
+                { "//a[contains(text(),'Sign')]" },
+                { "//a[contains(.,'Sign')]" },
+                { "//a | //button" },
+                { "//input[@id='a' or @id='b']" },
+                { "//li/following-sibling::li" },
+                { "//a/parent::div" },
+                { "//div/ancestor::form" },
+                { "//a/.." },
+                { "//input[@type='checkbox']" },
+                { "//DIV" },
+                { "//svg:rect" },
+                { "id('login')" } };
+    }
+
+    @Test(dataProvider = "rewritable")
+    public void rewritesToFasterLocator(String xpath, String definition) throws Exception
+    {
+        assertEquals(XPathOptimizer.rewrite(xpath), definition);
+    }
+
+    @Test(dataProvider = "notRewritable")
+    public void leavesXPathAlone(String xpath)
+    {
+        try
+        {
+            fail(xpath + " rewritten to " + XPathOptimizer.rewrite(xpath));
+        } catch (NotRewritableException e)
+        {
+            assertFalse(e.getMessage().isEmpty(), "reason given");
+        }
+    }
+
+    @Test
+    public void keepsLocatorWhichCanNotBeRewritten() throws Exception
+    {
+        Map<String, String> unoptimized = new TreeMap<String, String>();
+        Locator locator = Locator.parse("XPATH,//ul/li[2]");
+
+        assertSame(XPathOptimizer.optimize("second", locator, unoptimized), locator);
+        assertTrue(unoptimized.containsKey("second"), unoptimized.toString());
+    }
+
+    @Test
+    public void neverRewritesParameterizedLocator() throws Exception
+    {
+        Map<String, String> unoptimized = new TreeMap<String, String>();
+        Locator locator = Locator.parse("XPATH,//*[@id='$value']");
+
+        assertSame(XPathOptimizer.optimize("row", locator, unoptimized), locator);
+    }
+
+    @Test
+    public void writesOptimizedCopyPerLocatorFile() throws Exception
+    {
+        write("login.properties", "username=XPATH,//*[@id='user']", "submit=XPATH,//button[text()='Sign in']",
+                "password=NAME,password");
+        write("menu.properties", "links=XPATH,//ul[contains(@class,'nav')]/li/a");
+        write("notes.txt", "ignored=XPATH,//*[@id='x']");
+
+        XPathOptimizer.Result result = XPathOptimizer.writeOptimizedRepository(repositoryDir, outputDir);
+
+        assertEquals(result.getRewrittenCount(), 2);
+        assertEquals(result.getUnoptimizedLocators().keySet().toString(), "[login.properties]");
+        assertEquals(result.getUnoptimizedLocators().get("login.properties").keySet().toString(), "[submit]");
+
+        assertFalse(new File(outputDir, "notes.txt").exists(), "only locator files are copied");
+
+        Properties login = ObjectRepository.load(new File(outputDir, "login.properties"));
+        assertEquals(login.getProperty("username"), "ID,user");
+        assertEquals(login.getProperty("submit"), "XPATH,//button[text()='Sign in']");
+        assertEquals(login.getProperty("password"), "NAME,password");
+
+        Properties menu = ObjectRepository.load(new File(outputDir, "menu.properties"));
+        assertEquals(menu.getProperty("links"), "CSS_SELECTOR,ul[class*=\"nav\"] > li > a");
+
+        String content = new String(Files.readAllBytes(new File(outputDir, "login.properties").toPath()),
+                StandardCharsets.ISO_8859_1);
+        assertTrue(content.contains("# not optimized: "), content);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void refusesToOverwriteRepository() throws Exception
+    {
+        XPathOptimizer.writeOptimizedRepository(repositoryDir, repositoryDir);
+    }
+
+    private void write(String name, String... lines) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+
+        for (String line : lines)
+        {
+            content.append(line).append('\n');
+        }
+
+        Files.write(new File(repositoryDir, name).toPath(), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void delete(File dir)
+    {
+        File[] files = dir.listFiles();
+
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                delete(f);
+            }
+        }
+
+        dir.delete();
+    }
+}
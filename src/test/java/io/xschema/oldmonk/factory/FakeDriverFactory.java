@@ -0,0 +1,90 @@
+package io.xschema.oldmonk.factory;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Driver factory starting sessions of a fake WebDriver server, whatever the
+ * capabilities and hub url asked for. Starts can be made to fail or to take
+ * their time.
+ */
+class FakeDriverFactory implements DriverFactory
+{
+    private final URL           url;
+    private final AtomicInteger started  = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long       startDelayMillis;
+
+    /**
+     * @param url
+     *            - url of the fake WebDriver server
+     */
+    FakeDriverFactory(URL url)
+    {
+        this.url = url;
+    }
+
+    /**
+     * Fail the given number of the following starts.
+     */
+    void failNext(int count)
+    {
+        failures.set(count);
+    }
+
+    /**
+     * Delay every start by the given time, none by default.
+     */
+    void setStartDelay(long delay, TimeUnit unit)
+    {
+        startDelayMillis = unit.toMillis(delay);
+    }
+
+    /**
+     * @return - sessions started so far
+     */
+    int getStarted()
+    {
+        return started.get();
+    }
+
+    @Override
+    public WebDriver createDriver(DesiredCapabilities caps)
+    {
+        return start();
+    }
+
+    @Override
+    public WebDriver createDriver(URL remoteHubUrl, DesiredCapabilities caps)
+    {
+        return start();
+    }
+
+    private WebDriver start()
+    {
+        try
+        {
+            Thread.sleep(startDelayMillis);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while starting a session", e);
+        }
+
+        if (failures.getAndDecrement() > 0)
+        {
+            throw new WebDriverException("Browser failed to start");
+        }
+
+        WebDriver driver = new RemoteWebDriver(url, DesiredCapabilities.chrome());
+        started.incrementAndGet();
+
+        return driver;
+    }
+}
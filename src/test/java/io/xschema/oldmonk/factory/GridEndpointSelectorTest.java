@@ -0,0 +1,148 @@
+package io.xschema.oldmonk.factory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.core.FakeWebDriverServer;
+import io.xschema.oldmonk.factory.GridEndpointSelector.Endpoint;
+
+/**
+ * Balancing, ejection and re-admission of hubs, with fake WebDriver servers
+ * as hubs.
+ */
+public class GridEndpointSelectorTest
+{
+    private final List<FakeWebDriverServer> hubs    = new ArrayList<FakeWebDriverServer>();
+    private final List<WebDriver>           drivers = new ArrayList<WebDriver>();
+
+    private GridEndpointSelector            selector;
+
+    @BeforeMethod
+    public void startHubs() throws IOException
+    {
+        List<URL> urls = new ArrayList<URL>();
+
+        for (int i = 0; i < 3; i++)
+        {
+            FakeWebDriverServer hub = new FakeWebDriverServer();
+            urls.add(hub.start());
+            hubs.add(hub);
+        }
+
+        selector = new GridEndpointSelector(new WebDriverFactory(), urls);
+        selector.setProbeInterval(300, TimeUnit.MILLISECONDS);
+        selector.setProbeTimeout(1, TimeUnit.SECONDS);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopHubs()
+    {
+        for (WebDriver driver : drivers)
+        {
+            selector.quit(driver);
+        }
+
+        selector.shutdown();
+
+        for (FakeWebDriverServer hub : hubs)
+        {
+            hub.stop();
+        }
+
+        drivers.clear();
+        hubs.clear();
+    }
+
+    @Test
+    public void spreadsSessionsEvenly()
+    {
+        createDrivers(6);
+
+        for (FakeWebDriverServer hub : hubs)
+        {
+            assertEquals(hub.getOpenSessionCount(), 2, "open sessions of " + hub.getUrl());
+        }
+    }
+
+    @Test
+    public void ejectsStoppedHubAndAdmitsItOnceItAnswers() throws Exception
+    {
+        FakeWebDriverServer stopped = hubs.get(2);
+        URL url = stopped.getUrl();
+        stopped.stop();
+
+        createDrivers(6);
+
+        assertEquals(hubs.get(0).getOpenSessionCount(), 3);
+        assertEquals(hubs.get(1).getOpenSessionCount(), 3);
+
+        Endpoint endpoint = endpoint(url);
+        assertTrue(endpoint.isEjected(), "stopped hub is ejected");
+        assertEquals(endpoint.getFailures(), 3);
+
+        FakeWebDriverServer restarted = new FakeWebDriverServer();
+        restarted.start(url.getPort());
+        hubs.set(2, restarted);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (endpoint.isEjected() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+
+        assertFalse(endpoint.isEjected(), "restarted hub is admitted after a probe");
+
+        createDrivers(1);
+        assertEquals(restarted.getOpenSessionCount(), 1);
+    }
+
+    @Test
+    public void countsOnlyFailuresOfTheHub()
+    {
+        assertTrue(GridEndpointSelector.isHubFailure(new UnreachableBrowserException("unreachable")));
+        assertTrue(GridEndpointSelector.isHubFailure(new WebDriverException(new ConnectException())));
+        assertTrue(GridEndpointSelector.isHubFailure(new WebDriverException(new SocketTimeoutException())));
+
+        assertFalse(GridEndpointSelector.isHubFailure(new SessionNotCreatedException("no matching node")));
+        assertFalse(GridEndpointSelector.isHubFailure(new WebDriverException("cannot find capabilities")));
+    }
+
+    private void createDrivers(int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            drivers.add(selector.createDriver(DesiredCapabilities.chrome()));
+        }
+    }
+
+    private Endpoint endpoint(URL url)
+    {
+        for (Endpoint endpoint : selector.getEndpoints())
+        {
+            if (endpoint.getUrl().toExternalForm().equals(url.toExternalForm()))
+            {
+                return endpoint;
+            }
+        }
+
+        throw new AssertionError("No endpoint for " + url + " in " + selector.getEndpoints());
+    }
+}
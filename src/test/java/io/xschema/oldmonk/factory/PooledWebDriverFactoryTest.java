@@ -0,0 +1,211 @@
+package io.xschema.oldmonk.factory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.Proxy;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.firefox.FirefoxDriver;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.xschema.oldmonk.core.FakeWebDriverServer;
+
+/**
+ * Leasing, releasing, retiring and warming up pooled sessions, with sessions
+ * of a fake WebDriver server.
+ */
+public class PooledWebDriverFactoryTest
+{
+    private FakeWebDriverServer    server;
+    private FakeDriverFactory      delegate;
+    private PooledWebDriverFactory factory;
+
+    @BeforeMethod
+    public void startServer() throws IOException
+    {
+        server = new FakeWebDriverServer();
+        delegate = new FakeDriverFactory(server.start());
+        factory = new PooledWebDriverFactory(delegate);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopServer()
+    {
+        factory.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void leasesReleasedSessionAgain()
+    {
+        WebDriver first = factory.createDriver(DesiredCapabilities.chrome());
+        factory.release(first);
+
+        WebDriver second = factory.createDriver(DesiredCapabilities.chrome());
+        factory.release(second);
+
+        assertSame(second, first);
+        assertEquals(factory.getMisses(), 1);
+        assertEquals(factory.getHits(), 1);
+        assertEquals(server.getSessionCount(), 1);
+        assertEquals(server.getOpenSessionCount(), 1, "released session is kept open");
+    }
+
+    @Test
+    public void retiresSessionAfterMaxUses()
+    {
+        factory.setMaxUses(2);
+
+        WebDriver first = factory.createDriver(DesiredCapabilities.chrome());
+        factory.release(first);
+        factory.release(factory.createDriver(DesiredCapabilities.chrome()));
+
+        assertEquals(factory.getRetired(), 1);
+        assertEquals(server.getOpenSessionCount(), 0);
+
+        WebDriver next = factory.createDriver(DesiredCapabilities.chrome());
+        factory.release(next);
+
+        assertNotSame(next, first);
+        assertEquals(factory.getMisses(), 2);
+        assertEquals(server.getSessionCount(), 2);
+    }
+
+    @Test
+    public void retiresSessionWhoseResetFails()
+    {
+        WebDriver first = factory.createDriver(DesiredCapabilities.chrome());
+        first.close();
+        factory.release(first);
+
+        assertEquals(factory.getRetired(), 1);
+        assertEquals(server.getOpenSessionCount(), 0);
+
+        WebDriver next = factory.createDriver(DesiredCapabilities.chrome());
+        factory.release(next);
+
+        assertNotSame(next, first);
+        assertEquals(factory.getHits(), 0);
+    }
+
+    @Test
+    public void failsLeaseWhenMaxSessionsAreLeasedTooLong()
+    {
+        factory.setMaxSessions(1);
+        factory.setLeaseTimeout(300, TimeUnit.MILLISECONDS);
+
+        WebDriver leased = factory.createDriver(DesiredCapabilities.chrome());
+        long start = System.nanoTime();
+
+        try
+        {
+            factory.createDriver(DesiredCapabilities.chrome());
+            fail("lease beyond max sessions did not time out");
+        } catch (WebDriverException e)
+        {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(e.getMessage().startsWith("No session available"), e.getMessage());
+            assertTrue(waited >= 300, "waited " + waited + " ms");
+        }
+
+        assertEquals(server.getSessionCount(), 1);
+
+        factory.release(leased);
+        factory.release(factory.createDriver(DesiredCapabilities.chrome()));
+
+        assertEquals(factory.getHits(), 1);
+    }
+
+    @Test
+    public void sharesPoolBetweenCapabilitiesBuiltAnew()
+    {
+        WebDriver first = factory.createDriver(firefox("proxy:3128"));
+        factory.release(first);
+
+        WebDriver second = factory.createDriver(firefox("proxy:3128"));
+        factory.release(second);
+
+        assertSame(second, first);
+        assertEquals(factory.getHits(), 1);
+
+        WebDriver other = factory.createDriver(firefox("other-proxy:3128"));
+        factory.release(other);
+
+        assertNotSame(other, first);
+        assertEquals(factory.getMisses(), 2);
+    }
+
+    @Test
+    public void leaseWaitsForSessionWarmingUp()
+    {
+        delegate.setStartDelay(500, TimeUnit.MILLISECONDS);
+        factory.prewarm(null, DesiredCapabilities.chrome(), 1);
+
+        factory.release(factory.createDriver(DesiredCapabilities.chrome()));
+
+        assertEquals(delegate.getStarted(), 1, "lease did not start a session of its own");
+        assertEquals(factory.getWarmedUp(), 1);
+        assertEquals(factory.getHits(), 1);
+        assertEquals(factory.getMisses(), 0);
+    }
+
+    @Test
+    public void retriesFailedWarmUp()
+    {
+        delegate.failNext(1);
+        factory.prewarm(null, DesiredCapabilities.chrome(), 1);
+
+        factory.release(factory.createDriver(DesiredCapabilities.chrome()));
+
+        assertEquals(factory.getWarmUpFailures(), 1);
+        assertEquals(factory.getWarmedUp(), 1);
+        assertEquals(factory.getHits(), 1);
+        assertEquals(server.getSessionCount(), 1);
+    }
+
+    @Test
+    public void firstLeaseWarmsUpPrewarmSessions() throws Exception
+    {
+        factory.setPrewarmSessions(3);
+
+        factory.release(factory.createDriver(DesiredCapabilities.chrome()));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (factory.getWarmedUp() < 3 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+
+        assertEquals(factory.getWarmedUp(), 3);
+        assertEquals(factory.getMisses(), 0);
+        assertEquals(server.getSessionCount(), 3);
+    }
+
+    private static DesiredCapabilities firefox(String httpProxy)
+    {
+        Proxy proxy = new Proxy();
+        proxy.setHttpProxy(httpProxy);
+
+        FirefoxProfile profile = new FirefoxProfile();
+        profile.setPreference("intl.accept_languages", "de");
+
+        DesiredCapabilities caps = DesiredCapabilities.firefox();
+        caps.setCapability(CapabilityType.PROXY, proxy);
+        caps.setCapability(FirefoxDriver.PROFILE, profile);
+
+        return caps;
+    }
+}
@@ -0,0 +1,71 @@
+package io.xschema.oldmonk.listener;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlSuite.ParallelMode;
+import org.testng.xml.XmlTest;
+
+/**
+ * Number of sessions warmed up for the parallel settings of a suite.
+ */
+public class DriverPrewarmListenerTest
+{
+    @DataProvider
+    public Object[][] suites()
+    {
+        // parallel, thread-count, classes of each test, sessions
+        return new Object[][] {
+                { ParallelMode.NONE, 5, new int[] { 3, 3 }, 1 },
+                { ParallelMode.FALSE, 5, new int[] { 3, 3 }, 1 },
+                { ParallelMode.TESTS, 5, new int[] { 1, 1, 1 }, 3 },
+                { ParallelMode.TESTS, 2, new int[] { 1, 1, 1 }, 2 },
+                { ParallelMode.CLASSES, 8, new int[] { 3, 6 }, 6 },
+                { ParallelMode.CLASSES, 4, new int[] { 3, 6 }, 4 },
+                { ParallelMode.CLASSES, 4, new int[] { 0 }, 1 },
+                { ParallelMode.METHODS, 7, new int[] { 1 }, 7 },
+                { ParallelMode.INSTANCES, 3, new int[] { 1 }, 3 },
+                { ParallelMode.METHODS, 0, new int[] { 1 }, 1 } };
+    }
+
+    @Test(dataProvider = "suites")
+    public void sizesSessionsByParallelTestsClassesOrThreads(ParallelMode parallel, int threadCount, int[] classes,
+            int sessions)
+    {
+        XmlSuite xmlSuite = new XmlSuite();
+        xmlSuite.setParallel(parallel);
+        xmlSuite.setThreadCount(threadCount);
+
+        for (int i = 0; i < classes.length; i++)
+        {
+            XmlTest test = new XmlTest(xmlSuite);
+            test.setName("test-" + i);
+
+            List<XmlClass> xmlClasses = new ArrayList<XmlClass>();
+            for (int j = 0; j < classes[i]; j++)
+            {
+                xmlClasses.add(new XmlClass("io.xschema.test.Test" + i + "_" + j, false));
+            }
+
+            test.setXmlClasses(xmlClasses);
+        }
+
+        assertEquals(DriverPrewarmListener.sessions(xmlSuite, String.valueOf(parallel)), sessions);
+    }
+
+    @Test
+    public void warmsUpOneSessionWithoutParallelMode()
+    {
+        XmlSuite xmlSuite = new XmlSuite();
+        xmlSuite.setThreadCount(5);
+
+        assertEquals(DriverPrewarmListener.sessions(xmlSuite, null), 1);
+    }
+
+}
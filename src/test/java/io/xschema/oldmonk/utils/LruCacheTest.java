@@ -0,0 +1,91 @@
+package io.xschema.oldmonk.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+/**
+ * Eviction order and capacity changes of the LRU cache.
+ */
+public class LruCacheTest
+{
+    @Test
+    public void evictsLeastRecentlyUsedEntry()
+    {
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+
+        assertEquals(cache.get("a"), Integer.valueOf(1));
+        cache.put("c", 3);
+
+        assertNull(cache.get("b"), "least recently used");
+        assertEquals(cache.get("a"), Integer.valueOf(1));
+        assertEquals(cache.get("c"), Integer.valueOf(3));
+        assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void replacesValueWithoutEviction()
+    {
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("a", 10);
+
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.get("a"), Integer.valueOf(10));
+        assertEquals(cache.get("b"), Integer.valueOf(2));
+    }
+
+    @Test
+    public void shrinkingEvictsLeastRecentlyUsedEntries()
+    {
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(4);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.put("d", 4);
+        cache.get("a");
+
+        cache.setCapacity(2);
+
+        assertEquals(cache.getCapacity(), 2);
+        assertEquals(cache.size(), 2);
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertEquals(cache.get("d"), Integer.valueOf(4));
+        assertEquals(cache.get("a"), Integer.valueOf(1));
+
+        cache.setCapacity(3);
+        cache.put("e", 5);
+        assertEquals(cache.size(), 3);
+    }
+
+    @Test
+    public void removesAndClearsEntries()
+    {
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+
+        assertEquals(cache.remove("a"), Integer.valueOf(1));
+        assertNull(cache.remove("a"));
+
+        cache.clear();
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity()
+    {
+        new LruCache<String, Integer>(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsShrinkingToEmptyCapacity()
+    {
+        new LruCache<String, Integer>(1).setCapacity(0);
+    }
+}
@@ -0,0 +1,140 @@
+package io.xschema.oldmonk.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Compiling locators and looking them up again in the memory mapped file.
+ */
+public class MappedObjectRepositoryTest
+{
+    private File dir;
+    private File compiled;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException
+    {
+        dir = Files.createTempDirectory("oldmonk-compiled").toFile();
+        compiled = new File(dir, "compiled/locators.omr");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDirectory()
+    {
+        delete(dir);
+    }
+
+    @Test
+    public void mapsBackEveryLocator() throws Exception
+    {
+        Properties locators = new Properties();
+        locators.setProperty("login.username", "ID,username");
+        locators.setProperty("login.submit", "XPATH,//button[text()='Anmelden']");
+        locators.setProperty("search.umlaut", "XPATH,//a[text()='Gr\u00f6\u00dfe \u00e4ndern']");
+        locators.setProperty("search.cjk", "LINK_TEXT,\u691c\u7d22");
+        locators.setProperty("search.emoji", "CSS_SELECTOR,[title='\ud83d\udd0d']");
+        locators.setProperty("\u00fcn\u00efc\u00f6d\u00e9.name", "NAME,q");
+        locators.setProperty("empty", "");
+
+        for (int i = 0; i < 2000; i++)
+        {
+            locators.setProperty("generated.locator" + i, "XPATH,//tr[" + i + "]/td");
+        }
+
+        ObjectRepositoryCompiler.write(locators, compiled);
+        MappedObjectRepository mapped = MappedObjectRepository.open(compiled);
+
+        assertEquals(mapped.size(), locators.size());
+
+        for (String name : locators.stringPropertyNames())
+        {
+            assertEquals(mapped.get(name), locators.getProperty(name), name);
+        }
+
+        assertNull(mapped.get("login.password"));
+        assertNull(mapped.get(""));
+    }
+
+    @Test
+    public void mapsEmptyRepository() throws Exception
+    {
+        ObjectRepositoryCompiler.write(new Properties(), compiled);
+        MappedObjectRepository mapped = MappedObjectRepository.open(compiled);
+
+        assertEquals(mapped.size(), 0);
+        assertNull(mapped.get("login.username"));
+    }
+
+    @Test
+    public void compilesLocatorFilesOfDirectory() throws Exception
+    {
+        File repositoryDir = new File(dir, "locators");
+        repositoryDir.mkdirs();
+
+        write(new File(repositoryDir, "login.properties"), "username=ID,username",
+                "submit=XPATH,//button[text()='Se connecter \\u00e0 l\\u2019espace']");
+        write(new File(repositoryDir, "search.properties"), "query=NAME,q");
+
+        ObjectRepositoryCompiler.compile(repositoryDir, compiled);
+        MappedObjectRepository mapped = MappedObjectRepository.open(compiled);
+
+        assertEquals(mapped.size(), 3);
+        assertEquals(mapped.get("username"), "ID,username");
+        assertEquals(mapped.get("submit"), "XPATH,//button[text()='Se connecter \u00e0 l\u2019espace']");
+        assertEquals(mapped.get("query"), "NAME,q");
+    }
+
+    @Test
+    public void rejectsFileWhichIsNotCompiled() throws Exception
+    {
+        File other = new File(dir, "other.properties");
+        write(other, "username=ID,username");
+
+        try
+        {
+            MappedObjectRepository.open(other);
+            fail("locator file mapped as compiled repository");
+        } catch (IOException e)
+        {
+            assertEquals(e.getMessage(), "'" + other + "' is not a compiled object repository!");
+        }
+    }
+
+    private static void write(File f, String... lines) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+
+        for (String line : lines)
+        {
+            content.append(line).append('\n');
+        }
+
+        Files.write(f.toPath(), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void delete(File f)
+    {
+        File[] files = f.listFiles();
+
+        if (files != null)
+        {
+            for (File child : files)
+            {
+                delete(child);
+            }
+        }
+
+        f.delete();
+    }
+}
@@ -0,0 +1,274 @@
+package io.xschema.oldmonk.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Published object repository snapshots can be read like any Properties, but
+ * not modified.
+ */
+public class ObjectRepositoryTest
+{
+    private Properties snapshot;
+
+    @BeforeMethod
+    public void publishSnapshot()
+    {
+        Properties login = new Properties();
+        login.setProperty("username", "ID,username");
+        login.setProperty("submit", "XPATH,//button[@type='submit']");
+
+        Properties search = new Properties();
+        search.setProperty("query", "NAME,q");
+        search.setProperty("username", "ID,user");
+
+        snapshot = ObjectRepository.merge(Arrays.asList(login, search));
+    }
+
+    @Test
+    public void readsMergedLocators() throws Exception
+    {
+        assertEquals(snapshot.size(), 3);
+        assertEquals(snapshot.getProperty("username"), "ID,user", "later files override earlier ones");
+        assertEquals(snapshot.get("query"), "NAME,q");
+        assertTrue(snapshot.containsKey("submit"));
+        assertTrue(snapshot.keySet().contains("submit"));
+        assertTrue(snapshot.values().contains("NAME,q"));
+        assertEquals(snapshot.stringPropertyNames().size(), 3);
+
+        int entries = 0;
+        for (Map.Entry<Object, Object> entry : snapshot.entrySet())
+        {
+            assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+            entries++;
+        }
+        assertEquals(entries, 3);
+
+        StringWriter stored = new StringWriter();
+        snapshot.store(stored, null);
+        assertTrue(stored.toString().contains("query=NAME,q"), stored.toString());
+    }
+
+    @Test
+    public void rejectsPropertiesMutators()
+    {
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.setProperty("username", "ID,other");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.put("new", "ID,new");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.remove("username");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                snapshot.putAll(Collections.singletonMap("new", "ID,new"));
+                return null;
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                snapshot.clear();
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void rejectsJava8Mutators()
+    {
+        final BiFunction<Object, Object, Object> replace = new BiFunction<Object, Object, Object>()
+        {
+            @Override
+            public Object apply(Object key, Object value)
+            {
+                return "ID,other";
+            }
+        };
+
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.putIfAbsent("new", "ID,new");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.remove("username", "ID,user");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.replace("username", "ID,other");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.replace("username", "ID,user", "ID,other");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.computeIfAbsent("new", new Function<Object, Object>()
+                {
+                    @Override
+                    public Object apply(Object key)
+                    {
+                        return "ID,new";
+                    }
+                });
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.computeIfPresent("username", replace);
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.compute("username", replace);
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.merge("username", "ID,other", replace);
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                snapshot.replaceAll(replace);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void rejectsRemovalsThroughViews()
+    {
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.keySet().remove("username");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.values().remove("NAME,q");
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                snapshot.entrySet().clear();
+                return null;
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                Iterator<Object> keys = snapshot.keySet().iterator();
+                keys.next();
+                keys.remove();
+                return null;
+            }
+        });
+        assertReadOnly(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                return snapshot.entrySet().iterator().next().setValue("ID,other");
+            }
+        });
+    }
+
+    private void assertReadOnly(Callable<Object> mutation)
+    {
+        try
+        {
+            mutation.call();
+            fail("snapshot modified");
+        } catch (UnsupportedOperationException e)
+        {
+            // expected
+        } catch (Exception e)
+        {
+            throw new AssertionError(e);
+        }
+
+        assertEquals(snapshot.size(), 3);
+        assertEquals(snapshot.getProperty("username"), "ID,user");
+        assertEquals(snapshot.getProperty("query"), "NAME,q");
+    }
+}